@@ -1,14 +1,14 @@
 package huberlin.p2projekt21;
 
+import huberlin.p2projekt21.crypto.Crypto;
+import huberlin.p2projekt21.crypto.SignatureScheme;
 import huberlin.p2projekt21.kademlia.KademliaInstance;
 
 import java.math.BigInteger;
-import java.security.KeyFactory;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
 import java.util.Random;
 
 public class Helper {
@@ -23,7 +23,7 @@ public class Helper {
      */
     public static byte[] hashForKey(PublicKey key) throws NoSuchAlgorithmException {
         byte[] bytesKey = key.getEncoded();
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        MessageDigest digest = Crypto.digest();
         byte[] hash = digest.digest(bytesKey);
         assert(hash.length == 256/8);
         return hash;
@@ -41,14 +41,14 @@ public class Helper {
     }
 
     /**
-     * Generates PublicKey object from byte representation
+     * Generates PublicKey object from byte representation (any SignatureScheme)
      * @param key byte representation of PublicKey
      * @return key as PublicKey object
      * @throws NoSuchAlgorithmException .
      * @throws InvalidKeySpecException .
      */
     public static PublicKey getPublicKeyFromBytes(byte[] key) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(key));
+        return SignatureScheme.decode(key);
     }
 
     /**
@@ -2,11 +2,15 @@ package huberlin.p2projekt21.controller;
 
 import huberlin.p2projekt21.Helper;
 import huberlin.p2projekt21.crypto.Crypto;
+import huberlin.p2projekt21.crypto.SignatureScheme;
 import huberlin.p2projekt21.gui.MainGui;
 import huberlin.p2projekt21.gui.StartDialog;
 import huberlin.p2projekt21.kademlia.Data;
 import huberlin.p2projekt21.kademlia.KademliaInstance;
+import huberlin.p2projekt21.networking.BoundedChannel;
+import huberlin.p2projekt21.networking.Datagram;
 import huberlin.p2projekt21.networking.Receiver;
+import huberlin.p2projekt21.networking.SelectorTransport;
 import huberlin.p2projekt21.networking.Sender;
 import huberlin.p2projekt21.storage.Storage;
 
@@ -20,11 +24,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.*;
-import java.security.spec.X509EncodedKeySpec;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
 import java.util.logging.Logger;
@@ -33,12 +40,21 @@ import java.util.stream.Collectors;
 public class Controller {
 
     public static final boolean ENABLE_FILE_LOGGING = false;
+    // true: selector based transport; false: legacy Receiver/Sender threads
+    public static final boolean USE_NIO_TRANSPORT = true;
+    // true: small datagrams to the same peer are packed into one envelope (nio transport only)
+    public static final boolean USE_ENVELOPES = true;
 
     private DatagramChannel socket;
     private Sender sender;
     private Receiver receiver;
+    private SelectorTransport transport;
+    private BoundedChannel<DatagramPacket> senderChannel;
+    private BoundedChannel<Datagram> receiverChannel;
     private KademliaInstance kademlia;
     private PublicKey ownPublicKey;
+    // signs and stores own pages locally (off the caller's thread, e.g. the EDT)
+    private final ExecutorService storeExecutor;
 
     // own port
     private final SocketAddress own;
@@ -112,6 +128,8 @@ public class Controller {
     @Deprecated
     private void manualController() throws Exception {
         // initialize
+        Crypto.createPair();
+        ownPublicKey = Crypto.getStoredPublicKey();
         init();
 
         BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
@@ -130,16 +148,15 @@ public class Controller {
             // execute command
             switch (cmd) {
                 case "store" -> {
-                    if (words.length != 3) {
-                        System.out.println("Usage: store <key> <value>");
-                        System.out.println("Key needs to be an positive integer");
+                    if (words.length != 2) {
+                        System.out.println("Usage: store <value>");
                         System.out.println("Value needs to be a string without whitespaces");
+                        System.out.println("Stored as own page (signed, key is the own public key)");
                         continue;
                     }
-                    BigInteger key = BigInteger.valueOf(Long.parseLong(words[1]));
-                    byte[] value = words[2].getBytes();
+                    byte[] value = words[1].getBytes();
                     System.out.println("#Store");
-                    if (kademlia.store(key, value)) {
+                    if (store(value)) {
                         System.out.println("#\tStored in the network");
                     } else {
                         System.out.println("#\tStored locally");
@@ -189,7 +206,7 @@ public class Controller {
         MainGui gui = new MainGui(this, ownPublicKey);
 
         // load own page locally and in the network and restore
-        byte[][] stored = Storage.read(ownPublicKey.getEncoded());
+        byte[][] stored = Storage.read(SignatureScheme.encode(ownPublicKey));
         Data networkData = kademlia.getValueData(Helper.bigIntHashForKey(ownPublicKey));
         Data newest;
         if (stored == null) {
@@ -266,6 +283,8 @@ public class Controller {
                 .filter(path -> path.getFileName().toString().endsWith(".key"))
                 .collect(Collectors.toList());
 
+        // publish several pages at once, so STOREs to the same nodes can share datagrams
+        List<CompletableFuture<Boolean>> running = new ArrayList<>();
         for (Path key : keys) {
             System.out.println("read file: " + key.toString());
             byte[] keyBytes = Files.readAllBytes(key);
@@ -275,8 +294,13 @@ public class Controller {
                 continue;
             }
             Data tmp = new Data(data);
-            kademlia.store(tmp);
+            running.add(kademlia.storeAsync(tmp).exceptionally(e -> false));
+            if (running.size() >= KademliaInstance.MAX_PARALLEL_PUBLISHES) {
+                CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).join();
+                running.clear();
+            }
         }
+        CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).join();
     }
 
     /**
@@ -290,21 +314,35 @@ public class Controller {
      * @return true, if stored 'globally', false if only stored locally
      */
     public boolean store(byte[] data) {
-        byte[] signature;
+        return storeAsync(data).join();
+    }
+
+    /**
+     * Creates signature for the data (with own privateKey)
+     * Stores it locally and in the network using the own publicKey without blocking
+     * Signing and the local store run on the storeExecutor (safe to call from the EDT)
+     *
+     * @param data byte representation of the data to be stored
+     * @return future completed with true, if stored 'globally', false if only stored locally
+     */
+    public CompletableFuture<Boolean> storeAsync(byte[] data) {
         long timeStamp = System.currentTimeMillis();
-        Data.Page page = new Data.Page(data, timeStamp);
-        try {
-            // sign data
-            signature = Crypto.signWithStoredKey(page.toBytes());
-            // store locally
-            Storage.storeOwn(page.toBytes());
+        return CompletableFuture.supplyAsync(() -> {
+            Data.Page page = new Data.Page(data, timeStamp);
+            try {
+                // sign data
+                byte[] signature = Crypto.signWithStoredKey(page.toBytes());
+                // store locally
+                Storage.storeOwn(page.toBytes());
+                return new Data(data, signature, SignatureScheme.encode(ownPublicKey), timeStamp);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, storeExecutor).thenCompose(tmp -> kademlia.storeAsync(tmp)).exceptionally(e -> {
             // kademlia store
-            Data tmp = new Data(data, signature, ownPublicKey.getEncoded(), timeStamp);
-            return kademlia.store(tmp);
-        } catch (Exception e) {
             e.printStackTrace();
             return false;
-        }
+        });
     }
 
     /**
@@ -318,20 +356,35 @@ public class Controller {
      * @return requested page (or null)
      */
     public Data.Page load(BigInteger key) {
-        try {
-            // kademlia load
-            Data data = kademlia.getValueData(key);
-            // verify signature
-            if (data != null) {
-                Crypto.verify(data.getPage().toBytes(), data.getSignature(), KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(data.getPublicKey())));
-                return data.getPage();
-            } else {
+        return loadAsync(key).join();
+    }
+
+    /**
+     * Loads the page for the specified key without blocking
+     * Loads it from local storage if possible or the network
+     *
+     * @param key for the requested data
+     * @return future completed with the requested page (or null)
+     */
+    public CompletableFuture<Data.Page> loadAsync(BigInteger key) {
+        // kademlia load
+        return kademlia.getValueDataAsync(key).thenApply(data -> {
+            try {
+                // verify signature
+                if (data != null) {
+                    Crypto.verify(data.getPage().toBytes(), data.getSignature(), Helper.getPublicKeyFromBytes(data.getPublicKey()));
+                    return data.getPage();
+                } else {
+                    return null;
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
                 return null;
             }
-        } catch (Exception e) {
+        }).exceptionally(e -> {
             e.printStackTrace();
             return null;
-        }
+        });
     }
 
     /**
@@ -348,6 +401,11 @@ public class Controller {
             own = null;
         }
         this.ip = btAddress;
+        this.storeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "store");
+            thread.setDaemon(true);
+            return thread;
+        });
         if (btPort >= 0 && btPort <= 65535)
             port = btPort;
         else
@@ -360,10 +418,14 @@ public class Controller {
      * @throws IOException .
      */
     public void terminate() throws IOException {
-        this.sender.terminate();
-        this.receiver.terminate();
+        this.storeExecutor.shutdown();
+        if (this.transport != null) this.transport.terminate();
+        if (this.sender != null) this.sender.terminate();
+        if (this.receiver != null) this.receiver.terminate();
         this.kademlia.stop();
         this.socket.close();
+        Logger.getGlobal().info("receiver channel: " + receiverChannel + "\nsender channel: " + senderChannel);
+        if (this.transport != null) Logger.getGlobal().info("outbound queues: " + transport.getScheduler());
         closeHandler();
     }
 
@@ -382,14 +444,19 @@ public class Controller {
         printOwnLocalIP(socket);
         printGlobalIO();
 
-        ConcurrentLinkedDeque<DatagramPacket> senderChannel = new ConcurrentLinkedDeque<>();
-        ConcurrentLinkedDeque<DatagramPacket> receiverChannel = new ConcurrentLinkedDeque<>();
+        this.senderChannel = new BoundedChannel<>(BoundedChannel.OUTGOING_CAPACITY);
+        this.receiverChannel = new BoundedChannel<>(BoundedChannel.INCOMING_CAPACITY);
 
-        this.sender = new Sender(socket, senderChannel);
-        this.receiver = new Receiver(socket, receiverChannel);
+        if (USE_NIO_TRANSPORT) {
+            this.transport = new SelectorTransport(socket, receiverChannel, senderChannel, USE_ENVELOPES);
+            this.transport.start();
+        } else {
+            this.sender = new Sender(socket, senderChannel);
+            this.receiver = new Receiver(socket, receiverChannel);
 
-        this.sender.start();
-        this.receiver.start();
+            this.sender.start();
+            this.receiver.start();
+        }
 
         this.kademlia = new KademliaInstance(receiverChannel, senderChannel);
         this.kademlia.start(ip, port);
@@ -13,8 +13,34 @@ import java.security.spec.X509EncodedKeySpec;
 
 /**
  * Class containing functions for data verification
+ * Engine instances (Signature, KeyFactory, MessageDigest) are kept per thread (they are not thread safe,
+ * but creating them requires a provider lookup), the stored key pair is read once and kept in memory
+ *
+ * The scheme of new key pairs is set by SIGNATURE_SCHEME (RSA or ED25519, see SignatureScheme),
+ * signatures are created and verified with the scheme of the given key
  */
 public class Crypto {
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<>();
+    // key pair read from PUBLIC_KEY_FILE/PRIVATE_KEY_FILE (null until first use or after reload)
+    private static volatile KeyPair storedKeys = null;
+
+    /**
+     * Get the SHA-256 MessageDigest of the current thread
+     *
+     * @return reset digest
+     * @throws NoSuchAlgorithmException
+     */
+    public static MessageDigest digest() throws NoSuchAlgorithmException {
+        MessageDigest digest = DIGEST.get();
+        if (digest == null) {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            DIGEST.set(digest);
+        }
+        digest.reset();
+        return digest;
+    }
 
     /**
      * This method verifies a signature of the given data in regards to a public key
@@ -28,7 +54,7 @@ public class Crypto {
      * @throws SignatureException
      */
     public static boolean verify(byte[] data, byte[] signature, PublicKey key) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
-        Signature sigInstance = Signature.getInstance("SHA256withRSA");
+        Signature sigInstance = SignatureScheme.of(key).signatureEngine();
         sigInstance.initVerify(key);
         sigInstance.update(data);
         return sigInstance.verify(signature);
@@ -45,7 +71,7 @@ public class Crypto {
      * @throws SignatureException
      */
     public static byte[] sign(byte[] data, PrivateKey key) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
-        Signature sigInstance = Signature.getInstance("SHA256withRSA");
+        Signature sigInstance = SignatureScheme.of(key).signatureEngine();
         sigInstance.initSign(key);
         sigInstance.update(data);
 
@@ -64,16 +90,11 @@ public class Crypto {
      * @throws InvalidKeySpecException
      */
     public static byte[] signWithStoredKey(byte[] data) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException, InvalidKeySpecException {
-        PrivateKey key = getStoredPrivateKey();
-        Signature sigInstance = Signature.getInstance("SHA256withRSA");
-        sigInstance.initSign(key);
-        sigInstance.update(data);
-
-        return sigInstance.sign();
+        return sign(data, getStoredPrivateKey());
     }
 
     /**
-     * This method generates an RSA key pair and persists the keys on the local machine
+     * This method generates a key pair (of the configured SIGNATURE_SCHEME) and persists the keys on the local machine
      *
      * @return The generated key pair if no key pair was found on the machine, otherwise null
      * @throws NoSuchAlgorithmException
@@ -84,6 +105,7 @@ public class Crypto {
         String privateKeyString = props.get("PRIVATE_KEY_FILE");
         String publicKeyString = props.get("PUBLIC_KEY_FILE");
         String keySize = props.get("KEY_SIZE");
+        SignatureScheme scheme = SignatureScheme.byName(props.get("SIGNATURE_SCHEME"));
         assert (!privateKeyString.isBlank());
         assert (!publicKeyString.isBlank());
         assert (!keySize.isBlank());
@@ -92,9 +114,7 @@ public class Crypto {
         Path publicKeyFile = Paths.get(publicKeyString);
 
         if (Files.notExists(privateKeyFile) && Files.notExists(publicKeyFile)) {
-            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
-            generator.initialize(Integer.parseInt(keySize), new SecureRandom());
-            KeyPair pair = generator.generateKeyPair();
+            KeyPair pair = scheme.generate(Integer.parseInt(keySize));
 
             if (Files.notExists(privateKeyFile.getParent())) {
                 Files.createDirectories(privateKeyFile.getParent());
@@ -104,6 +124,7 @@ public class Crypto {
             Files.createFile(publicKeyFile);
             Files.write(privateKeyFile, pair.getPrivate().getEncoded());
             Files.write(publicKeyFile, pair.getPublic().getEncoded());
+            storedKeys = pair;
 
             return pair;
         } else {
@@ -120,12 +141,12 @@ public class Crypto {
      * @throws InvalidKeySpecException
      */
     public static int getPublicKeyHash(byte[] key) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        PublicKey publicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(key));
+        PublicKey publicKey = SignatureScheme.decode(key);
         return publicKey.hashCode();
     }
 
     /**
-     * This method reads and returns the public key stored on the local machine
+     * This method returns the public key stored on the local machine (read once)
      *
      * @return The stored public key
      * @throws IOException
@@ -133,17 +154,11 @@ public class Crypto {
      * @throws InvalidKeySpecException
      */
     public static PublicKey getStoredPublicKey() throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
-        PropertiesSingleton props = PropertiesSingleton.getInstance();
-        String keyString = props.get("PUBLIC_KEY_FILE");
-        assert (!keyString.isBlank());
-
-        Path keyFile = Paths.get(keyString);
-        byte[] publicKey = Files.readAllBytes(keyFile);
-        return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(publicKey));
+        return getStoredKeys().getPublic();
     }
 
     /**
-     * This method reads and returns the private key stored on the local machine
+     * This method returns the private key stored on the local machine (read once)
      *
      * @return The stored private key
      * @throws IOException
@@ -151,12 +166,67 @@ public class Crypto {
      * @throws InvalidKeySpecException
      */
     public static PrivateKey getStoredPrivateKey() throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        return getStoredKeys().getPrivate();
+    }
+
+    /**
+     * This method discards the key pair held in memory and reads it again from the local machine
+     * (call after the key files were replaced)
+     *
+     * @return The reloaded key pair
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeySpecException
+     */
+    public static synchronized KeyPair reloadStoredKeys() throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        storedKeys = null;
+        return getStoredKeys();
+    }
+
+    private static KeyPair getStoredKeys() throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        KeyPair keys = storedKeys;
+        if (keys != null) return keys;
+        synchronized (Crypto.class) {
+            if (storedKeys == null) storedKeys = new KeyPair(readPublicKey(), readPrivateKey());
+            return storedKeys;
+        }
+    }
+
+    private static PublicKey readPublicKey() throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        PropertiesSingleton props = PropertiesSingleton.getInstance();
+        String keyString = props.get("PUBLIC_KEY_FILE");
+        assert (!keyString.isBlank());
+
+        Path keyFile = Paths.get(keyString);
+        byte[] publicKey = Files.readAllBytes(keyFile);
+        // key files are plain X.509, the scheme is only known after parsing
+        InvalidKeySpecException last = null;
+        for (SignatureScheme scheme : SignatureScheme.values()) {
+            try {
+                return scheme.keyFactory().generatePublic(new X509EncodedKeySpec(publicKey));
+            } catch (InvalidKeySpecException e) {
+                last = e;
+            }
+        }
+        throw last;
+    }
+
+    private static PrivateKey readPrivateKey() throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
         PropertiesSingleton props = PropertiesSingleton.getInstance();
         String keyString = props.get("PRIVATE_KEY_FILE");
         assert (!keyString.isBlank());
 
         Path keyFile = Paths.get(keyString);
         byte[] privateKey = Files.readAllBytes(keyFile);
-        return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(privateKey));
+        // key files are plain PKCS#8, the scheme is only known after parsing
+        InvalidKeySpecException last = null;
+        for (SignatureScheme scheme : SignatureScheme.values()) {
+            try {
+                return scheme.keyFactory().generatePrivate(new PKCS8EncodedKeySpec(privateKey));
+            } catch (InvalidKeySpecException e) {
+                last = e;
+            }
+        }
+        throw last;
     }
 }
@@ -0,0 +1,84 @@
+package huberlin.p2projekt21.crypto;
+
+import huberlin.p2projekt21.Helper;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Interns parsed public keys and their hashes by the serialized key (see SignatureScheme.encode)
+ * The same few keys (one per author) arrive with every stored or looked up page, parsing (KeyFactory)
+ * and hashing them is done once per key (bounded, least recently used keys are dropped)
+ */
+public class PublicKeyCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+    // shared by all users (parsing results do not depend on the caller)
+    public static final PublicKeyCache SHARED = new PublicKeyCache(DEFAULT_CAPACITY);
+
+    private final LinkedHashMap<ByteBuffer, KeyInfo> keys;
+
+    /**
+     * Create new cache
+     *
+     * @param capacity max number of interned keys
+     */
+    public PublicKeyCache(int capacity) {
+        this.keys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, KeyInfo> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get parsed key and hash of a serialized public key
+     *
+     * @param key serialized public key
+     * @return parsed key and its hash
+     * @throws NoSuchAlgorithmException .
+     * @throws InvalidKeySpecException .
+     */
+    public KeyInfo get(byte[] key) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        ByteBuffer lookup = ByteBuffer.wrap(key);
+        synchronized (this) {
+            KeyInfo info = keys.get(lookup);
+            if (info != null) return info;
+        }
+        // parse without holding the lock (parsed twice at worst)
+        PublicKey publicKey = Helper.getPublicKeyFromBytes(key);
+        KeyInfo info = new KeyInfo(publicKey, Helper.bigIntHashForKey(publicKey));
+        synchronized (this) {
+            // own copy as map key, the caller may modify its array
+            keys.put(ByteBuffer.wrap(key.clone()), info);
+        }
+        return info;
+    }
+
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    public static class KeyInfo {
+        private final PublicKey publicKey;
+        private final BigInteger keyHash;
+
+        private KeyInfo(PublicKey publicKey, BigInteger keyHash) {
+            this.publicKey = publicKey;
+            this.keyHash = keyHash;
+        }
+
+        public PublicKey getPublicKey() {
+            return publicKey;
+        }
+
+        public BigInteger getKeyHash() {
+            return keyHash;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package huberlin.p2projekt21.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers successfully verified (publicKey, data, signature) triples
+ * Republished and replicated pages arrive many times with identical bytes, for those the signature verification
+ * (and decoding of the public key) is skipped
+ *
+ * Entries are identified by SHA-256 over key, data and signature, so a cached signature never validates
+ * different data or a different key. Only successful verifications are cached (bounded, least recently used
+ * entries are dropped)
+ */
+public class SignatureCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+    // shared by all users (verification results do not depend on the caller)
+    public static final SignatureCache SHARED = new SignatureCache(DEFAULT_CAPACITY);
+
+    private final LinkedHashMap<ByteBuffer, Boolean> verified;
+    private long hits;
+    private long misses;
+
+    /**
+     * Create new cache
+     *
+     * @param capacity max number of remembered triples
+     */
+    public SignatureCache(int capacity) {
+        this.verified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /**
+     * Verifies the signature of the data, skipped if the identical triple was verified before
+     *
+     * @param data      Data used for signature verification
+     * @param signature Signature used for verification
+     * @param key       serialized public key for signature verification
+     * @return true if signature is valid, false otherwise
+     * @throws NoSuchAlgorithmException .
+     * @throws InvalidKeySpecException .
+     * @throws InvalidKeyException .
+     * @throws SignatureException .
+     */
+    public boolean verify(byte[] data, byte[] signature, byte[] key) throws NoSuchAlgorithmException,
+            InvalidKeySpecException, InvalidKeyException, SignatureException {
+        ByteBuffer digest = digest(data, signature, key);
+        synchronized (this) {
+            if (verified.get(digest) != null) {
+                hits++;
+                return true;
+            }
+            misses++;
+        }
+        // verify without holding the lock
+        if (!Crypto.verify(data, signature, PublicKeyCache.SHARED.get(key).getPublicKey())) return false;
+        synchronized (this) {
+            verified.put(digest, Boolean.TRUE);
+        }
+        return true;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return verified.size();
+    }
+
+    private static ByteBuffer digest(byte[] data, byte[] signature, byte[] key) throws NoSuchAlgorithmException {
+        MessageDigest digest = Crypto.digest();
+        // lengths separate the fields (no ambiguity between key/data/signature boundaries)
+        digest.update(ByteBuffer.allocate(3 * Integer.BYTES)
+                .putInt(key.length).putInt(data.length).putInt(signature.length).array());
+        digest.update(key);
+        digest.update(data);
+        digest.update(signature);
+        return ByteBuffer.wrap(digest.digest());
+    }
+}
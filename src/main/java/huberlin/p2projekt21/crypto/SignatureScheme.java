@@ -0,0 +1,196 @@
+package huberlin.p2projekt21.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.*;
+import java.security.interfaces.EdECKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * Signature schemes a page can be signed with
+ *
+ * A serialized public key identifies its scheme (and thereby the key and signature length of a record):
+ * RSA keys are plain X.509 (first byte is always 0x30, the DER sequence tag), this is the original record format.
+ * All other schemes use the versioned format [VERSION_TAG][scheme id][X.509 key]
+ */
+public enum SignatureScheme {
+    RSA((byte) 1, "SHA256withRSA", "RSA", 294, 256, false),
+    ED25519((byte) 2, "Ed25519", "Ed25519", 2 + 44, 64, true);
+
+    // first byte of versioned keys
+    public static final byte VERSION_TAG = 0x02;
+    public static final String DEFAULT_SCHEME = "RSA";
+
+    private final byte id;
+    private final String signatureAlgorithm;
+    private final String keyAlgorithm;
+    private final int keyLength;
+    private final int signatureLength;
+    private final boolean versioned;
+    // engines are not thread safe -> one per thread and scheme
+    private final ThreadLocal<Signature> signature;
+    private final ThreadLocal<KeyFactory> keyFactory;
+
+    SignatureScheme(byte id, String signatureAlgorithm, String keyAlgorithm, int keyLength, int signatureLength,
+                    boolean versioned) {
+        this.id = id;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.keyAlgorithm = keyAlgorithm;
+        this.keyLength = keyLength;
+        this.signatureLength = signatureLength;
+        this.versioned = versioned;
+        this.signature = new ThreadLocal<>();
+        this.keyFactory = new ThreadLocal<>();
+    }
+
+    /**
+     * Get the scheme of a serialized public key
+     *
+     * @param key serialized public key (at least the first two bytes)
+     * @return scheme of the key
+     * @throws IllegalArgumentException if the key is versioned with an unknown scheme
+     */
+    public static SignatureScheme of(byte[] key) {
+        if (key.length < 2 || key[0] != VERSION_TAG) return RSA;
+        return byId(key[1]);
+    }
+
+    /**
+     * Get the scheme of a serialized public key without copying it
+     *
+     * @param buffer buffer containing the serialized key at index
+     * @param index index of the key
+     * @return scheme of the key
+     * @throws IllegalArgumentException if the key is versioned with an unknown scheme
+     */
+    public static SignatureScheme of(ByteBuffer buffer, int index) {
+        if (buffer.limit() - index < 2 || buffer.get(index) != VERSION_TAG) return RSA;
+        return byId(buffer.get(index + 1));
+    }
+
+    /**
+     * Get the scheme of a parsed key
+     *
+     * @param key public or private key
+     * @return scheme of the key
+     */
+    public static SignatureScheme of(Key key) {
+        return key instanceof EdECKey ? ED25519 : RSA;
+    }
+
+    /**
+     * Get the scheme by its name (e.g. from the SIGNATURE_SCHEME property)
+     *
+     * @param name name of the scheme (case insensitive), null for the default
+     * @return scheme
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static SignatureScheme byName(String name) {
+        return valueOf((name == null || name.isBlank() ? DEFAULT_SCHEME : name.trim()).toUpperCase());
+    }
+
+    private static SignatureScheme byId(byte id) {
+        for (SignatureScheme scheme : values()) {
+            if (scheme.versioned && scheme.id == id) return scheme;
+        }
+        throw new IllegalArgumentException("unknown signature scheme " + id);
+    }
+
+    /**
+     * Serialize a public key (as carried in records)
+     *
+     * @param key public key
+     * @return serialized key
+     */
+    public static byte[] encode(PublicKey key) {
+        SignatureScheme scheme = of(key);
+        byte[] x509 = key.getEncoded();
+        if (!scheme.versioned) return x509;
+        byte[] res = new byte[x509.length + 2];
+        res[0] = VERSION_TAG;
+        res[1] = scheme.id;
+        System.arraycopy(x509, 0, res, 2, x509.length);
+        return res;
+    }
+
+    /**
+     * Parse a serialized public key (as carried in records)
+     *
+     * @param key serialized key
+     * @return parsed public key
+     * @throws NoSuchAlgorithmException .
+     * @throws InvalidKeySpecException .
+     */
+    public static PublicKey decode(byte[] key) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        SignatureScheme scheme;
+        try {
+            scheme = of(key);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidKeySpecException(e.getMessage());
+        }
+        byte[] x509 = scheme.versioned ? Arrays.copyOfRange(key, 2, key.length) : key;
+        return scheme.keyFactory().generatePublic(new X509EncodedKeySpec(x509));
+    }
+
+    /**
+     * Generate a new key pair of this scheme
+     *
+     * @param rsaKeySize key size in bits (only used by RSA)
+     * @return new key pair
+     * @throws NoSuchAlgorithmException .
+     */
+    public KeyPair generate(int rsaKeySize) throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(keyAlgorithm);
+        if (this == RSA) generator.initialize(rsaKeySize, new SecureRandom());
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Get the Signature engine of the current thread
+     *
+     * @return engine (has to be initialized before use)
+     * @throws NoSuchAlgorithmException .
+     */
+    public Signature signatureEngine() throws NoSuchAlgorithmException {
+        Signature engine = signature.get();
+        if (engine == null) {
+            engine = Signature.getInstance(signatureAlgorithm);
+            signature.set(engine);
+        }
+        return engine;
+    }
+
+    /**
+     * Get the KeyFactory of the current thread
+     *
+     * @return key factory
+     * @throws NoSuchAlgorithmException .
+     */
+    public KeyFactory keyFactory() throws NoSuchAlgorithmException {
+        KeyFactory factory = keyFactory.get();
+        if (factory == null) {
+            factory = KeyFactory.getInstance(keyAlgorithm);
+            keyFactory.set(factory);
+        }
+        return factory;
+    }
+
+    /**
+     * Get the length of serialized public keys of this scheme
+     *
+     * @return length in bytes
+     */
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    /**
+     * Get the length of signatures of this scheme
+     *
+     * @return length in bytes
+     */
+    public int getSignatureLength() {
+        return signatureLength;
+    }
+}
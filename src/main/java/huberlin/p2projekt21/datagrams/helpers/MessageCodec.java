@@ -0,0 +1,91 @@
+package huberlin.p2projekt21.datagrams.helpers;
+
+import huberlin.p2projekt21.kademlia.KademliaId;
+import huberlin.p2projekt21.kademlia.RandomId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes the message header in place on a ByteBuffer
+ * All accessors use absolute offsets relative to the buffer's position, nothing is copied or allocated
+ *
+ * Header layout: | type (1) | senderNodeID (32) | randomID (20) | payload ... |
+ */
+public class MessageCodec {
+    private MessageCodec(){}
+
+    public static final int TYPE_OFFSET = 0;
+    public static final int NODEID_OFFSET = TYPE_OFFSET + MessageConstants.TYPE_SIZE_BYTES;
+    public static final int RANDOMID_OFFSET = NODEID_OFFSET + MessageConstants.NODEID_SIZE_BYTES;
+    public static final int PAYLOAD_OFFSET = RANDOMID_OFFSET + MessageConstants.RANDOMID_SIZE_BYTES;
+
+    /**
+     * Checks if the buffer contains at least a complete header
+     *
+     * @param message buffer containing a message in [position, limit)
+     * @return true if the header is complete
+     */
+    public static boolean hasHeader(ByteBuffer message) {
+        return message.remaining() >= MessageConstants.HEADER_SIZE_BYTES;
+    }
+
+    public static byte getType(ByteBuffer message) {
+        return message.get(message.position() + TYPE_OFFSET);
+    }
+
+    /**
+     * Read the sender node id
+     *
+     * @param message buffer containing a message in [position, limit)
+     * @return sender node id
+     */
+    public static KademliaId getSenderNodeID(ByteBuffer message) {
+        return KademliaId.read(message, message.position() + NODEID_OFFSET);
+    }
+
+    /**
+     * Read the random id
+     *
+     * @param message buffer containing a message in [position, limit)
+     * @return random id
+     */
+    public static RandomId getRandomID(ByteBuffer message) {
+        return RandomId.read(message, message.position() + RANDOMID_OFFSET);
+    }
+
+    /**
+     * Get the number of payload bytes
+     *
+     * @param message buffer containing a message in [position, limit)
+     * @return payload length
+     */
+    public static int getPayloadLength(ByteBuffer message) {
+        return message.remaining() - PAYLOAD_OFFSET;
+    }
+
+    /**
+     * Get a view of the payload (shares content with message, nothing is copied)
+     *
+     * @param message buffer containing a message in [position, limit)
+     * @return view of the payload
+     */
+    public static ByteBuffer payload(ByteBuffer message) {
+        ByteBuffer view = message.duplicate();
+        view.position(message.position() + PAYLOAD_OFFSET);
+        return view.slice();
+    }
+
+    /**
+     * Write the header at the buffer's position and advance it
+     *
+     * @param out target buffer
+     * @param type message type
+     * @param senderNodeID sender node id
+     * @param randomID random id
+     */
+    public static void putHeader(ByteBuffer out, byte type, KademliaId senderNodeID, RandomId randomID) {
+        out.put(type);
+        senderNodeID.writeTo(out);
+        randomID.writeTo(out);
+    }
+}
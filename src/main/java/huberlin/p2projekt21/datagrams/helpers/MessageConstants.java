@@ -25,6 +25,17 @@ public class MessageConstants {
     public static final byte TYPE_FINDNODE_R = 6;
     public static final byte TYPE_FINDVALUE = 7;
     public static final byte TYPE_FINDVALUE_R = 8;
+    public static final byte TYPE_CHUNK = 9;
+    public static final byte TYPE_CHUNK_ACK = 10;
+    public static final byte TYPE_BATCH = 11;
+    //0xFF ist reserviert (Envelope mehrerer Nachrichten, siehe networking.Envelope)
+
+    //Status einer STORE-Antwort (TYPE_STORE_STATUS)
+    public static final byte STATUS_REJECTED = 0;
+    public static final byte STATUS_STORED = 1;
+
+    //Nutzdaten pro Chunk (Chunk + Header passen auch bei IPv6-Mindest-MTU von 1280 Bytes in ein IP-Paket)
+    public static final int CHUNK_DATA_SIZE_BYTES = 1024;
 
     public static void prettyPrintByteArray(byte[] msg){
         for (int j = 1; j < msg.length+1; j++) {
@@ -2,25 +2,38 @@ package huberlin.p2projekt21.datagrams.helpers;
 
 import huberlin.p2projekt21.datagrams.messages.*;
 
+import java.nio.ByteBuffer;
+
 public class PayloadConverter {
     public static IPayload convertFromBytestream(byte[] bytesIn, byte type){
+        return convertFromBuffer(ByteBuffer.wrap(bytesIn), type);
+    }
+
+    //Liest den Payload direkt aus dem Buffer (ohne Zwischenkopie)
+    public static IPayload convertFromBuffer(ByteBuffer in, byte type){
         switch(type){
             case MessageConstants.TYPE_PING:
                 return null;
             case MessageConstants.TYPE_PONG:
                 return null;
             case MessageConstants.TYPE_STORE_ENTRYKEY:
-                return EntryKey.fromBytestream(bytesIn);
+                return EntryKey.fromBuffer(in);
             case MessageConstants.TYPE_STORE_STATUS:
-                return StatusTcpInfo.fromBytestream(bytesIn);
+                return StatusTcpInfo.fromBuffer(in);
             case MessageConstants.TYPE_FINDNODE:
-                return NodeID.fromBytestream(bytesIn);
+                return NodeID.fromBuffer(in);
             case MessageConstants.TYPE_FINDNODE_R:
-                return Tuples.fromBytestream(bytesIn);
+                return Tuples.fromBuffer(in);
             case MessageConstants.TYPE_FINDVALUE:
-                return NodeID.fromBytestream(bytesIn);
+                return NodeID.fromBuffer(in);
             case MessageConstants.TYPE_FINDVALUE_R:
-                return EntryValue.fromBytestream(bytesIn);
+                return EntryValue.fromBuffer(in);
+            case MessageConstants.TYPE_CHUNK:
+                return Chunk.fromBuffer(in);
+            case MessageConstants.TYPE_CHUNK_ACK:
+                return ChunkAck.fromBuffer(in);
+            case MessageConstants.TYPE_BATCH:
+                return Batch.fromBuffer(in);
         }
         return null;
     }
@@ -0,0 +1,127 @@
+package huberlin.p2projekt21.datagrams.messages;
+
+import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
+import huberlin.p2projekt21.datagrams.helpers.PayloadConverter;
+import huberlin.p2projekt21.kademlia.RandomId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+//Mehrere Nachrichten desselben Typs an denselben Empfänger (teilen sich einen Header)
+//Layout: | innerType (1) | count (2) | count * ( randomID (20) | payloadLength (4) | payload ... ) |
+public class Batch implements IPayload {
+    //Bytes pro Eintrag zusätzlich zum Payload
+    public static final int ENTRY_OVERHEAD_BYTES = MessageConstants.RANDOMID_SIZE_BYTES + 4;
+    public static final int HEADER_BYTES = 1 + 2;
+    public static final int MAX_ENTRIES = 0xFFFF;
+
+    private final byte innerType;
+    private final List<Entry> entries;
+
+    public Batch(byte innerType){
+        this.innerType = innerType;
+        this.entries = new ArrayList<>();
+    }
+
+    //Nur diese Typen dürfen gebündelt werden (keine verschachtelten Batches)
+    public static boolean isBatchable(byte type){
+        return type == MessageConstants.TYPE_FINDVALUE || type == MessageConstants.TYPE_STORE_ENTRYKEY
+                || type == MessageConstants.TYPE_STORE_STATUS;
+    }
+
+    public byte getInnerType() {
+        return innerType;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public void addEntry(RandomId randomID, IPayload payload){
+        if(entries.size() >= MAX_ENTRIES){
+            throw new IllegalStateException("batch full");
+        }
+        entries.add(new Entry(randomID, payload));
+    }
+
+    public int getLength(){
+        int length = HEADER_BYTES;
+        for(Entry entry : entries){
+            length += ENTRY_OVERHEAD_BYTES + entry.getPayloadLength();
+        }
+        return length;
+    }
+
+    public void writeTo(ByteBuffer out){
+        out.put(innerType);
+        out.putShort((short) entries.size());
+        for(Entry entry : entries){
+            entry.randomID.writeTo(out);
+            out.putInt(entry.getPayloadLength());
+            if(entry.payload != null){
+                entry.payload.writeTo(out);
+            }
+        }
+    }
+
+    public static IPayload fromBuffer(ByteBuffer in){
+        Batch out = new Batch(in.get());
+        if(!isBatchable(out.innerType)){
+            throw new IllegalArgumentException("invalid batch type");
+        }
+        int count = in.getShort() & 0xFFFF;
+        for(int i = 0; i < count; i++){
+            RandomId randomID = RandomId.read(in, in.position());
+            in.position(in.position() + MessageConstants.RANDOMID_SIZE_BYTES);
+            int payloadLen = in.getInt();
+            if(payloadLen < 0 || payloadLen > in.remaining()){
+                throw new IllegalArgumentException("invalid batch entry length");
+            }
+            //Payload des Eintrags direkt aus dem Buffer lesen (begrenzt auf seine Länge)
+            ByteBuffer view = in.slice();
+            view.limit(payloadLen);
+            IPayload payload = payloadLen > 0 ? PayloadConverter.convertFromBuffer(view, out.innerType) : null;
+            in.position(in.position() + payloadLen);
+            out.entries.add(new Entry(randomID, payload));
+        }
+        return out;
+    }
+
+    public static IPayload fromBytestream(byte[] in){
+        return fromBuffer(ByteBuffer.wrap(in));
+    }
+
+    public void print() {
+        System.out.println("Payload Batch");
+        System.out.println("Type: " + innerType + " Entries: " + entries.size());
+        for(Entry entry : entries){
+            System.out.println("RandomID: " + entry.randomID);
+            if(entry.payload != null){
+                entry.payload.print();
+            }
+        }
+    }
+
+    public static class Entry {
+        private final RandomId randomID;
+        private final IPayload payload;
+
+        private Entry(RandomId randomID, IPayload payload){
+            this.randomID = randomID;
+            this.payload = payload;
+        }
+
+        public RandomId getRandomID() {
+            return randomID;
+        }
+
+        public IPayload getPayload() {
+            return payload;
+        }
+
+        private int getPayloadLength(){
+            return payload != null ? payload.getLength() : 0;
+        }
+    }
+}
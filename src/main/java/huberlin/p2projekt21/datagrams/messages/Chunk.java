@@ -0,0 +1,83 @@
+package huberlin.p2projekt21.datagrams.messages;
+
+import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
+
+import java.nio.ByteBuffer;
+
+//Teilstück einer großen Nachricht (siehe ChunkedTransfer)
+//Layout: | transferID (8) | totalLength (4) | offset (4) | dataLength (4) | data ... |
+public class Chunk implements IPayload {
+    private long transferID;
+    private int totalLength;
+    private int offset;
+    private byte[] data;
+
+    private Chunk(){
+        this.data = null;
+    }
+
+    //Die Daten werden nicht kopiert
+    public Chunk(long transferID, int totalLength, int offset, byte[] data){
+        this.transferID = transferID;
+        this.totalLength = totalLength;
+        this.offset = offset;
+        this.data = data;
+    }
+
+    public long getTransferID() {
+        return transferID;
+    }
+
+    public int getTotalLength() {
+        return totalLength;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    //Index des Chunks innerhalb der Nachricht
+    public int getIndex() {
+        return offset / MessageConstants.CHUNK_DATA_SIZE_BYTES;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength(){
+        return 8 + 4 + 4 + 4 + data.length;
+    }
+
+    public void writeTo(ByteBuffer out){
+        out.putLong(transferID);
+        out.putInt(totalLength);
+        out.putInt(offset);
+        out.putInt(data.length);
+        out.put(data);
+    }
+
+    public static IPayload fromBuffer(ByteBuffer in){
+        Chunk out = new Chunk();
+        out.transferID = in.getLong();
+        out.totalLength = in.getInt();
+        out.offset = in.getInt();
+        int dataLen = in.getInt();
+        if(dataLen < 0 || dataLen > in.remaining()){
+            throw new IllegalArgumentException("invalid chunk length");
+        }
+        out.data = new byte[dataLen];
+        in.get(out.data);
+        return out;
+    }
+
+    public static IPayload fromBytestream(byte[] in){
+        return fromBuffer(ByteBuffer.wrap(in));
+    }
+
+    public void print() {
+        System.out.println("Payload Chunk");
+        System.out.println("TransferID: " + transferID + " Offset: " + offset + "/" + totalLength);
+        MessageConstants.prettyPrintByteArray(this.data);
+    }
+}
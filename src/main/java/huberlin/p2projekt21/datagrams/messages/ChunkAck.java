@@ -0,0 +1,63 @@
+package huberlin.p2projekt21.datagrams.messages;
+
+import java.nio.ByteBuffer;
+
+//Bestätigung empfangener Chunks (kumulativ + selektiv)
+//Layout: | transferID (8) | cumulative (4) | selective (8) |
+//cumulative: Anzahl lückenlos empfangener Chunks ab Index 0
+//selective: Bit i gesetzt -> Chunk (cumulative + 1 + i) empfangen
+public class ChunkAck implements IPayload {
+    public static final int SELECTIVE_BITS = Long.SIZE;
+
+    private long transferID;
+    private int cumulative;
+    private long selective;
+
+    private ChunkAck(){}
+
+    public ChunkAck(long transferID, int cumulative, long selective){
+        this.transferID = transferID;
+        this.cumulative = cumulative;
+        this.selective = selective;
+    }
+
+    public long getTransferID() {
+        return transferID;
+    }
+
+    public int getCumulative() {
+        return cumulative;
+    }
+
+    public long getSelective() {
+        return selective;
+    }
+
+    public int getLength(){
+        return 8 + 4 + 8;
+    }
+
+    public void writeTo(ByteBuffer out){
+        out.putLong(transferID);
+        out.putInt(cumulative);
+        out.putLong(selective);
+    }
+
+    public static IPayload fromBuffer(ByteBuffer in){
+        ChunkAck out = new ChunkAck();
+        out.transferID = in.getLong();
+        out.cumulative = in.getInt();
+        out.selective = in.getLong();
+        return out;
+    }
+
+    public static IPayload fromBytestream(byte[] in){
+        return fromBuffer(ByteBuffer.wrap(in));
+    }
+
+    public void print() {
+        System.out.println("Payload ChunkAck");
+        System.out.println("TransferID: " + transferID + " Cumulative: " + cumulative
+                + " Selective: " + Long.toBinaryString(selective));
+    }
+}
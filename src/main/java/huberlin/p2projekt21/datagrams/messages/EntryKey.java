@@ -4,7 +4,7 @@ import huberlin.p2projekt21.Helper;
 import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
 
 import java.math.BigInteger;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 public class EntryKey implements IPayload{
     private byte[] EntryKey;
@@ -64,28 +64,32 @@ public class EntryKey implements IPayload{
     }
 
     @Override
-    public byte[] toBytestream() {
-        byte[] out = new byte[this.EntryKey.length + this.EntryValue.length + 4];
-        byte[] entryValueLength = MessageConstants.intToByteArray(this.EntryValue.length);
-        System.arraycopy(entryValueLength, 0, out, 0, 4);
-        System.arraycopy(this.EntryKey, 0, out, 4, this.EntryKey.length);
-        System.arraycopy(this.EntryValue, 0, out, 4+this.EntryKey.length, this.EntryValue.length);
-        return out;
+    public int getLength() {
+        return 4 + this.EntryKey.length + this.EntryValue.length;
     }
-    public static IPayload fromBytestream(byte[] in){
-        //int EntryValueLength = in.length - MessageConstants.ENTRYKEY_SIZE_BYTES;
-        int EntryValueLength = MessageConstants.byteArrayToInt(Arrays.copyOfRange(in, 0, 4));
-        byte[] EntryKey = new byte[MessageConstants.ENTRYKEY_SIZE_BYTES];
-        byte[] EntryValue = new byte[EntryValueLength];
 
-        System.arraycopy(in, 4, EntryKey, 0, MessageConstants.ENTRYKEY_SIZE_BYTES);
-        System.arraycopy(in, 4 + MessageConstants.ENTRYKEY_SIZE_BYTES, EntryValue, 0, EntryValueLength);
+    @Override
+    public void writeTo(ByteBuffer out) {
+        out.putInt(this.EntryValue.length);
+        out.put(this.EntryKey);
+        out.put(this.EntryValue);
+    }
 
+    public static IPayload fromBuffer(ByteBuffer in){
+        int EntryValueLength = in.getInt();
+        //Länge vor dem Allokieren gegen die empfangenen Bytes prüfen
+        if(EntryValueLength < 0 || EntryValueLength > in.remaining() - MessageConstants.ENTRYKEY_SIZE_BYTES){
+            throw new IllegalArgumentException("invalid entry value length");
+        }
         EntryKey entryKey = new EntryKey();
-        entryKey.setEntryKey(EntryKey);
-        entryKey.setEntryValue(EntryValue);
-
+        in.get(entryKey.EntryKey);
+        entryKey.EntryValue = new byte[EntryValueLength];
+        in.get(entryKey.EntryValue);
         return entryKey;
+    }
+
+    public static IPayload fromBytestream(byte[] in){
+        return fromBuffer(ByteBuffer.wrap(in));
 
         /*
         try{
@@ -2,11 +2,13 @@ package huberlin.p2projekt21.datagrams.messages;
 
 import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 public class EntryValue implements IPayload {
     private boolean isValueNotInfo;
     private byte[] entryValue;
+    // alternativ: schreibgeschützte Sicht auf den Wert (z.B. gemappter Speicher), wird erst beim Senden kopiert
+    private ByteBuffer entryValueView;
 
     public boolean isValueNotInfo(){
         return isValueNotInfo;
@@ -20,6 +22,13 @@ public class EntryValue implements IPayload {
         this.setEntryValue(value);
     }
 
+    //Wert wird nicht kopiert, der Buffer [position, limit) darf danach nicht mehr verändert werden
+    public EntryValue(boolean isValueNotInfo, ByteBuffer value){
+        this.setValueNotInfo(isValueNotInfo);
+        this.entryValue = null;
+        this.entryValueView = value.asReadOnlyBuffer();
+    }
+
     public EntryValue(){
         this.isValueNotInfo = true;
         this.entryValue = null;
@@ -27,41 +36,58 @@ public class EntryValue implements IPayload {
 
     public void setEntryValue(byte[] in){
         this.entryValue = MessageConstants.copyOf(in, in.length);
+        this.entryValueView = null;
     }
 
     public byte[] getEntryValue() {
+        if(entryValue == null && entryValueView != null){
+            byte[] tmp = new byte[entryValueView.remaining()];
+            entryValueView.duplicate().get(tmp);
+            entryValue = tmp;
+        }
         return entryValue;
     }
 
-    public byte[] toBytestream(){
-        byte[] out = new byte[entryValue.length + 1 + 4];
-        byte[] entryValueLen = MessageConstants.intToByteArray(entryValue.length);
-        System.arraycopy(entryValueLen, 0, out, 0, 4);
+    private int getValueLength(){
+        return entryValue != null ? entryValue.length : entryValueView.remaining();
+    }
+
+    public int getLength(){
+        return 4 + 1 + getValueLength();
+    }
+
+    public void writeTo(ByteBuffer out){
+        out.putInt(getValueLength());
         if(isValueNotInfo){
-            out[4] = 0x7F;
+            out.put((byte) 0x7F);
         }else{
-            out[4] = 0x00;
+            out.put((byte) 0x00);
+        }
+        if(entryValue != null){
+            out.put(this.entryValue);
+        }else{
+            out.put(entryValueView.duplicate());
         }
-        System.arraycopy(this.entryValue, 0, out, 5, this.entryValue.length);
-        return out;
     }
 
-    public static IPayload fromBytestream(byte[] in){
-        boolean isValueNotInfo;
-
-        int entryValueLen = MessageConstants.byteArrayToInt(Arrays.copyOfRange(in, 0 ,4));
-        byte[] entryValue = new byte[entryValueLen];
-        if(in[4] == 0x7F){
-            isValueNotInfo = true;
-        }else{
-            isValueNotInfo = false;
+    public static IPayload fromBuffer(ByteBuffer in){
+        int entryValueLen = in.getInt();
+        EntryValue out = new EntryValue();
+        out.isValueNotInfo = in.get() == 0x7F;
+        //Länge vor dem Allokieren gegen die empfangenen Bytes prüfen
+        if(entryValueLen < 0 || entryValueLen > in.remaining()){
+            throw new IllegalArgumentException("invalid entry value length");
         }
-        System.arraycopy(in, 5, entryValue, 0, entryValueLen);
+        out.entryValue = new byte[entryValueLen];
+        in.get(out.entryValue);
+        return out;
+    }
 
-        return new EntryValue(isValueNotInfo, entryValue);
+    public static IPayload fromBytestream(byte[] in){
+        return fromBuffer(ByteBuffer.wrap(in));
     }
     public void print() {
         System.out.println("Payload EntryValue");
-        MessageConstants.prettyPrintByteArray(this.entryValue);
+        MessageConstants.prettyPrintByteArray(this.getEntryValue());
     }
 }
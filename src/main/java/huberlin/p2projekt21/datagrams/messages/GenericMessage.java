@@ -1,19 +1,23 @@
 package huberlin.p2projekt21.datagrams.messages;
 import huberlin.p2projekt21.Helper;
+import huberlin.p2projekt21.datagrams.helpers.MessageCodec;
 import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
 import huberlin.p2projekt21.datagrams.helpers.PayloadConverter;
+import huberlin.p2projekt21.kademlia.KademliaId;
+import huberlin.p2projekt21.kademlia.RandomId;
+import huberlin.p2projekt21.networking.Datagram;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ThreadLocalRandom;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.DatagramPacket;
 
 public class GenericMessage {
     private byte[] typeHeader;
-    private byte[] senderNodeID;
-    private byte[] randomID;
+    private KademliaId senderNodeID;
+    private RandomId randomID;
 
     private InetAddress senderIP;
     private int senderPort;
@@ -25,15 +29,15 @@ public class GenericMessage {
 
 
     public GenericMessage() throws Exception{
-        this.senderIP = InetAddress.getByName("127.0.0.1");
-        this.receiverIP = InetAddress.getByName("127.0.0.1");
+        this.senderIP = InetAddress.getLoopbackAddress();
+        this.receiverIP = InetAddress.getLoopbackAddress();
 
         this.senderPort = 1;
         this.receiverPort = 1;
 
         this.typeHeader = new byte[MessageConstants.TYPE_SIZE_BYTES];
-        this.senderNodeID = new byte[MessageConstants.NODEID_SIZE_BYTES];
-        this.randomID = new byte[MessageConstants.RANDOMID_SIZE_BYTES];
+        this.senderNodeID = KademliaId.ZERO;
+        this.randomID = RandomId.ZERO;
 
         this.payload = null;
     }
@@ -45,6 +49,13 @@ public class GenericMessage {
         this.receiverPort = receiverPort;
     }
 
+    //Erzeugt eine Antwort an den Absender von request (mit dessen RandomID)
+    public static GenericMessage replyTo(GenericMessage request) throws Exception{
+        GenericMessage reply = new GenericMessage(null, -1, request.senderIP, request.senderPort);
+        reply.randomID = request.randomID;
+        return reply;
+    }
+
     public void setTypeHeader(byte typeHeader){
         this.typeHeader[0] = typeHeader;
     }
@@ -54,10 +65,10 @@ public class GenericMessage {
 
     public void setRandomID(byte[] randomID) throws ArrayIndexOutOfBoundsException {
         try{
-            if(randomID.length > this.randomID.length){
+            if(randomID.length > MessageConstants.RANDOMID_SIZE_BYTES){
                 throw new ArrayIndexOutOfBoundsException();
             }else{
-                this.randomID = MessageConstants.copyOf(randomID, this.randomID.length);
+                this.randomID = RandomId.fromBytes(MessageConstants.copyOf(randomID, MessageConstants.RANDOMID_SIZE_BYTES));
             }
         }catch(Exception e) {
             System.err.println("RandomID Array zu groß!");
@@ -69,17 +80,23 @@ public class GenericMessage {
             if(!MessageConstants.hasLessThan20Bytes(randomID)){
                 throw new ArrayIndexOutOfBoundsException();
             }
-            this.randomID = Helper.bigIntToByteArray(randomID, this.randomID.length);
+            this.randomID = RandomId.fromBigInteger(randomID);
         }catch(Exception e){
             System.err.println("RandomID BigInteger zu groß!");
             e.printStackTrace();
         }
     }
+    public void setRandomID(RandomId randomID){
+        this.randomID = randomID;
+    }
     public void setRandomID(){
-        ThreadLocalRandom.current().nextBytes(this.randomID);
+        this.randomID = RandomId.random(ThreadLocalRandom.current());
     }
 
     public void setSenderNodeID(byte[] senderNodeID){
+        this.senderNodeID = KademliaId.fromBytes(senderNodeID);
+    }
+    public void setSenderNodeID(KademliaId senderNodeID){
         this.senderNodeID = senderNodeID;
     }
     public void setSenderNodeID(BigInteger senderNodeID) throws ArrayIndexOutOfBoundsException{
@@ -88,7 +105,7 @@ public class GenericMessage {
             if (!MessageConstants.hasLessThan32Bytes(senderNodeID)){
                 throw new ArrayIndexOutOfBoundsException();
             }else {
-                this.senderNodeID = Helper.bigIntToByteArray(senderNodeID, this.senderNodeID.length);
+                this.senderNodeID = KademliaId.fromBigInteger(senderNodeID);
             }
         }catch(Exception e){
             System.err.println("SenderNodeID BigInteger zu groß!");
@@ -96,64 +113,74 @@ public class GenericMessage {
         }
     }
     public void setSenderNodeID(){
-        ThreadLocalRandom.current().nextBytes(this.senderNodeID);
+        this.senderNodeID = KademliaId.random(ThreadLocalRandom.current());
     }
 
     public BigInteger getRandomID() {
-        return new BigInteger(1,this.randomID);
+        return this.randomID.toBigInteger();
+    }
+
+    public RandomId getRequestID() {
+        return this.randomID;
     }
 
     public BigInteger getSenderNodeID() {
-        return new BigInteger(1,this.senderNodeID);
+        return this.senderNodeID.toBigInteger();
+    }
+
+    public KademliaId getSenderID() {
+        return this.senderNodeID;
     }
 
     public BigInteger getTypeHeader() {
         return new BigInteger(1, this.typeHeader);
     }
+
+    public byte getType() {
+        return this.typeHeader[0];
+    }
     public void setPayload(IPayload payload){
         this.payload = payload;
     }
     public IPayload getPayload() { return this.payload; }
 
-    private byte[] toByteArray() {
-        byte[] payloadStream = null;
-        byte[] out = null;
+    //Anzahl Bytes der serialisierten Nachricht
+    public int getLength() {
         int payloadLen = 0;
-
         if(payload != null){
-            payloadStream = payload.toBytestream();
-            payloadLen = payloadStream.length;
+            payloadLen = payload.getLength();
         }
-        out = new byte[payloadLen + typeHeader.length + senderNodeID.length + randomID.length];
-        try{
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            outputStream.write(this.typeHeader);
-            outputStream.write(this.senderNodeID);
-            outputStream.write(this.randomID);
-            if(payload != null){
-                outputStream.write(payloadStream);
-            }
-            out = outputStream.toByteArray();
-        }catch(IOException e){
-            System.err.println("IOException beim serialisieren eines GenericMessage!");
-            e.printStackTrace();
+        return MessageConstants.HEADER_SIZE_BYTES + payloadLen;
+    }
+
+    //Serialisiert Header und Payload direkt in den Buffer (ab dessen Position)
+    public void writeTo(ByteBuffer out) {
+        MessageCodec.putHeader(out, this.typeHeader[0], this.senderNodeID, this.randomID);
+        if(payload != null){
+            payload.writeTo(out);
         }
+    }
+
+    public byte[] toByteArray() {
+        byte[] out = new byte[this.getLength()];
+        this.writeTo(ByteBuffer.wrap(out));
         return out;
     }
     //Füllt die Datenstruktur mit den entsprechenden Daten aus dem Bytearray
     private void fromByteArray(byte[] in){
-        int pos = 0;
-        System.arraycopy(in,pos, this.typeHeader, 0, this.typeHeader.length);
-        pos += this.typeHeader.length;
-        System.arraycopy(in, pos, this.senderNodeID, 0,this.senderNodeID.length);
-        pos += this.senderNodeID.length;
-        System.arraycopy(in, pos, this.randomID, 0,this.randomID.length);
-        pos += this.randomID.length;
-        int payloadLen = in.length - pos;
-        if(payloadLen > 0) {
-            byte[] fullPayload = new byte[payloadLen];
-            System.arraycopy(in, pos, fullPayload, 0, payloadLen);
-            this.payload = PayloadConverter.convertFromBytestream(fullPayload, this.typeHeader[0]);
+        this.fromByteBuffer(ByteBuffer.wrap(in));
+    }
+    //Füllt die Datenstruktur mit den empfangenen Bytes [position, limit) des Buffers
+    //Header und Payload werden direkt aus dem Buffer gelesen (ohne Zwischenkopie)
+    private void fromByteBuffer(ByteBuffer in){
+        if(!MessageCodec.hasHeader(in)){
+            throw new IllegalArgumentException("message shorter than header");
+        }
+        this.typeHeader[0] = MessageCodec.getType(in);
+        this.senderNodeID = MessageCodec.getSenderNodeID(in);
+        this.randomID = MessageCodec.getRandomID(in);
+        if(MessageCodec.getPayloadLength(in) > 0) {
+            this.payload = PayloadConverter.convertFromBuffer(MessageCodec.payload(in), this.typeHeader[0]);
         }else{
             this.payload = null;
         }
@@ -165,24 +192,39 @@ public class GenericMessage {
         return new DatagramPacket(out, 0, out.length, this.receiverIP, this.receiverPort);
     }
     public void fromDatagramPacket(DatagramPacket from){
-        byte[] buf = from.getData();
-        this.fromByteArray(buf);
+        this.fromByteBuffer(ByteBuffer.wrap(from.getData(), from.getOffset(), from.getLength()));
 
         this.senderIP = from.getAddress();
         this.senderPort = from.getPort();
     }
 
+    //Füllt die Datenstruktur mit einer vollständigen (z.B. aus Chunks zusammengesetzten) Nachricht
+    public void fromBytes(byte[] in, InetAddress senderIP, int senderPort){
+        this.fromByteArray(in);
+
+        this.senderIP = senderIP;
+        this.senderPort = senderPort;
+    }
+
+    public void fromDatagram(Datagram from){
+        this.fromByteBuffer(from.getBuffer());
+
+        InetSocketAddress address = (InetSocketAddress) from.getAddress();
+        this.senderIP = address.getAddress();
+        this.senderPort = address.getPort();
+    }
+
     public void print(){
         System.out.println("Printing GenericMessage");
         if (this.senderIP != null) System.out.print("From: " + this.senderIP.toString() + ":" + this.senderPort + " ");
         if (this.receiverIP != null) System.out.println("To: " + this.receiverIP.toString() + ":" + this.receiverPort);
         System.out.println("Type: " + this.typeHeader[0]);
         System.out.println("NodeID");
-        MessageConstants.prettyPrintByteArray(this.senderNodeID);
-        System.out.println(new BigInteger(this.senderNodeID).toString());
+        MessageConstants.prettyPrintByteArray(this.senderNodeID.toBytes());
+        System.out.println(this.senderNodeID.toBigInteger().toString());
         System.out.println("RandomID");
-        MessageConstants.prettyPrintByteArray(this.randomID);
-        System.out.println(new BigInteger(this.randomID).toString());
+        MessageConstants.prettyPrintByteArray(this.randomID.toBytes());
+        System.out.println(this.randomID.toBigInteger().toString());
 
         if(payload != null){
             payload.print();
@@ -196,4 +238,12 @@ public class GenericMessage {
     public int getSenderPort() {
         return senderPort;
     }
+
+    public InetAddress getReceiverIP() {
+        return receiverIP;
+    }
+
+    public int getReceiverPort() {
+        return receiverPort;
+    }
 }
@@ -1,7 +1,18 @@
 package huberlin.p2projekt21.datagrams.messages;
 
+import java.nio.ByteBuffer;
+
 public interface IPayload {
-    public byte[] toBytestream();
+    //Anzahl Bytes, die writeTo schreibt
+    public int getLength();
+    //Serialisiert an der aktuellen Position des Buffers (Position wird verschoben)
+    public void writeTo(ByteBuffer out);
+    public default byte[] toBytestream(){
+        byte[] out = new byte[getLength()];
+        writeTo(ByteBuffer.wrap(out));
+        return out;
+    }
     public void print();
     //public static IPayload fromBytestream(byte[] in);
+    //public static IPayload fromBuffer(ByteBuffer in);
 }
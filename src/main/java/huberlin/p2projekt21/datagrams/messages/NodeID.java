@@ -2,8 +2,10 @@ package huberlin.p2projekt21.datagrams.messages;
 
 import huberlin.p2projekt21.Helper;
 import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
+import huberlin.p2projekt21.kademlia.KademliaId;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 public class NodeID implements IPayload{
     private byte[] NodeID;
@@ -12,6 +14,18 @@ public class NodeID implements IPayload{
         return new BigInteger(1, NodeID);
     }
 
+    public KademliaId getKademliaID(){
+        return KademliaId.fromBytes(NodeID);
+    }
+
+    private NodeID(){
+        this.NodeID = new byte[MessageConstants.NODEID_SIZE_BYTES];
+    }
+
+    public NodeID(KademliaId nodeID){
+        this.NodeID = nodeID.toBytes();
+    }
+
     public NodeID(BigInteger nodeID) throws ArrayIndexOutOfBoundsException{
         this.setNodeID(nodeID);
     }
@@ -47,16 +61,22 @@ public class NodeID implements IPayload{
     }
 
 
-    public byte[] toBytestream() {
-        return MessageConstants.copyOf(this.NodeID, this.NodeID.length);
+    public int getLength() {
+        return this.NodeID.length;
     }
 
+    public void writeTo(ByteBuffer out) {
+        out.put(this.NodeID);
+    }
 
-    public static IPayload fromBytestream(byte[] in) {
-        byte[] out = new byte[MessageConstants.NODEID_SIZE_BYTES];
+    public static IPayload fromBuffer(ByteBuffer in) {
+        NodeID out = new NodeID();
+        in.get(out.NodeID);
+        return out;
+    }
 
-        System.arraycopy(in, 0, out, 0, MessageConstants.NODEID_SIZE_BYTES);
-        return new NodeID(out);
+    public static IPayload fromBytestream(byte[] in) {
+        return fromBuffer(ByteBuffer.wrap(in));
         /*
         try{
             if(in.length > MessageConstants.NODEID_SIZE_BYTES){
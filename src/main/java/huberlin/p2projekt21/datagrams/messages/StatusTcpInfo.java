@@ -2,7 +2,7 @@ package huberlin.p2projekt21.datagrams.messages;
 
 import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 public class StatusTcpInfo implements IPayload{
     private byte status;
@@ -44,25 +44,28 @@ public class StatusTcpInfo implements IPayload{
     public byte[] getTCPInfo() {
         return MessageConstants.copyOf(TCPInfo, TCPInfo.length);
     }
-    public byte[] toBytestream(){
-        byte[] out = new byte[TCPInfo.length + 1 + 4];
-        byte[] infoLen = MessageConstants.intToByteArray(TCPInfo.length);
-        System.arraycopy(infoLen, 0, out, 0, 4);
-        out[4] = status;
-        System.arraycopy(TCPInfo, 0, out, 5, TCPInfo.length);
-        return out;
+    public int getLength(){
+        return 4 + 1 + TCPInfo.length;
     }
 
-    public static IPayload fromBytestream(byte[] in){
-        byte status = in[4];
-        int infoLen = MessageConstants.byteArrayToInt(Arrays.copyOfRange(in, 0, 4));
-        byte[] tcpInfo = new byte[infoLen];
-
+    public void writeTo(ByteBuffer out){
+        out.putInt(TCPInfo.length);
+        out.put(status);
+        out.put(TCPInfo);
+    }
 
-        System.arraycopy(in, 5, tcpInfo, 0, infoLen);
-        StatusTcpInfo out = new StatusTcpInfo(status, tcpInfo);
+    public static IPayload fromBuffer(ByteBuffer in){
+        int infoLen = in.getInt();
+        StatusTcpInfo out = new StatusTcpInfo();
+        out.status = in.get();
+        out.TCPInfo = new byte[infoLen];
+        in.get(out.TCPInfo);
         return out;
     }
+
+    public static IPayload fromBytestream(byte[] in){
+        return fromBuffer(ByteBuffer.wrap(in));
+    }
     public void print() {
         System.out.println("Payload StatusTcpInfo");
         System.out.println("Status: " + this.status);
@@ -30,7 +30,7 @@ public class Tuples implements IPayload{
     }
 
     private int noTuples;
-    private final int TUPLE_SIZE_BYTES = 8 + MessageConstants.NODEID_SIZE_BYTES;
+    private static final int TUPLE_SIZE_BYTES = 8 + MessageConstants.NODEID_SIZE_BYTES;
     private ArrayList<Tuple> tupleArrayList;
 
     public Tuples(){
@@ -49,63 +49,51 @@ public class Tuples implements IPayload{
         return tupleArrayList.toArray(new Tuple[0]);
     }
 
-    public byte[] toBytestream() {
-        byte[] out = new byte[(noTuples * TUPLE_SIZE_BYTES) + 4];
-        byte[] noTuplesByte = ByteBuffer.allocate(4).putInt(noTuples).array();
-        System.arraycopy(noTuplesByte, 0, out, 0, noTuplesByte.length);
-        int currentPos = noTuplesByte.length;
-        Tuple[] tuplesToBytestream = this.getTuplesAsArray();
-
-        for(int iii = 0; iii < tuplesToBytestream.length; iii++){
-            Tuple currentTuple = tuplesToBytestream[iii];
-            byte[] combinedTuple = new byte[TUPLE_SIZE_BYTES];
-
-            byte[] portByte = ByteBuffer.allocate(4).putInt(currentTuple.getPort()).array();
-            System.arraycopy(portByte, 0, combinedTuple, 0, portByte.length);
-
-            byte[] ipByte = currentTuple.getIpAddress().getAddress();
-            System.arraycopy(ipByte, 0, combinedTuple, portByte.length, ipByte.length);
-
-            byte[] nodeIdByte = currentTuple.getNodeID().toBytestream();
-            System.arraycopy(nodeIdByte, 0, combinedTuple, portByte.length + ipByte.length, nodeIdByte.length);
+    public int getLength() {
+        return (noTuples * TUPLE_SIZE_BYTES) + 4;
+    }
 
-            System.arraycopy(combinedTuple, 0, out, currentPos, combinedTuple.length);
-            currentPos += TUPLE_SIZE_BYTES;
+    public void writeTo(ByteBuffer out) {
+        out.putInt(noTuples);
+        for (Tuple currentTuple : tupleArrayList) {
+            out.putInt(currentTuple.getPort());
+            out.put(currentTuple.getIpAddress().getAddress());
+            currentTuple.getNodeID().writeTo(out);
         }
-        return out;
     }
 
-    public static IPayload fromBytestream(byte[] in){
-        int noTuples = in[0] << 24 | (in[1] & 0xFF) << 16 | (in[2] & 0xFF) << 8 | (in[3] & 0xFF);
-        int currentPos = 4;
+    public static IPayload fromBuffer(ByteBuffer in){
+        int noTuples = in.getInt();
+        //Anzahl vor dem Lesen gegen die empfangenen Bytes prüfen
+        if(noTuples < 0 || (long) noTuples * TUPLE_SIZE_BYTES > in.remaining()){
+            throw new IllegalArgumentException("invalid number of tuples");
+        }
         Tuples out = new Tuples();
+        byte[] ipBytes = new byte[4];
 
         for (int iii = 0; iii < noTuples; iii++){
-            int port = in[currentPos] << 24 | (in[currentPos + 1] & 0xFF) << 16 | (in[currentPos + 2] & 0xFF) << 8 | (in[currentPos + 3] & 0xFF);
-            currentPos += 4;
+            int port = in.getInt();
 
-            byte[] ipBytes = new byte[4];
-            System.arraycopy(in, currentPos, ipBytes, 0, 4);
+            in.get(ipBytes);
             InetAddress ipAddress = null;
             try{
                 ipAddress = InetAddress.getByAddress(ipBytes);
             }catch(Exception e){
-                System.err.println("Unknown host exception Tuples fromBytestream");
+                System.err.println("Unknown host exception Tuples fromBuffer");
                 e.printStackTrace();
             }
 
-            currentPos += 4;
-
-            byte[] nodeIdByte = new byte[MessageConstants.NODEID_SIZE_BYTES];
-            System.arraycopy(in, currentPos, nodeIdByte, 0, MessageConstants.NODEID_SIZE_BYTES);
-            IPayload nodeID = NodeID.fromBytestream(nodeIdByte);
-            currentPos += MessageConstants.NODEID_SIZE_BYTES;
+            IPayload nodeID = NodeID.fromBuffer(in);
 
             out.addTuple(port, ipAddress, (NodeID) nodeID);
         }
         return out;
     }
 
+    public static IPayload fromBytestream(byte[] in){
+        return fromBuffer(ByteBuffer.wrap(in));
+    }
+
     public void print() {
         System.out.println("Payload Tuples:");
         System.out.println("NoTuples:" + this.noTuples);
@@ -19,7 +19,6 @@ import java.text.DateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.ResourceBundle;
-import java.util.concurrent.ExecutionException;
 
 public class MainGui extends JFrame {
 
@@ -48,29 +47,18 @@ public class MainGui extends JFrame {
             uploadButton.setEnabled(false);
             // load created page
             String text = ownFileTextArea.getText();
-            new SwingWorker<Boolean, Object>() {
-                @Override
-                protected Boolean doInBackground() {
-                    // use standardised encoding to prevent encoding problems with different OS
-                    return controller.store(text.getBytes(StandardCharsets.UTF_8));
-                }
-                @Override
-                protected void done() {
-                    try {
-                        Boolean result = get();
-                        if (result == null) throw new Exception("Store returned with null value");
-                        if (result) {
-                            // TODO display success (network)
-                        } else {
-                            // TODO display fail (only local)
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        // TODO handle
-                    }
-                    uploadButton.setEnabled(true);
+            // use standardised encoding to prevent encoding problems with different OS
+            controller.storeAsync(text.getBytes(StandardCharsets.UTF_8)).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null || result == null) {
+                    if (error != null) error.printStackTrace();
+                    // TODO handle
+                } else if (result) {
+                    // TODO display success (network)
+                } else {
+                    // TODO display fail (only local)
                 }
-            }.execute();
+                uploadButton.setEnabled(true);
+            }));
         });
 
         searchButton.addActionListener(e -> {
@@ -90,40 +78,30 @@ public class MainGui extends JFrame {
                 searchButton.setEnabled(true);
                 return;
             }
-            new SwingWorker<Data.Page, Object>() {
-                @Override
-                protected Data.Page doInBackground() {
-                    return controller.load(key);
-                }
-                @Override
-                protected void done() {
-                    try {
-                        Data.Page page = get();
-                        if (page == null) {
-                            friendFileTextArea.setText(resources.getString("search_failed"));
-                            friendFileTextArea.setContentType("text/plain");
-                            dateTextField.setText("");
-                        } else {
-                            // use standardised encoding to prevent encoding problems with different OS
-                            String content = new String(page.getData(), StandardCharsets.UTF_8);
-                            //String content = new String(page.getData());
-                            if (content.toLowerCase().contains("<html>")) {
-                                friendFileTextArea.setContentType("text/html");
-                            } else {
-                                friendFileTextArea.setContentType("text/plain");
-                            }
-                            friendFileTextArea.setText(content);
-                            DateFormat df = DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.SHORT);
-                            String formattedDate = df.format(new Date(page.getTimeStamp()));
-                            dateTextField.setText(formattedDate);
-                        }
-                    } catch (InterruptedException | ExecutionException e) {
-                        e.printStackTrace();
-                        friendFileTextArea.setText(resources.getString("search_failed"));
+            controller.loadAsync(key).whenComplete((page, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    error.printStackTrace();
+                    friendFileTextArea.setText(resources.getString("search_failed"));
+                } else if (page == null) {
+                    friendFileTextArea.setText(resources.getString("search_failed"));
+                    friendFileTextArea.setContentType("text/plain");
+                    dateTextField.setText("");
+                } else {
+                    // use standardised encoding to prevent encoding problems with different OS
+                    String content = new String(page.getData(), StandardCharsets.UTF_8);
+                    //String content = new String(page.getData());
+                    if (content.toLowerCase().contains("<html>")) {
+                        friendFileTextArea.setContentType("text/html");
+                    } else {
+                        friendFileTextArea.setContentType("text/plain");
                     }
-                    searchButton.setEnabled(true);
+                    friendFileTextArea.setText(content);
+                    DateFormat df = DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.SHORT);
+                    String formattedDate = df.format(new Date(page.getTimeStamp()));
+                    dateTextField.setText(formattedDate);
                 }
-            }.execute();
+                searchButton.setEnabled(true);
+            }));
         });
 
         ownFileTextArea.getDocument().addDocumentListener(new DocumentListener() {
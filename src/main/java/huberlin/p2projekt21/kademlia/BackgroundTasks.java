@@ -2,16 +2,17 @@ package huberlin.p2projekt21.kademlia;
 
 import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
 import huberlin.p2projekt21.datagrams.messages.GenericMessage;
-import huberlin.p2projekt21.Helper;
+import huberlin.p2projekt21.networking.BoundedChannel;
 import huberlin.p2projekt21.storage.Storage;
 
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.DatagramPacket;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
@@ -22,7 +23,6 @@ import java.util.logging.Logger;
 public class BackgroundTasks{
     public static final long K_BUCKET_LOOKUP_TIMEOUT    =  1 * 60 * 60 * 1000;  // 1 hour
     public static final long K_BUCKET_LOOKUP_DELAY      =      10 * 60 * 1000;  // 10 min (delay lookup, when network is small)
-    public static final long UNANSWERED_TIMEOUT         =            2 * 1000;  // 2 sec
     public static final long PING_TIMEOUT               =            4 * 1000;  // 4 sec
     public static final long REPUBLISH_TIMEOUT          =  1 * 60 * 60 * 1000;  // 1 hour
     public static final long UNPUBLISHED_TIMEOUT        =       5 * 60 * 1000;  // 5 min
@@ -31,7 +31,6 @@ public class BackgroundTasks{
     public static boolean ACTIVATE_PING            = true;
     public static boolean ACTIVATE_REPUBLISH       = true;
 
-    private BGT_UnansweredRequests unansweredRequests = null;
     private BGT_KBucketLookup kBucketLookup = null;
     private BGT_RegularPing regularPing = null;
     private BGT_RegularRepublish regularRepublish = null;
@@ -39,13 +38,12 @@ public class BackgroundTasks{
     /**
      * Creates and starts all Background tasks
      */
-    public BackgroundTasks(KBuckets kBuckets, Map<BigInteger, KademliaInstance.RequestCookie> requestMap,
-                           NodeLookupMethod method, BigInteger ownID,
-                           ConcurrentLinkedDeque<DatagramPacket> outgoingChannel, PublishDataMethod publishDataMethod,
+    public BackgroundTasks(KBuckets kBuckets, RequestTracker requestTracker,
+                           NodeLookupMethod method, KademliaId ownID,
+                           BoundedChannel<DatagramPacket> outgoingChannel, PublishDataMethod publishDataMethod,
                            Map<BigInteger, Long> ownData) {
-        unansweredRequests = new BGT_UnansweredRequests(kBuckets, requestMap);
         if (ACTIVATE_K_BUCKET_LOOKUP)   kBucketLookup = new BGT_KBucketLookup(kBuckets, method, ownID);
-        if (ACTIVATE_PING)              regularPing = new BGT_RegularPing(kBuckets, ownID, outgoingChannel, requestMap);
+        if (ACTIVATE_PING)              regularPing = new BGT_RegularPing(kBuckets, ownID, outgoingChannel, requestTracker);
         if (ACTIVATE_REPUBLISH)         regularRepublish = new BGT_RegularRepublish(ownData, publishDataMethod);
     }
 
@@ -53,24 +51,23 @@ public class BackgroundTasks{
      * Eventually stop the BG-tasks
      */
     public void stop() {
-        if (unansweredRequests != null) unansweredRequests.stop();
         if (kBucketLookup != null)      kBucketLookup.stop();
         if (regularPing != null)        regularPing.stop();
         if (regularRepublish != null)   regularRepublish.stop();
     }
 
     public interface NodeLookupMethod {
-        List<KademliaNode> nodeLookup(BigInteger id) throws Exception;
+        List<KademliaNode> nodeLookup(KademliaId id) throws Exception;
     }
 
     public interface PublishDataMethod {
-        boolean publishData(Data data) throws Exception;
+        CompletableFuture<Boolean> publishData(Data data) throws Exception;
     }
 
     public static class BGT_KBucketLookup implements Runnable {
         private final KBuckets kBuckets;
         private final NodeLookupMethod nodeLookupMethod;
-        private final BigInteger ownID;
+        private final KademliaId ownID;
 
         private final Logger logger;
         private final AtomicBoolean running;
@@ -82,7 +79,7 @@ public class BackgroundTasks{
          *
          * @param kBuckets kBuckets reference
          */
-        public BGT_KBucketLookup(KBuckets kBuckets, NodeLookupMethod nodeLookupMethod, BigInteger ownID) {
+        public BGT_KBucketLookup(KBuckets kBuckets, NodeLookupMethod nodeLookupMethod, KademliaId ownID) {
             this.kBuckets = kBuckets;
             this.nodeLookupMethod = nodeLookupMethod;
             this.ownID = ownID;
@@ -143,27 +140,12 @@ public class BackgroundTasks{
          * @param index index of the specific bucket
          * @return a random id in the range of the bucket
          */
-        private BigInteger randomIdForBucket(int index) {
+        private KademliaId randomIdForBucket(int index) {
             assert (index >= 0);
             assert (index < kBucketCount);
 
-            // remove 'random bits' by shifting
-            BigInteger result = ownID.shiftRight(index);
-            // invert 'sibling sub-tree bit'
-            result = result.flipBit(0);
-            // shift back
-            result = result.shiftLeft(index);
-
-            // verify borders
-            assert (kBuckets.bucketID(result) == index);
-            assert (kBuckets.bucketID(result.subtract(BigInteger.ONE)) != index);
-            BigInteger tmp = result.add(BigInteger.ONE.shiftLeft(index).subtract(BigInteger.ONE));
-            assert (kBuckets.bucketID(tmp) == index);
-            assert (kBuckets.bucketID(tmp.add(BigInteger.ONE)) != index);
-
-            // fill remaining bits randomly
-            BigInteger rnd = new BigInteger(index, random);
-            result = result.add(rnd);
+            // keep prefix, invert 'sibling sub-tree bit', fill remaining bits randomly
+            KademliaId result = ownID.randomInBucket(index, random);
             assert (kBuckets.bucketID(result) == index);
 
             return result;
@@ -178,63 +160,11 @@ public class BackgroundTasks{
 
     }
 
-    public static class BGT_UnansweredRequests implements Runnable {
-        private final KBuckets kBuckets;
-        private final Map<BigInteger, KademliaInstance.RequestCookie> requestMap;
-
-        private final Logger logger;
-        private final AtomicBoolean running;
-
-        /**
-         * Creates and starts a unanswered request cleaning background task
-         *
-         * @param kBuckets kBuckets reference to remove not answering nodes
-         * @param requestMap list of send requests
-         */
-        public BGT_UnansweredRequests(KBuckets kBuckets, Map<BigInteger, KademliaInstance.RequestCookie> requestMap) {
-            this.kBuckets = kBuckets;
-            this.requestMap = requestMap;
-            logger = Logger.getGlobal();
-            running = new AtomicBoolean(true);
-            new Thread(this).start();
-            logger.info("started BGT_UnansweredRequests");
-        }
-
-        @Override
-        public void run() {
-            while (running.get()) {
-                long currentTime = System.currentTimeMillis();
-                for (var entry : requestMap.entrySet()) {
-                    if (entry.getValue().sendTime + UNANSWERED_TIMEOUT < currentTime) {   // Timeout exceeded
-                        logger.info("timeout exceeded\nreceiver: " + entry.getValue().nodeID.toString(16) + "\nrandomID: " + entry.getKey().toString(16));
-                        kBuckets.pingExpired(entry.getValue().nodeID);                      // replace node with waiting
-                        requestMap.remove(entry.getKey(), entry.getValue());                // remove request
-                    }
-                }
-                try {
-                    //noinspection BusyWait
-                    Thread.sleep(UNANSWERED_TIMEOUT);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    logger.warning("sleep interrupted\n" + e.getMessage());
-                }
-            }
-            logger.info("stopped BGT_UnansweredRequests");
-        }
-
-        /**
-         * Eventually stop the BG-task
-         */
-        public void stop() {
-            running.set(false);
-        }
-    }
-
     public static class BGT_RegularPing implements Runnable {
         private final KBuckets kBuckets;
-        private final BigInteger ownID;
-        private final ConcurrentLinkedDeque<DatagramPacket> outgoingChannel;
-        private final Map<BigInteger, KademliaInstance.RequestCookie> requestMap;
+        private final KademliaId ownID;
+        private final BoundedChannel<DatagramPacket> outgoingChannel;
+        private final RequestTracker requestTracker;
 
         private final Logger logger;
         private final AtomicBoolean running;
@@ -245,15 +175,15 @@ public class BackgroundTasks{
          * @param kBuckets kBuckets reference to find inactive noes
          * @param ownID own Kademlia id
          * @param outgoingChannel outgoing channel reference for sending pings
-         * @param requestMap request map reference for register pings
+         * @param requestTracker request tracker reference for register pings
          */
-        public BGT_RegularPing(KBuckets kBuckets, BigInteger ownID,
-                               ConcurrentLinkedDeque<DatagramPacket> outgoingChannel,
-                               Map<BigInteger, KademliaInstance.RequestCookie> requestMap) {
+        public BGT_RegularPing(KBuckets kBuckets, KademliaId ownID,
+                               BoundedChannel<DatagramPacket> outgoingChannel,
+                               RequestTracker requestTracker) {
             this.kBuckets = kBuckets;
             this.ownID = ownID;
             this.outgoingChannel = outgoingChannel;
-            this.requestMap = requestMap;
+            this.requestTracker = requestTracker;
             logger = Logger.getGlobal();
             running = new AtomicBoolean(true);
             new Thread(this).start();
@@ -272,13 +202,10 @@ public class BackgroundTasks{
                             GenericMessage ping = new GenericMessage(null, -1, node.getAddress(),
                                     node.getPort());
                             ping.setTypeHeader(MessageConstants.TYPE_PING);
-                            BigInteger randomID = Helper.getRandomID();
-                            ping.setRandomID(randomID);
+                            // register message (unanswered pings are reported by the tracker)
+                            ping.setRandomID(requestTracker.register(node.getId(), -1).randomID);
                             ping.setSenderNodeID(ownID);
-                            // register message for own lookupChannel
-                            requestMap.put(randomID, new KademliaInstance.RequestCookie(node.getId(),
-                                    System.currentTimeMillis(), -1));
-                            outgoingChannel.add(ping.toDatagram());
+                            outgoingChannel.put(ping.toDatagram());
                         } catch (Exception e) {
                             e.printStackTrace();
                         }
@@ -327,17 +254,14 @@ public class BackgroundTasks{
             while (running.get()) {
                 boolean unpublished = false;
                 long time = System.currentTimeMillis() - REPUBLISH_TIMEOUT;
+                // publish several pages at once, so STOREs to the same nodes can share datagrams
+                List<BigInteger> keys = new ArrayList<>();
+                List<CompletableFuture<Boolean>> results = new ArrayList<>();
                 for (var entry : ownData.entrySet()) {
                     if (entry.getValue() < REPUBLISH_TIMEOUT) {
                         try {
-                            if (publishDataMethod.publishData(new Data(Storage.read(entry.getKey())))) {
-                                // stored successfully in the network -> update time
-                                ownData.put(entry.getKey(), System.currentTimeMillis());
-                            } else {
-                                // store failed -> set to unpublished
-                                ownData.put(entry.getKey(), (long)-1);
-                                unpublished = true;
-                            }
+                            results.add(publishDataMethod.publishData(new Data(Storage.read(entry.getKey()))));
+                            keys.add(entry.getKey());
                         } catch (IOException e) {
                             e.printStackTrace();
                             logger.warning("could not load own data -> removing from list");
@@ -345,8 +269,12 @@ public class BackgroundTasks{
                         } catch (Exception e) {
                             e.printStackTrace();
                         }
+                        if (results.size() >= KademliaInstance.MAX_PARALLEL_PUBLISHES) {
+                            unpublished |= awaitPublished(keys, results);
+                        }
                     }
                 }
+                unpublished |= awaitPublished(keys, results);
                 try {
                     if (unpublished) {
                         Thread.sleep(UNPUBLISHED_TIMEOUT);
@@ -361,6 +289,36 @@ public class BackgroundTasks{
             logger.info("stopped BGT_RegularRepublish");
         }
 
+        /**
+         * Wait for the running publishes and update their publish time
+         *
+         * @param keys keys of the published pages (cleared)
+         * @param results results of the publishes (cleared)
+         * @return true if at least one page could not be published
+         */
+        private boolean awaitPublished(List<BigInteger> keys, List<CompletableFuture<Boolean>> results) {
+            boolean unpublished = false;
+            for (int i = 0; i < keys.size(); i++) {
+                boolean stored = false;
+                try {
+                    stored = results.get(i).get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                if (stored) {
+                    // stored successfully in the network -> update time
+                    ownData.put(keys.get(i), System.currentTimeMillis());
+                } else {
+                    // store failed -> set to unpublished
+                    ownData.put(keys.get(i), (long)-1);
+                    unpublished = true;
+                }
+            }
+            keys.clear();
+            results.clear();
+            return unpublished;
+        }
+
         /**
          * Eventually stop the BG-task
          */
@@ -0,0 +1,536 @@
+package huberlin.p2projekt21.kademlia;
+
+import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
+import huberlin.p2projekt21.datagrams.messages.Chunk;
+import huberlin.p2projekt21.datagrams.messages.ChunkAck;
+import huberlin.p2projekt21.datagrams.messages.GenericMessage;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Segmented transfer of messages too large for a single (unfragmented) datagram (STORE, FINDVALUE_R)
+ *
+ * The serialized message is split into CHUNK_DATA_SIZE_BYTES chunks (TYPE_CHUNK), at most WINDOW chunks are
+ * unacknowledged at a time. The receiver acknowledges (TYPE_CHUNK_ACK) cumulatively plus a bitmap of the chunks
+ * received after the first gap, unacknowledged chunks are retransmitted on timeout (with backoff),
+ * the first missing chunk is retransmitted as soon as a later one is acknowledged.
+ * Complete messages are handed to the MessageHandler as if received in one datagram
+ *
+ * Reassembly buffers grow with the chunks actually received (chunks beyond the window are dropped, so a
+ * claimed length does not reserve memory), their size is bounded per message, per peer (number of transfers
+ * and bytes) and in total, incomplete transfers are dropped after REASSEMBLY_TIMEOUT without progress
+ */
+public class ChunkedTransfer {
+    // messages up to this size (serialized) are sent in a single datagram
+    public static final int MAX_UNCHUNKED = 1200;
+    // max number of unacknowledged chunks per transfer
+    public static final int WINDOW = 32;
+    // receiver acknowledges at least every ACK_EVERY chunks (and on every gap)
+    public static final int ACK_EVERY = 8;
+    // time in millis until unacknowledged chunks are retransmitted (doubled per retry)
+    public static final long RETRANSMIT_TIMEOUT = 200;
+    // max number of retransmission rounds without progress until the transfer fails
+    public static final int MAX_RETRANSMITS = 6;
+    // time in millis an incomplete transfer is kept without receiving a chunk
+    public static final long REASSEMBLY_TIMEOUT = 10 * 1000;
+    // max size of a chunked message
+    public static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    // max number of bytes reserved for reassembly (all peers)
+    public static final long MAX_REASSEMBLY_BYTES = 64L * 1024 * 1024;
+    // max number of incomplete transfers per peer
+    public static final int MAX_TRANSFERS_PER_PEER = 8;
+    // max number of bytes reserved for reassembly per peer (one message of max size)
+    public static final long MAX_REASSEMBLY_BYTES_PER_PEER = MAX_MESSAGE_SIZE;
+
+    private final KademliaId ownID;
+    private final TimerWheel timer;
+    private final SendMethod sendMethod;
+    private final MessageHandler handler;
+    private final Map<Long, Outgoing> outgoing;
+    // guarded by itself
+    private final Map<TransferKey, Incoming> incoming;
+    private final Map<PeerKey, Integer> transfersPerPeer;
+    private final Map<PeerKey, Long> reservedPerPeer;
+    private long reserved;
+    private final AtomicLong retransmitted;
+    private final AtomicLong rejected;
+    private final Logger logger;
+
+    /**
+     * Create new transfer handler
+     *
+     * @param ownID own kademlia id (sender id of chunks and acks)
+     * @param timer timer driving retransmissions and reassembly timeouts
+     * @param sendMethod sends a single datagram, must not block (called on the timer thread, lost chunks are retransmitted)
+     * @param handler handles reassembled messages
+     */
+    public ChunkedTransfer(KademliaId ownID, TimerWheel timer, SendMethod sendMethod, MessageHandler handler) {
+        this.ownID = ownID;
+        this.timer = timer;
+        this.sendMethod = sendMethod;
+        this.handler = handler;
+        this.outgoing = new ConcurrentHashMap<>();
+        this.incoming = new HashMap<>();
+        this.transfersPerPeer = new HashMap<>();
+        this.reservedPerPeer = new HashMap<>();
+        this.reserved = 0;
+        this.retransmitted = new AtomicLong(0);
+        this.rejected = new AtomicLong(0);
+        this.logger = Logger.getGlobal();
+    }
+
+    /**
+     * Checks if a message has to be chunked
+     *
+     * @param msg message to be sent
+     * @return true if too large for a single datagram
+     */
+    public static boolean needsChunking(GenericMessage msg) {
+        return msg.getLength() > MAX_UNCHUNKED;
+    }
+
+    /**
+     * Send a message in chunks (returns immediately)
+     *
+     * @param msg message to be sent
+     * @return future completed with true once all chunks were acknowledged, false if the transfer failed
+     */
+    public CompletableFuture<Boolean> send(GenericMessage msg) {
+        byte[] bytes = msg.toByteArray();
+        if (bytes.length > MAX_MESSAGE_SIZE) return CompletableFuture.completedFuture(false);
+        Outgoing transfer;
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+            transfer = new Outgoing(id, bytes, msg);
+        } while (outgoing.putIfAbsent(id, transfer) != null);
+        transfer.start();
+        return transfer.future;
+    }
+
+    /**
+     * Handle a received chunk, the reassembled message is handled once complete
+     *
+     * @param msg chunk message
+     * @throws Exception thrown by the MessageHandler
+     */
+    public void onChunk(GenericMessage msg) throws Exception {
+        Chunk chunk = (Chunk) msg.getPayload();
+        if (chunk == null || !valid(chunk)) {
+            rejected.incrementAndGet();
+            return;
+        }
+        TransferKey key = new TransferKey(msg.getSenderIP(), msg.getSenderPort(), chunk.getTransferID());
+        Incoming transfer = acquire(key, chunk.getTotalLength());
+        if (transfer == null) {
+            rejected.incrementAndGet();
+            logger.warning("chunked transfer rejected (reassembly limit)");
+            return;
+        }
+        byte[] complete = transfer.add(msg, chunk);
+        if (complete == null) return;
+        GenericMessage reassembled = new GenericMessage();
+        reassembled.fromBytes(complete, msg.getSenderIP(), msg.getSenderPort());
+        // chunks of a peer only carry its own messages
+        if (!reassembled.getSenderID().equals(msg.getSenderID())) return;
+        handler.handle(reassembled);
+    }
+
+    /**
+     * Handle a received acknowledgement
+     *
+     * @param msg ack message
+     */
+    public void onAck(GenericMessage msg) {
+        ChunkAck ack = (ChunkAck) msg.getPayload();
+        if (ack == null) return;
+        Outgoing transfer = outgoing.get(ack.getTransferID());
+        if (transfer == null) return;
+        if (!Objects.equals(transfer.receiverIP, msg.getSenderIP()) || transfer.receiverPort != msg.getSenderPort()) return;
+        transfer.onAck(ack.getCumulative(), ack.getSelective());
+    }
+
+    /**
+     * Get the number of bytes currently reserved for reassembly
+     *
+     * @return reserved bytes
+     */
+    public long getReserved() {
+        synchronized (incoming) {
+            return reserved;
+        }
+    }
+
+    public long getRetransmitted() {
+        return retransmitted.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private static int chunkCount(int totalLength) {
+        return (totalLength + MessageConstants.CHUNK_DATA_SIZE_BYTES - 1) / MessageConstants.CHUNK_DATA_SIZE_BYTES;
+    }
+
+    private static boolean valid(Chunk chunk) {
+        int total = chunk.getTotalLength();
+        int offset = chunk.getOffset();
+        if (total <= 0 || total > MAX_MESSAGE_SIZE) return false;
+        if (offset < 0 || offset >= total || offset % MessageConstants.CHUNK_DATA_SIZE_BYTES != 0) return false;
+        return chunk.getData().length == Math.min(MessageConstants.CHUNK_DATA_SIZE_BYTES, total - offset);
+    }
+
+    /**
+     * Get the incoming transfer of the key, created if the peer has less than MAX_TRANSFERS_PER_PEER transfers
+     * (no memory is reserved yet, see reserve)
+     *
+     * @return transfer or null if a limit is exceeded or the length does not match
+     */
+    private Incoming acquire(TransferKey key, int totalLength) {
+        synchronized (incoming) {
+            Incoming transfer = incoming.get(key);
+            if (transfer != null) return transfer.totalLength == totalLength ? transfer : null;
+            int peerTransfers = transfersPerPeer.getOrDefault(key.peer, 0);
+            if (peerTransfers >= MAX_TRANSFERS_PER_PEER) return null;
+            transfersPerPeer.put(key.peer, peerTransfers + 1);
+            transfer = new Incoming(key, totalLength);
+            incoming.put(key, transfer);
+            return transfer;
+        }
+    }
+
+    /**
+     * Reserve memory to grow a reassembly buffer
+     *
+     * @param peer sender of the transfer
+     * @param bytes additional bytes
+     * @return false if the limit of the peer or the total limit would be exceeded
+     */
+    private boolean reserve(PeerKey peer, long bytes) {
+        synchronized (incoming) {
+            long peerReserved = reservedPerPeer.getOrDefault(peer, 0L);
+            if (peerReserved + bytes > MAX_REASSEMBLY_BYTES_PER_PEER || reserved + bytes > MAX_REASSEMBLY_BYTES) {
+                return false;
+            }
+            reservedPerPeer.put(peer, peerReserved + bytes);
+            reserved += bytes;
+            return true;
+        }
+    }
+
+    /**
+     * Free the reassembly buffer (transfer complete or dropped), the transfer is kept (to acknowledge duplicates)
+     *
+     * @param transfer transfer
+     * @param bytes size of its buffer
+     */
+    private void releaseBuffer(Incoming transfer, long bytes) {
+        synchronized (incoming) {
+            reserved -= bytes;
+            reservedPerPeer.computeIfPresent(transfer.key.peer, (peer, sum) -> sum > bytes ? sum - bytes : null);
+            transfersPerPeer.computeIfPresent(transfer.key.peer, (peer, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private void remove(Incoming transfer) {
+        synchronized (incoming) {
+            incoming.remove(transfer.key, transfer);
+        }
+    }
+
+    private void sendDatagram(GenericMessage msg) {
+        try {
+            sendMethod.send(msg);
+        } catch (Exception e) {
+            logger.warning("send chunk failed\n" + e.getMessage());
+        }
+    }
+
+    public interface SendMethod {
+        void send(GenericMessage msg) throws Exception;
+    }
+
+    public interface MessageHandler {
+        void handle(GenericMessage msg) throws Exception;
+    }
+
+    /**
+     * Message being sent, driven by acks (dispatcher workers) and retransmission timeouts (timer thread)
+     */
+    private class Outgoing {
+        private final long id;
+        private final byte[] bytes;
+        private final int count;
+        private final InetAddress receiverIP;
+        private final int receiverPort;
+        private final RandomId randomID;
+        private final CompletableFuture<Boolean> future;
+        private final BitSet acked;
+        // first unacknowledged chunk
+        private int base;
+        // next chunk never sent
+        private int next;
+        private int retries;
+        // base was already retransmitted early (reset on progress)
+        private boolean fastRetransmitted;
+        private TimerWheel.Timeout timeout;
+
+        private Outgoing(long id, byte[] bytes, GenericMessage msg) {
+            this.id = id;
+            this.bytes = bytes;
+            this.count = chunkCount(bytes.length);
+            this.receiverIP = msg.getReceiverIP();
+            this.receiverPort = msg.getReceiverPort();
+            this.randomID = msg.getRequestID();
+            this.future = new CompletableFuture<>();
+            this.acked = new BitSet(count);
+            this.base = 0;
+            this.next = 0;
+            this.retries = 0;
+            this.fastRetransmitted = false;
+        }
+
+        private synchronized void start() {
+            fillWindow();
+            schedule();
+        }
+
+        private synchronized void onAck(int cumulative, long selective) {
+            if (future.isDone()) return;
+            int before = acked.cardinality();
+            // only chunks already sent can be acknowledged
+            acked.set(0, Math.min(Math.max(cumulative, 0), next));
+            for (int i = 0; i < ChunkAck.SELECTIVE_BITS; i++) {
+                int index = cumulative + 1 + i;
+                if (index >= next) break;
+                if ((selective & (1L << i)) != 0) acked.set(index);
+            }
+            base = acked.nextClearBit(0);
+            if (base >= count) {
+                finish(true);
+                return;
+            }
+            if (acked.cardinality() > before) {
+                retries = 0;
+                fastRetransmitted = false;
+                fillWindow();
+                schedule();
+            }
+            // later chunk arrived, but base is missing -> probably lost, don't wait for the timeout
+            if (selective != 0 && !fastRetransmitted) {
+                fastRetransmitted = true;
+                retransmitted.incrementAndGet();
+                sendChunk(base);
+            }
+        }
+
+        private synchronized void onTimeout() {
+            if (future.isDone()) return;
+            if (++retries > MAX_RETRANSMITS) {
+                logger.warning("chunked transfer to " + receiverIP + ":" + receiverPort + " failed");
+                finish(false);
+                return;
+            }
+            for (int i = acked.nextClearBit(base); i < next; i = acked.nextClearBit(i + 1)) {
+                retransmitted.incrementAndGet();
+                sendChunk(i);
+            }
+            schedule();
+        }
+
+        private void fillWindow() {
+            while (next < count && next < base + WINDOW) sendChunk(next++);
+        }
+
+        private void schedule() {
+            if (timeout != null) timeout.cancel();
+            timeout = timer.schedule(this::onTimeout, RETRANSMIT_TIMEOUT << Math.min(retries, 4));
+        }
+
+        private void finish(boolean success) {
+            if (timeout != null) timeout.cancel();
+            outgoing.remove(id, this);
+            future.complete(success);
+        }
+
+        private void sendChunk(int index) {
+            int offset = index * MessageConstants.CHUNK_DATA_SIZE_BYTES;
+            int length = Math.min(MessageConstants.CHUNK_DATA_SIZE_BYTES, bytes.length - offset);
+            byte[] data = new byte[length];
+            System.arraycopy(bytes, offset, data, 0, length);
+            try {
+                GenericMessage chunk = new GenericMessage(null, -1, receiverIP, receiverPort);
+                chunk.setTypeHeader(MessageConstants.TYPE_CHUNK);
+                chunk.setSenderNodeID(ownID);
+                chunk.setRandomID(randomID);
+                chunk.setPayload(new Chunk(id, bytes.length, offset, data));
+                sendDatagram(chunk);
+            } catch (Exception e) {
+                logger.warning("send chunk failed\n" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Message being received (reassembly buffer is dropped once complete)
+     */
+    private class Incoming {
+        private final TransferKey key;
+        private final int totalLength;
+        private final int count;
+        private final BitSet received;
+        private byte[] buffer;
+        private int sinceAck;
+        private boolean complete;
+        private TimerWheel.Timeout timeout;
+
+        private Incoming(TransferKey key, int totalLength) {
+            this.key = key;
+            this.totalLength = totalLength;
+            this.count = chunkCount(totalLength);
+            this.received = new BitSet(count);
+            this.buffer = new byte[0];
+            this.sinceAck = 0;
+            this.complete = false;
+        }
+
+        /**
+         * Add a chunk and acknowledge if necessary
+         *
+         * @return the complete message if this chunk completed it, null otherwise
+         */
+        private byte[] add(GenericMessage msg, Chunk chunk) {
+            byte[] res = null;
+            long released = 0;
+            synchronized (this) {
+                int index = chunk.getIndex();
+                // timeout is restarted with every chunk (also after completion: duplicates are acknowledged)
+                if (timeout != null) timeout.cancel();
+                timeout = timer.schedule(this::expire, REASSEMBLY_TIMEOUT);
+                if (complete || received.get(index)) {
+                    // duplicate (ack lost) -> acknowledge again
+                    acknowledge(msg);
+                    return null;
+                }
+                int first = received.nextClearBit(0);
+                // the sender never sends beyond its window -> the buffer only grows with received data
+                if (index >= first + WINDOW) return null;
+                int end = chunk.getOffset() + chunk.getData().length;
+                if (end > buffer.length) {
+                    int capacity = (int) Math.min(totalLength, Math.max(end, 2L * buffer.length));
+                    if (!reserve(key.peer, capacity - buffer.length)) {
+                        // limit reached -> dropped, retransmitted by the sender later
+                        rejected.incrementAndGet();
+                        return null;
+                    }
+                    buffer = Arrays.copyOf(buffer, capacity);
+                }
+                boolean inOrder = index == first;
+                System.arraycopy(chunk.getData(), 0, buffer, chunk.getOffset(), chunk.getData().length);
+                received.set(index);
+                if (received.cardinality() == count) {
+                    complete = true;
+                    res = buffer;
+                    released = buffer.length;
+                    buffer = null;
+                    acknowledge(msg);
+                } else if (!inOrder || ++sinceAck >= ACK_EVERY || index == count - 1) {
+                    acknowledge(msg);
+                }
+            }
+            if (res != null) releaseBuffer(this, released);
+            return res;
+        }
+
+        private void acknowledge(GenericMessage msg) {
+            sinceAck = 0;
+            int cumulative = received.nextClearBit(0);
+            long selective = 0;
+            for (int i = 0; i < ChunkAck.SELECTIVE_BITS; i++) {
+                if (received.get(cumulative + 1 + i)) selective |= 1L << i;
+            }
+            try {
+                GenericMessage ack = GenericMessage.replyTo(msg);
+                ack.setTypeHeader(MessageConstants.TYPE_CHUNK_ACK);
+                ack.setSenderNodeID(ownID);
+                ack.setPayload(new ChunkAck(key.transferID, cumulative, selective));
+                sendDatagram(ack);
+            } catch (Exception e) {
+                logger.warning("send chunk ack failed\n" + e.getMessage());
+            }
+        }
+
+        private void expire() {
+            boolean release;
+            long released;
+            synchronized (this) {
+                release = !complete;
+                released = buffer == null ? 0 : buffer.length;
+                complete = true;
+                buffer = null;
+            }
+            if (release) {
+                logger.warning("incomplete chunked transfer dropped");
+                releaseBuffer(this, released);
+            }
+            remove(this);
+        }
+    }
+
+    private static class PeerKey {
+        private final InetAddress address;
+        private final int port;
+
+        private PeerKey(InetAddress address, int port) {
+            this.address = address;
+            this.port = port;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PeerKey)) return false;
+            PeerKey other = (PeerKey) o;
+            return port == other.port && Objects.equals(address, other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(address) + port;
+        }
+    }
+
+    private static class TransferKey {
+        private final PeerKey peer;
+        private final long transferID;
+
+        private TransferKey(InetAddress address, int port, long transferID) {
+            this.peer = new PeerKey(address, port);
+            this.transferID = transferID;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TransferKey)) return false;
+            TransferKey other = (TransferKey) o;
+            return transferID == other.transferID && peer.equals(other.peer);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * peer.hashCode() + Long.hashCode(transferID);
+        }
+    }
+}
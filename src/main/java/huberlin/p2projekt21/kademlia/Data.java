@@ -1,32 +1,41 @@
 package huberlin.p2projekt21.kademlia;
 
-import huberlin.p2projekt21.Helper;
+import huberlin.p2projekt21.crypto.PublicKeyCache;
+import huberlin.p2projekt21.crypto.SignatureScheme;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
 
+/**
+ * Signed page of an author, serialized as [publicKey][signature][page]
+ * The lengths of key and signature are given by the SignatureScheme of the key (see SignatureScheme.of),
+ * the page may be compressed (see Page.toSerialized)
+ */
 public class Data {
+    // lengths of the original (RSA) format
     public static final int SIGNATURE_LENGTH_BYTES = 256;
     public static final int RSA_KEY_LENGTH_BYTES = 294;
 
     final Page page;
     final byte[] signature;
     final byte[] publicKey;
+    // parsed publicKey and its hash (resolved on first use, interned across Data objects)
+    private volatile PublicKeyCache.KeyInfo keyInfo;
 
     /**
      * Create data from page, signature, publicKey and timestamp
      *
      * @param page serialized page
      * @param signature serialized signature
-     * @param publicKey serialized publicKey
+     * @param publicKey serialized publicKey (see SignatureScheme.encode)
      * @param timeStamp timeStamp of that page
      */
     public Data(byte[] page, byte[] signature, byte[] publicKey, long timeStamp) {
-        assert(signature.length == SIGNATURE_LENGTH_BYTES);
-        assert(publicKey.length == RSA_KEY_LENGTH_BYTES);
+        assert(validLengths(signature, publicKey));
         this.page = new Page(page, timeStamp);
         this.signature = signature;
         this.publicKey = publicKey;
@@ -36,18 +45,22 @@ public class Data {
      * Deserialize page
      *
      * @param bytes serialized page
+     * @throws IllegalArgumentException if the key uses an unknown scheme
      */
     public Data(byte[] bytes) {
-        assert (bytes.length > SIGNATURE_LENGTH_BYTES+RSA_KEY_LENGTH_BYTES);
-        byte[] tmp = new byte[bytes.length-SIGNATURE_LENGTH_BYTES-RSA_KEY_LENGTH_BYTES];
-        this.signature = new byte[SIGNATURE_LENGTH_BYTES];
-        this.publicKey = new byte[RSA_KEY_LENGTH_BYTES];
+        SignatureScheme scheme = SignatureScheme.of(bytes);
+        int keyLength = scheme.getKeyLength();
+        int signatureLength = scheme.getSignatureLength();
+        assert (bytes.length > signatureLength+keyLength);
+        byte[] tmp = new byte[bytes.length-signatureLength-keyLength];
+        this.signature = new byte[signatureLength];
+        this.publicKey = new byte[keyLength];
 
         int pos = 0;
-        System.arraycopy(bytes, pos, publicKey, 0, RSA_KEY_LENGTH_BYTES);
-        pos += RSA_KEY_LENGTH_BYTES;
-        System.arraycopy(bytes, pos, signature, 0, SIGNATURE_LENGTH_BYTES);
-        pos += SIGNATURE_LENGTH_BYTES;
+        System.arraycopy(bytes, pos, publicKey, 0, keyLength);
+        pos += keyLength;
+        System.arraycopy(bytes, pos, signature, 0, signatureLength);
+        pos += signatureLength;
         System.arraycopy(bytes, pos, tmp, 0, tmp.length);
         pos += tmp.length;
         assert (pos == bytes.length);
@@ -63,8 +76,24 @@ public class Data {
         page = new Page(tmp[0]);
         signature = tmp[1];
         publicKey = tmp[2];
-        assert(signature.length == SIGNATURE_LENGTH_BYTES);
-        assert(publicKey.length == RSA_KEY_LENGTH_BYTES);
+        assert(validLengths(signature, publicKey));
+    }
+
+    /**
+     * Read the time stamp of serialized data without deserializing it
+     *
+     * @param serialized serialized data in [position, limit)
+     * @return time stamp of the page
+     */
+    public static long getTimeStamp(ByteBuffer serialized) {
+        SignatureScheme scheme = SignatureScheme.of(serialized, serialized.position());
+        long timeStamp = serialized.getLong(serialized.position() + scheme.getKeyLength() + scheme.getSignatureLength());
+        return timeStamp & ~Page.COMPRESSED_FLAG;
+    }
+
+    private static boolean validLengths(byte[] signature, byte[] publicKey) {
+        SignatureScheme scheme = SignatureScheme.of(publicKey);
+        return signature.length == scheme.getSignatureLength() && publicKey.length == scheme.getKeyLength();
     }
 
     public byte[] getPublicKey() {
@@ -80,16 +109,15 @@ public class Data {
     }
 
     public byte[] toBytes() {
-        assert(signature.length == SIGNATURE_LENGTH_BYTES);
-        assert(publicKey.length == RSA_KEY_LENGTH_BYTES);
+        assert(validLengths(signature, publicKey));
 
-        byte[] dataBytes = page.toBytes();
-        byte[] bytes = new byte[SIGNATURE_LENGTH_BYTES+RSA_KEY_LENGTH_BYTES+dataBytes.length];
+        byte[] dataBytes = page.toSerialized();
+        byte[] bytes = new byte[signature.length+publicKey.length+dataBytes.length];
         int pos = 0;
-        System.arraycopy(publicKey, 0, bytes, pos, RSA_KEY_LENGTH_BYTES);
-        pos += RSA_KEY_LENGTH_BYTES;
-        System.arraycopy(signature, 0, bytes, pos, SIGNATURE_LENGTH_BYTES);
-        pos += SIGNATURE_LENGTH_BYTES;
+        System.arraycopy(publicKey, 0, bytes, pos, publicKey.length);
+        pos += publicKey.length;
+        System.arraycopy(signature, 0, bytes, pos, signature.length);
+        pos += signature.length;
         System.arraycopy(dataBytes, 0, bytes, pos, dataBytes.length);
         pos += dataBytes.length;
         assert (pos == bytes.length);
@@ -97,7 +125,27 @@ public class Data {
     }
 
     public BigInteger getKeyHash() throws InvalidKeySpecException, NoSuchAlgorithmException {
-        return Helper.bigIntHashForKey(Helper.getPublicKeyFromBytes(this.publicKey));
+        return getKeyInfo().getKeyHash();
+    }
+
+    /**
+     * Get the parsed public key
+     *
+     * @return public key
+     * @throws InvalidKeySpecException .
+     * @throws NoSuchAlgorithmException .
+     */
+    public PublicKey getParsedPublicKey() throws InvalidKeySpecException, NoSuchAlgorithmException {
+        return getKeyInfo().getPublicKey();
+    }
+
+    private PublicKeyCache.KeyInfo getKeyInfo() throws InvalidKeySpecException, NoSuchAlgorithmException {
+        PublicKeyCache.KeyInfo info = keyInfo;
+        if (info == null) {
+            info = PublicKeyCache.SHARED.get(publicKey);
+            keyInfo = info;
+        }
+        return info;
     }
 
     /**
@@ -129,9 +177,19 @@ public class Data {
         return Long.compare(this.page.timeStamp, other.page.timeStamp);
     }
 
+    /**
+     * Content of a page with its time stamp
+     * Signatures are always computed over the uncompressed form (toBytes), records carry the possibly
+     * compressed form (toSerialized) in which the highest bit of the time stamp flags a compressed body
+     */
     public static class Page {
+        // set in the serialized time stamp if the body is compressed (time stamps are never negative)
+        public static final long COMPRESSED_FLAG = Long.MIN_VALUE;
+
         final byte[] data;
         final long timeStamp;
+        // record form (created on first use or kept from deserialization)
+        private volatile byte[] serialized;
 
         /**
          * Create new Page
@@ -145,16 +203,23 @@ public class Data {
         }
 
         /**
-         * Deserialize serialized page
+         * Deserialize serialized page (compressed or not)
          *
-         * @param serialized serialized page
+         * @param serialized serialized page (must not be modified afterwards)
+         * @throws IllegalArgumentException if a compressed body is corrupt
          */
         public Page(byte[] serialized) {
             byte[] tmp = new byte[Long.BYTES];
             System.arraycopy(serialized, 0, tmp, 0, tmp.length);
-            this.timeStamp = bytesToLong(tmp);
-            this.data = new byte[serialized.length-tmp.length];
-            System.arraycopy(serialized, tmp.length, this.data, 0, data.length);
+            long stamp = bytesToLong(tmp);
+            this.timeStamp = stamp & ~COMPRESSED_FLAG;
+            if ((stamp & COMPRESSED_FLAG) != 0) {
+                this.data = PageCompression.decompress(serialized, tmp.length, serialized.length-tmp.length);
+            } else {
+                this.data = new byte[serialized.length-tmp.length];
+                System.arraycopy(serialized, tmp.length, this.data, 0, data.length);
+            }
+            this.serialized = serialized;
         }
 
         public byte[] getData() {
@@ -165,6 +230,11 @@ public class Data {
             return timeStamp;
         }
 
+        /**
+         * Serialize page uncompressed (the signed form)
+         *
+         * @return [timeStamp][data]
+         */
         public byte[] toBytes() {
             byte[] res = new byte[data.length+Long.BYTES];
             byte[] tmp = longToBytes(timeStamp);
@@ -173,6 +243,28 @@ public class Data {
             return res;
         }
 
+        /**
+         * Serialize page for records (compressed if that makes it smaller, see PageCompression)
+         *
+         * @return [timeStamp][data] or [timeStamp | COMPRESSED_FLAG][compressed data] (must not be modified)
+         */
+        public byte[] toSerialized() {
+            byte[] res = serialized;
+            if (res == null) {
+                byte[] compressed = PageCompression.compress(data);
+                if (compressed == null) {
+                    res = toBytes();
+                } else {
+                    res = new byte[compressed.length+Long.BYTES];
+                    byte[] tmp = longToBytes(timeStamp | COMPRESSED_FLAG);
+                    System.arraycopy(tmp, 0, res, 0, tmp.length);
+                    System.arraycopy(compressed, 0, res, tmp.length, compressed.length);
+                }
+                serialized = res;
+            }
+            return res;
+        }
+
         /**
          * Serialize long
          *
@@ -10,11 +10,11 @@ public class DistanceComparator {
      * @param id reference id
      * @return Comparator
      */
+    public static Comparator<KademliaNode> getCompareKademliaDistances(KademliaId id) {
+        return (n1, n2) -> id.compareDistance(n1.getId(), n2.getId());
+    }
+
     public static Comparator<KademliaNode> getCompareKademliaDistances(BigInteger id) {
-        return (n1, n2) -> {
-            BigInteger d1 = n1.getId().xor(id);
-            BigInteger d2 = n2.getId().xor(id);
-            return d1.compareTo(d2);
-        };
+        return getCompareKademliaDistances(KademliaId.fromBigInteger(id));
     }
-}
\ No newline at end of file
+}
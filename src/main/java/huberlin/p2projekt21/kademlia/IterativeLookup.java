@@ -0,0 +1,296 @@
+package huberlin.p2projekt21.kademlia;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * State of one iterative lookup (cf. 2.2 Kademlia protocol)
+ * Keeps exactly 'alpha' requests in flight: every reply or per-request timeout frees a slot,
+ * which is refilled immediately with the closest not yet queried node
+ *
+ * A request exceeding its (adaptive) timeout becomes 'stale': its slot is freed and alpha is raised
+ * (up to maxAlpha) to route around slow peers, a late reply is still accepted
+ * Timely replies lower alpha back to its base value
+ *
+ * A valueLookup keeps the newest received value, its TerminationPolicy may end the lookup before
+ * the k closest nodes answered (see remaining)
+ *
+ * Only the state is kept here, sending and waiting is done by the caller
+ * Methods are synchronized, replies and timeouts may be reported from different threads
+ */
+public class IterativeLookup {
+    // per-request timeout in millis until a first rtt sample is available
+    public static final long INITIAL_REQUEST_TIMEOUT = 500;
+    // bounds of the adaptive per-request timeout in millis
+    public static final long MIN_REQUEST_TIMEOUT = 50;
+    public static final long MAX_REQUEST_TIMEOUT = KademliaInstance.REQUEST_TIMEOUT;
+
+    private final KademliaId target;
+    private final KademliaId ownID;
+    private final int k;
+    private final int baseAlpha;
+    private final int maxAlpha;
+    // shortlist sorted by distance to target
+    private final TreeMap<KademliaNode, Request> closest;
+    private int alpha;
+    private int inFlight;
+    // smoothed round trip time in millis (-1 until the first reply)
+    private long srtt;
+    private final TerminationPolicy policy;
+    // newest verified value (valueLookup only)
+    private Data value;
+    // time the first verified value was received (-1 if none)
+    private long firstValueTime;
+
+    /**
+     * Create a new lookup, finishes when the k closest nodes answered
+     *
+     * @param target searched id
+     * @param ownID own id (never queried)
+     * @param k number of nodes to find
+     * @param alpha number of parallel requests
+     * @param maxAlpha max number of parallel requests if peers are slow
+     * @param initial initial nodes (from own kBuckets)
+     */
+    public IterativeLookup(KademliaId target, KademliaId ownID, int k, int alpha, int maxAlpha,
+                           Collection<KademliaNode> initial) {
+        this(target, ownID, k, alpha, maxAlpha, initial, TerminationPolicy.closestAnswered());
+    }
+
+    /**
+     * Create a new lookup
+     *
+     * @param target searched id
+     * @param ownID own id (never queried)
+     * @param k number of nodes to find
+     * @param alpha number of parallel requests
+     * @param maxAlpha max number of parallel requests if peers are slow
+     * @param initial initial nodes (from own kBuckets)
+     * @param policy decides when the lookup may finish early
+     */
+    public IterativeLookup(KademliaId target, KademliaId ownID, int k, int alpha, int maxAlpha,
+                           Collection<KademliaNode> initial, TerminationPolicy policy) {
+        assert (alpha > 0 && maxAlpha >= alpha);
+        this.target = target;
+        this.ownID = ownID;
+        this.k = k;
+        this.baseAlpha = alpha;
+        this.maxAlpha = maxAlpha;
+        this.alpha = alpha;
+        this.inFlight = 0;
+        this.srtt = -1;
+        this.policy = policy;
+        this.value = null;
+        this.firstValueTime = -1;
+        this.closest = new TreeMap<>(DistanceComparator.getCompareKademliaDistances(target));
+        addContacts(initial);
+    }
+
+    public KademliaId getTarget() {
+        return target;
+    }
+
+    /**
+     * Select the nodes to query next (fills the window up to alpha)
+     * The returned nodes are marked in flight
+     *
+     * @param now current time in millis
+     * @return list of nodes to query (can be empty)
+     */
+    public synchronized List<KademliaNode> nextRequests(long now) {
+        List<KademliaNode> result = new ArrayList<>(alpha);
+        if (inFlight >= alpha) return result;
+        for (var entry : closest.entrySet()) {
+            if (entry.getValue().state == State.NEW) {
+                entry.getValue().send(now, requestTimeout());
+                result.add(entry.getKey());
+                inFlight++;
+                if (inFlight >= alpha) break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A queried node replied
+     *
+     * @param sender replying node
+     * @param contacts nodes contained in the reply (can be empty)
+     * @param now current time in millis
+     */
+    public synchronized void onReply(KademliaNode sender, Collection<KademliaNode> contacts, long now) {
+        Request request = closest.get(sender);
+        if (request == null) {
+            // already removed (hard timeout) -> re-add as answered
+            request = new Request();
+            closest.put(sender, request);
+        } else if (request.state == State.IN_FLIGHT) {
+            inFlight--;
+            // answered in time -> lower alpha towards base
+            if (alpha > baseAlpha) alpha--;
+        }
+        if (request.sendTime > 0 && request.state != State.ANSWERED) updateRtt(now - request.sendTime);
+        request.state = State.ANSWERED;
+        addContacts(contacts);
+    }
+
+    /**
+     * Checks all requests for exceeded (adaptive) timeouts
+     * In flight requests past their timeout become stale (slot freed, alpha raised)
+     *
+     * @param now current time in millis
+     * @return number of requests that became stale
+     */
+    public synchronized int expire(long now) {
+        int count = 0;
+        for (Request request : closest.values()) {
+            if (request.state == State.IN_FLIGHT && now >= request.deadline) {
+                request.state = State.STALE;
+                inFlight--;
+                if (alpha < maxAlpha) alpha++;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The request to a node finally timed out (reported by the RequestTracker), the node is removed
+     *
+     * @param id id of the unresponsive node
+     * @return true if the node was part of this lookup and not answered yet
+     */
+    public synchronized boolean onTimeout(KademliaId id) {
+        // shortlist is ordered by distance only, address is irrelevant for the lookup
+        KademliaNode node = new KademliaNode(id, null, 0);
+        Request request = closest.get(node);
+        if (request == null || request.state == State.ANSWERED || request.state == State.NEW) return false;
+        if (request.state == State.IN_FLIGHT) {
+            inFlight--;
+            if (alpha < maxAlpha) alpha++;
+        }
+        closest.remove(node);
+        return true;
+    }
+
+    /**
+     * Get the earliest deadline of an in flight request
+     *
+     * @return time in millis or -1 if no request is in flight
+     */
+    public synchronized long nextDeadline() {
+        long res = -1;
+        for (Request request : closest.values()) {
+            if (request.state == State.IN_FLIGHT && (res == -1 || request.deadline < res)) res = request.deadline;
+        }
+        return res;
+    }
+
+    /**
+     * The lookup is finished if the k closest (not stale) nodes answered
+     *
+     * @return true if finished
+     */
+    public synchronized boolean isFinished() {
+        int count = 0;
+        for (Request request : closest.values()) {
+            if (count >= k) break;
+            if (request.state == State.STALE) continue;
+            if (request.state != State.ANSWERED) return false;
+            count++;
+        }
+        return true;
+    }
+
+    /**
+     * A verified value was received, kept if it is newer than the current one
+     *
+     * @param newValue verified value for the target
+     * @param now current time in millis
+     */
+    public synchronized void onValue(Data newValue, long now) {
+        if (firstValueTime < 0) firstValueTime = now;
+        try {
+            if (value == null || value.compareDate(newValue) < 0) value = newValue;
+        } catch (Data.DifferentAuthorsException e) {
+            // not possible, both are verified for the same key
+        }
+    }
+
+    /**
+     * Time left until the policy ends the lookup
+     *
+     * @param now current time in millis
+     * @return remaining millis (0 -> finish now) or TerminationPolicy.UNLIMITED
+     */
+    public synchronized long remaining(long now) {
+        return policy.remaining(value, firstValueTime, now);
+    }
+
+    /**
+     * Get the newest value received
+     *
+     * @return value or null if none
+     */
+    public synchronized Data getValue() {
+        return value;
+    }
+
+    /**
+     * Get the k closest nodes that answered
+     *
+     * @return list of [0, k] nodes sorted by distance
+     */
+    public synchronized List<KademliaNode> result() {
+        List<KademliaNode> result = new ArrayList<>(k);
+        for (var entry : closest.entrySet()) {
+            if (result.size() >= k) break;
+            if (entry.getValue().state == State.ANSWERED) result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    public synchronized int getAlpha() {
+        return alpha;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void addContacts(Collection<KademliaNode> contacts) {
+        for (KademliaNode node : contacts) {
+            if (node.getId().equals(ownID)) continue;   // skip own id
+            closest.putIfAbsent(node, new Request());
+        }
+    }
+
+    /**
+     * Current per-request timeout (4*srtt, bounded)
+     */
+    private long requestTimeout() {
+        if (srtt < 0) return INITIAL_REQUEST_TIMEOUT;
+        return Math.min(MAX_REQUEST_TIMEOUT, Math.max(MIN_REQUEST_TIMEOUT, 4 * srtt));
+    }
+
+    private void updateRtt(long rtt) {
+        if (srtt < 0) srtt = rtt;
+        else srtt = (7 * srtt + rtt) / 8;
+    }
+
+    private enum State { NEW, IN_FLIGHT, STALE, ANSWERED }
+
+    private static class Request {
+        private State state = State.NEW;
+        private long sendTime = 0;
+        private long deadline = 0;
+
+        private void send(long now, long timeout) {
+            this.state = State.IN_FLIGHT;
+            this.sendTime = now;
+            this.deadline = now + timeout;
+        }
+    }
+}
@@ -3,15 +3,21 @@ package huberlin.p2projekt21.kademlia;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 public class KBuckets {
     public static final int CACHE_SIZE = 3;
 
     private final int bucketCount;
-    private final BigInteger referenceID;
+    private final KademliaId referenceID;
 
     private final KBucket[] buckets;
+    // all nodes contained in a kBucket or cache (O(1) membership and updates of known nodes)
+    private final ConcurrentHashMap<KademliaId, KBucket.NodeValues> index;
+    // number of nodes contained in kBuckets (without caches)
+    private final AtomicInteger size;
 
     /**
      * Create new KBucket with i buckets of length k
@@ -19,13 +25,15 @@ public class KBuckets {
      * @param i number of buckets (IDs == [0, 2^i))
      * @param ownID own kademlia id as reference for distance calculation
      */
-    public KBuckets(int k, int i, BigInteger ownID) {
+    public KBuckets(int k, int i, KademliaId ownID) {
         this.bucketCount = i;
         this.referenceID = ownID;
+        this.index = new ConcurrentHashMap<>();
+        this.size = new AtomicInteger(0);
 
         buckets = new KBucket[bucketCount];
         for (int j = 0; j < bucketCount; j++) {
-            buckets[j] = new KBucket(k, CACHE_SIZE);
+            buckets[j] = new KBucket(k, CACHE_SIZE, index, size);
         }
     }
 
@@ -41,14 +49,19 @@ public class KBuckets {
      */
     public KademliaNode update(KademliaNode node, long ls) {
         if (node.getId().equals(referenceID)) return null;  // don't insert own id
+        // fast path: known node, no lock needed
+        KBucket.NodeValues known = index.get(node.getId());
+        if (known != null && known.inBucket) {
+            known.update(ls);
+            return null;
+        }
+
         int bucketID = bucketID(node.getId());
         assert (bucketID >= 0);
         assert (bucketID < bucketCount);
 
         KademliaNode res = buckets[bucketID].update(node, ls);
-        long size = 0;
-        for (var bucket : buckets) size += bucket.size();
-        Logger.getGlobal().info("KBuckets size: " + size);
+        Logger.getGlobal().fine("KBuckets size: " + size.get());
         return res;
     }
 
@@ -59,7 +72,7 @@ public class KBuckets {
      * @param number number of desired nodes
      * @return List of [0,number] nodes
      */
-    public List<KademliaNode> lookup(BigInteger id, int number) {
+    public List<KademliaNode> lookup(KademliaId id, int number) {
         // get number elements of closest bucket
         int closest = Math.max(bucketID(id), 0);    // can be -1 if id==referenceID
         List<KademliaNode> result = buckets[closest].lookup(id, number);
@@ -91,7 +104,7 @@ public class KBuckets {
      *
      * @param id of the pinged node
      */
-    public void pingExpired(BigInteger id) {
+    public void pingExpired(KademliaId id) {
         if (id.equals(referenceID)) return;  // skip own id
         int index = bucketID(id);
         assert (index >= 0 && index < bucketCount);
@@ -113,7 +126,7 @@ public class KBuckets {
     /**
      * Notify bucket of performed nodeLookup
      */
-    public void nodeLookupPerformed(BigInteger id) {
+    public void nodeLookupPerformed(KademliaId id) {
         if (id.equals(referenceID)) return; // skip own id
         int index = bucketID(id);
         buckets[index].nodeLookupPerformed();
@@ -128,6 +141,15 @@ public class KBuckets {
         return bucketCount;
     }
 
+    /**
+     * Returns the number of nodes contained in all kBuckets (without caches)
+     *
+     * @return number of nodes
+     */
+    public int size() {
+        return size.get();
+    }
+
     /**
      * Returns all nodes of the specified kBucket, with no received messages since the specified time
      *
@@ -147,9 +169,8 @@ public class KBuckets {
      * @param id ID of a searched node or value
      * @return bucket responsible for the id (-1 is returned when id==referenceID)
      */
-    public int bucketID(BigInteger id) {
-        BigInteger dist = referenceID.xor(id);
-        return dist.bitLength()-1;
+    public int bucketID(KademliaId id) {
+        return referenceID.bucketIndex(id);
     }
 
     /**
@@ -158,26 +179,47 @@ public class KBuckets {
      * @param node node id
      * @return true if in a kBucket or cache, false otherwise
      */
-    public boolean contained(BigInteger node) {
-        int id = bucketID(node);
-        if (id == -1) return true;
-        return buckets[id].contained(node);
+    public boolean contained(KademliaId node) {
+        if (node.equals(referenceID)) return true;
+        return index.containsKey(node);
     }
 
+    /**
+     * A single kBucket
+     * Elements are kept in a copy-on-write array: readers (lookup, getInactive) don't lock,
+     * writers synchronize on the bucket (one lock per bucket)
+     * All contained nodes (elements and cache) are registered in the shared index
+     */
     public static class KBucket {
         private final int bucketLength;
 
-        private final ArrayList<NodeValues> elements;
+        private volatile NodeValues[] elements;
         private final NodeValues[] cache;   // Override-Ring-Buffer
         private int cachePos;
-        private long lastLookup;
+        private volatile long lastLookup;
+        private final Map<KademliaId, NodeValues> index;
+        private final AtomicInteger size;
 
         public KBucket(int k, int cL) {
+            this(k, cL, new ConcurrentHashMap<>(), new AtomicInteger(0));
+        }
+
+        /**
+         * Create bucket sharing index and size counter with the other buckets
+         *
+         * @param k max number of elements
+         * @param cL cache length
+         * @param index id->entry index of all buckets
+         * @param size element counter of all buckets
+         */
+        public KBucket(int k, int cL, Map<KademliaId, NodeValues> index, AtomicInteger size) {
             this.bucketLength = k;
-            elements = new ArrayList<>(1);
-            cache = new NodeValues[cL];
-            cachePos = cL-1;
-            lastLookup = 0;
+            this.elements = new NodeValues[0];
+            this.cache = new NodeValues[cL];
+            this.cachePos = cL-1;
+            this.lastLookup = 0;
+            this.index = index;
+            this.size = size;
         }
 
         /**
@@ -192,26 +234,43 @@ public class KBuckets {
          */
         public synchronized KademliaNode update(KademliaNode node, long ls) {
             // check if contained
-            for (var elem : elements) {
-                if (elem.getId().equals(node.getId())) {
-                    elem.update(ls);
-                    return null;
-                }
+            NodeValues known = index.get(node.getId());
+            if (known != null && known.inBucket) {
+                known.update(ls);
+                return null;
             }
 
             // free space
-            if (elements.size() < bucketLength) {
-                elements.add(new NodeValues(node, ls));
+            NodeValues[] current = elements;
+            if (current.length < bucketLength) {
+                NodeValues values = known != null ? known : new NodeValues(node, ls);
+                values.update(ls);
+                if (known != null) removeFromCache(known);
+                values.inBucket = true;
+                NodeValues[] tmp = Arrays.copyOf(current, current.length + 1);
+                tmp[current.length] = values;
+                elements = tmp;
+                index.put(node.getId(), values);
+                size.incrementAndGet();
                 return null;
             }
 
-            // add to cache, return "oldest" nodes address
-            cachePos = (cachePos+1)%cache.length;   // move cache-pointer to next position
-            assert (cachePos >= 0 && cachePos < cache.length);
-            cache[cachePos] = new NodeValues(node, ls);
+            if (known != null) {
+                // already cached -> refresh
+                known.update(ls);
+            } else {
+                // add to cache (overrides the oldest cache entry)
+                cachePos = (cachePos+1)%cache.length;   // move cache-pointer to next position
+                assert (cachePos >= 0 && cachePos < cache.length);
+                if (cache[cachePos] != null) index.remove(cache[cachePos].getId(), cache[cachePos]);
+                NodeValues values = new NodeValues(node, ls);
+                cache[cachePos] = values;
+                index.put(node.getId(), values);
+            }
 
+            // return "oldest" nodes address
             NodeValues oldest = null;
-            for (var elem : elements) {
+            for (var elem : current) {
                 if (elem.compareTo(oldest) < 0) oldest = elem;
             }
             assert (oldest != null);
@@ -225,11 +284,10 @@ public class KBuckets {
          * @param number number of desired nodes
          * @return List of [0,number] nodes
          */
-        public List<KademliaNode> lookup(BigInteger id, int number) {
-            List<KademliaNode> result = new ArrayList<>(elements.size());
-            synchronized (this) {
-                for (var elem : elements) result.add(elem.node);
-            }
+        public List<KademliaNode> lookup(KademliaId id, int number) {
+            NodeValues[] current = elements;
+            List<KademliaNode> result = new ArrayList<>(current.length);
+            for (var elem : current) result.add(elem.node);
             if (result.size() > number) {
                 result.sort(DistanceComparator.getCompareKademliaDistances(id));
                 result = result.subList(0, number);
@@ -244,12 +302,18 @@ public class KBuckets {
          *
          * @param id of the pinged node
          */
-        public synchronized void pingExpired(BigInteger id) {
+        public synchronized void pingExpired(KademliaId id) {
             if (cache[cachePos] == null) return;
-            for (int i = 0; i < elements.size(); i++) {
-                if (elements.get(i).getId().equals(id)) {
+            NodeValues[] current = elements;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].getId().equals(id)) {
                     // replace with newest cached node
-                    elements.set(i, cache[cachePos]);
+                    NodeValues replacement = cache[cachePos];
+                    replacement.inBucket = true;
+                    NodeValues[] tmp = current.clone();
+                    index.remove(id, tmp[i]);
+                    tmp[i] = replacement;
+                    elements = tmp;
                     // remove node from cache
                     cache[cachePos] = null;
                     cachePos = (cachePos-1+cache.length)%cache.length;  // move cache-pointer to previous element
@@ -264,8 +328,8 @@ public class KBuckets {
          *
          * @return number of elements
          */
-        public synchronized long size() {
-            return elements.size();
+        public long size() {
+            return elements.length;
         }
 
         /**
@@ -273,14 +337,14 @@ public class KBuckets {
          *
          * @return time of the last nodeLookup in millis
          */
-        public synchronized long getLastLookup() {
+        public long getLastLookup() {
             return lastLookup;
         }
 
         /**
          * Notify bucket of performed nodeLookup
          */
-        public synchronized void nodeLookupPerformed() {
+        public void nodeLookupPerformed() {
             this.lastLookup = System.currentTimeMillis();
         }
 
@@ -290,7 +354,7 @@ public class KBuckets {
          * @param time specified time
          * @return list of inactive nodes
          */
-        public synchronized List<KademliaNode> getInactive(long time) {
+        public List<KademliaNode> getInactive(long time) {
             List<KademliaNode> result = new ArrayList<>();
             for (var node : elements) {
                 if (node.inactiveSince(time)) result.add(node.node);
@@ -304,23 +368,40 @@ public class KBuckets {
          * @param node node id
          * @return true if in a kBucket or cache, false otherwise
          */
-        public synchronized boolean contained(BigInteger node) {
-            for (NodeValues elem : elements) {
-                if (elem.getId().equals(node)) {
-                    return true;
-                }
-            }
-            for (NodeValues nodeValues : cache) {
-                if (nodeValues != null && nodeValues.getId().equals(node)) {
-                    return true;
+        public boolean contained(KademliaId node) {
+            return index.containsKey(node);
+        }
+
+        /**
+         * Remove an entry from the cache (it moves into the bucket)
+         * The cache is compacted towards cachePos, so the newest entries stay in front of the pointer
+         */
+        private void removeFromCache(NodeValues values) {
+            for (int i = 0; i < cache.length; i++) {
+                if (cache[i] == values) {
+                    // shift newer entries back by one
+                    int pos = i;
+                    while (pos != cachePos) {
+                        int next = (pos+1)%cache.length;
+                        cache[pos] = cache[next];
+                        pos = next;
+                    }
+                    cache[cachePos] = null;
+                    cachePos = (cachePos-1+cache.length)%cache.length;
+                    return;
                 }
             }
-            return false;
         }
 
         public static class NodeValues implements Comparable<NodeValues> {
             private final KademliaNode node;
-            private long ls;
+            private volatile long ls;
+            // true if contained in the bucket, false if only cached
+            private volatile boolean inBucket;
+
+            public NodeValues(KademliaId id, InetAddress address, int port, long ls) {
+                this(new KademliaNode(id, address, port), ls);
+            }
 
             public NodeValues(BigInteger id, InetAddress address, int port, long ls) {
                 this(new KademliaNode(id, address, port), ls);
@@ -329,6 +410,7 @@ public class KBuckets {
             public NodeValues(KademliaNode node, long ls) {
                 this.node = node;
                 this.ls = ls;
+                this.inBucket = false;
             }
 
             public void update(long ls) {
@@ -343,7 +425,7 @@ public class KBuckets {
                 return Long.compare(this.ls, o.ls);
             }
 
-            public BigInteger getId() {
+            public KademliaId getId() {
                 return this.node.getId();
             }
 
@@ -0,0 +1,227 @@
+package huberlin.p2projekt21.kademlia;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Immutable 256 bit kademlia id (node ids, keys)
+ * Stored as four longs (w0 most significant), so xor-distance comparison,
+ * bucket index and hashing work without allocation
+ */
+public final class KademliaId implements Comparable<KademliaId> {
+    public static final int BITS = 256;
+    public static final int BYTES = BITS / 8;
+    public static final KademliaId ZERO = new KademliaId(0, 0, 0, 0);
+
+    private final long w0, w1, w2, w3;
+
+    public KademliaId(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    /**
+     * Create id from its big-endian byte representation
+     *
+     * @param bytes array containing the id
+     * @param offset index of the first byte
+     * @return id
+     */
+    public static KademliaId fromBytes(byte[] bytes, int offset) {
+        assert (bytes.length - offset >= BYTES);
+        return new KademliaId(getLong(bytes, offset), getLong(bytes, offset + 8),
+                getLong(bytes, offset + 16), getLong(bytes, offset + 24));
+    }
+
+    public static KademliaId fromBytes(byte[] bytes) {
+        return fromBytes(bytes, 0);
+    }
+
+    /**
+     * Read id at an absolute index (buffer position is not changed)
+     *
+     * @param buffer source buffer
+     * @param index index of the first byte
+     * @return id
+     */
+    public static KademliaId read(ByteBuffer buffer, int index) {
+        return new KademliaId(buffer.getLong(index), buffer.getLong(index + 8),
+                buffer.getLong(index + 16), buffer.getLong(index + 24));
+    }
+
+    /**
+     * Create id from a non-negative BigInteger (less than 2^256)
+     *
+     * @param value value of the id
+     * @return id
+     */
+    public static KademliaId fromBigInteger(BigInteger value) {
+        assert (value.signum() >= 0 && value.bitLength() <= BITS);
+        return new KademliaId(value.shiftRight(192).longValue(), value.shiftRight(128).longValue(),
+                value.shiftRight(64).longValue(), value.longValue());
+    }
+
+    /**
+     * Create a random id
+     *
+     * @param random source of randomness
+     * @return random id
+     */
+    public static KademliaId random(Random random) {
+        return new KademliaId(random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong());
+    }
+
+    /**
+     * Write the big-endian representation at the buffer's position (advances it)
+     *
+     * @param out target buffer
+     */
+    public void writeTo(ByteBuffer out) {
+        out.putLong(w0).putLong(w1).putLong(w2).putLong(w3);
+    }
+
+    /**
+     * Write the big-endian representation into the array
+     *
+     * @param out target array
+     * @param offset index of the first byte
+     */
+    public void toBytes(byte[] out, int offset) {
+        putLong(out, offset, w0);
+        putLong(out, offset + 8, w1);
+        putLong(out, offset + 16, w2);
+        putLong(out, offset + 24, w3);
+    }
+
+    public byte[] toBytes() {
+        byte[] out = new byte[BYTES];
+        toBytes(out, 0);
+        return out;
+    }
+
+    public BigInteger toBigInteger() {
+        return new BigInteger(1, toBytes());
+    }
+
+    /**
+     * Compares the xor-distances of a and b to this id
+     *
+     * @param a first id
+     * @param b second id
+     * @return <0 if a is closer, 0 if equally close (a==b), >0 if b is closer
+     */
+    public int compareDistance(KademliaId a, KademliaId b) {
+        int res = Long.compareUnsigned(a.w0 ^ w0, b.w0 ^ w0);
+        if (res != 0) return res;
+        res = Long.compareUnsigned(a.w1 ^ w1, b.w1 ^ w1);
+        if (res != 0) return res;
+        res = Long.compareUnsigned(a.w2 ^ w2, b.w2 ^ w2);
+        if (res != 0) return res;
+        return Long.compareUnsigned(a.w3 ^ w3, b.w3 ^ w3);
+    }
+
+    /**
+     * Index of the highest differing bit (= kBucket index of other relative to this id)
+     *
+     * @param other other id
+     * @return [0, 256) or -1 if both ids are equal
+     */
+    public int bucketIndex(KademliaId other) {
+        long x = w0 ^ other.w0;
+        if (x != 0) return 255 - Long.numberOfLeadingZeros(x);
+        x = w1 ^ other.w1;
+        if (x != 0) return 191 - Long.numberOfLeadingZeros(x);
+        x = w2 ^ other.w2;
+        if (x != 0) return 127 - Long.numberOfLeadingZeros(x);
+        x = w3 ^ other.w3;
+        if (x != 0) return 63 - Long.numberOfLeadingZeros(x);
+        return -1;
+    }
+
+    public KademliaId xor(KademliaId other) {
+        return new KademliaId(w0 ^ other.w0, w1 ^ other.w1, w2 ^ other.w2, w3 ^ other.w3);
+    }
+
+    /**
+     * Create an id with the same bits above 'bit', bit 'bit' inverted and random bits below
+     * (a random id of the kBucket 'bit' relative to this id)
+     *
+     * @param bit index of the bit to flip [0, 256)
+     * @param random source of randomness
+     * @return id in kBucket 'bit'
+     */
+    public KademliaId randomInBucket(int bit, Random random) {
+        assert (bit >= 0 && bit < BITS);
+        long[] words = {w0, w1, w2, w3};
+        int word = 3 - bit / 64;
+        int offset = bit % 64;
+        words[word] ^= 1L << offset;
+        // randomize all less significant bits
+        long lowMask = offset == 0 ? 0 : -1L >>> (64 - offset);
+        words[word] = (words[word] & ~lowMask) | (random.nextLong() & lowMask);
+        for (int i = word + 1; i < 4; i++) words[i] = random.nextLong();
+        return new KademliaId(words[0], words[1], words[2], words[3]);
+    }
+
+    @Override
+    public int compareTo(KademliaId o) {
+        int res = Long.compareUnsigned(w0, o.w0);
+        if (res != 0) return res;
+        res = Long.compareUnsigned(w1, o.w1);
+        if (res != 0) return res;
+        res = Long.compareUnsigned(w2, o.w2);
+        if (res != 0) return res;
+        return Long.compareUnsigned(w3, o.w3);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof KademliaId)) return false;
+        KademliaId other = (KademliaId) o;
+        return w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        // ids are (pseudo-)random, folding the words is sufficient
+        long h = w0 ^ w1 ^ w2 ^ w3;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Hex representation (without leading zeros, as BigInteger.toString(16))
+     *
+     * @return hex string
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(64);
+        long[] words = {w0, w1, w2, w3};
+        for (long word : words) {
+            if (builder.length() == 0) {
+                if (word != 0) builder.append(Long.toHexString(word));
+            } else {
+                String hex = Long.toHexString(word);
+                builder.append("0".repeat(16 - hex.length())).append(hex);
+            }
+        }
+        return builder.length() == 0 ? "0" : builder.toString();
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long res = 0;
+        for (int i = 0; i < 8; i++) res = (res << 8) | (bytes[offset + i] & 0xFF);
+        return res;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -2,17 +2,19 @@ package huberlin.p2projekt21.kademlia;
 
 import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
 import huberlin.p2projekt21.datagrams.messages.*;
-import huberlin.p2projekt21.Helper;
-import huberlin.p2projekt21.crypto.Crypto;
+import huberlin.p2projekt21.crypto.SignatureCache;
+import huberlin.p2projekt21.networking.BoundedChannel;
+import huberlin.p2projekt21.networking.Datagram;
 
 import java.math.BigInteger;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class KademliaInstance implements Runnable{
 
@@ -22,30 +24,55 @@ public class KademliaInstance implements Runnable{
     public static final int K = 20;
     //public static final int K = 10; // for testing
     public static final int ALPHA = 3;
+    // max number of parallel lookup requests if peers answer slowly
+    public static final int MAX_ALPHA = 2 * ALPHA;
     // determines how often bootstrapping is retried [1..]
     public static final int BOOTSTRAPPING_TRIES = 5;
     // timeout until bootstrapping is retried in millis
     public static final long BOOTSTRAPPING_TIMEOUT = 60 * 1000;
     // timeout until new lookup messages are send in millis
     public static final long POLL_TIMEOUT = 1000;
+    // max time in millis a valueLookup waits for a newer value after the first verified one
+    public static final long VALUE_GRACE_PERIOD = 200;
     // timeout until lookup-request is considered unanswered in millis
     public static final long REQUEST_TIMEOUT = 2 * 1000;
-
-    private final ConcurrentLinkedDeque<DatagramPacket> incomingChannel;
-    private final ConcurrentLinkedDeque<DatagramPacket> outgoingChannel;
+    // default number of replicas that have to acknowledge a STORE until it is reported successful
+    public static final int WRITE_QUORUM = 3;
+    // max number of times an unacknowledged STORE is resent to a replica
+    public static final int STORE_RETRIES = 2;
+    // max number of pages published at once (republish, default pages)
+    public static final int MAX_PARALLEL_PUBLISHES = 32;
+    // max time in millis the main thread waits for a message before checking if still running
+    public static final long IDLE_TIMEOUT = 500;
+
+    private final BoundedChannel<Datagram> incomingChannel;
+    private final BoundedChannel<DatagramPacket> outgoingChannel;
     private final Random random;
-    private final BigInteger ownID;
+    private final KademliaId ownID;
     private final AtomicBoolean running;
     private final Thread mainThread;
     private final Logger logger;
     private BackgroundTasks backgroundTasks = null;
     private final LocalHashTable localHashTable;
+    // verifies and commits inbound stores (in parallel per key)
+    private final StoreVerifier storeVerifier;
+    private final MessageDispatcher dispatcher;
 
     private final KBuckets kBuckets;
-    // maps randomIDs to (receiverID, sendTime, receiverChannel)
-    private final Map<BigInteger, RequestCookie> requestMap;
-    // holds BlockingQueues to allow for transferring incoming lookup responses to the correct lookup request
-    private final Map<Long, BlockingQueue<GenericMessage>> lookupChannels;
+    // matches replies to sent requests, reports unanswered requests
+    private final RequestTracker requestTracker;
+    // running lookups, incoming lookup responses are forwarded to the corresponding lookup
+    private final Map<Long, LookupTask> lookups;
+    // running replications, incoming store responses are forwarded to the corresponding replication
+    private final Map<Long, ReplicationTask> replications;
+    // ids of lookups and replications (one id space, never -1 = "no lookup" in RequestTracker)
+    private final AtomicLong taskIds;
+    // drives lookup timeouts
+    private final TimerWheel timer;
+    // sends and reassembles messages too large for a single datagram
+    private final ChunkedTransfer transfers;
+    // groups small FINDVALUE/STORE/STORE_STATUS messages to the same peer into batches
+    private final MessageCoalescer coalescer;
     // remembers own data, used for regular republish
     private final Map<BigInteger, Long> ownData;
 
@@ -56,20 +83,30 @@ public class KademliaInstance implements Runnable{
      * @param incomingChannel datagram channel for incoming messages
      * @param outgoingChannel datagram channel for outgoing messages
      */
-    public KademliaInstance(ConcurrentLinkedDeque<DatagramPacket> incomingChannel, ConcurrentLinkedDeque<DatagramPacket> outgoingChannel) {
+    public KademliaInstance(BoundedChannel<Datagram> incomingChannel, BoundedChannel<DatagramPacket> outgoingChannel) {
         this.incomingChannel = incomingChannel;
         this.outgoingChannel = outgoingChannel;
         random = new Random();
-        ownID = new BigInteger(NODE_ID_LENGTH, random);
+        ownID = KademliaId.random(random);
         running = new AtomicBoolean(true);
         mainThread = new Thread(this);
         logger = Logger.getGlobal();
-        logger.info("ownID: " + ownID.toString(16));
+        logger.info("ownID: " + ownID);
         localHashTable = new LocalHashTable();
+        storeVerifier = new StoreVerifier(localHashTable::store, StoreVerifier.VERIFY_THREADS);
+        dispatcher = new MessageDispatcher(this::handleDatagram);
 
         kBuckets = new KBuckets(K, NODE_ID_LENGTH, ownID);
-        requestMap = new ConcurrentHashMap<>();
-        lookupChannels = new ConcurrentHashMap<>();
+        lookups = new ConcurrentHashMap<>();
+        replications = new ConcurrentHashMap<>();
+        taskIds = new AtomicLong(0);
+        timer = new TimerWheel();
+        requestTracker = new RequestTracker(timer, REQUEST_TIMEOUT, this::requestExpired);
+        // chunks are sent from timer callbacks too -> never block, dropped chunks are retransmitted
+        transfers = new ChunkedTransfer(ownID, timer, msg -> outgoingChannel.offer(msg.toDatagram()), this::handleReassembled);
+        // sends on the timer thread (lookup steps, STORE retries, batch flushes) use offer, all others put
+        coalescer = new MessageCoalescer(timer, msg -> outgoingChannel.put(msg.toDatagram()),
+                msg -> outgoingChannel.offer(msg.toDatagram()));
         ownData = new ConcurrentHashMap<>();
     }
 
@@ -77,53 +114,65 @@ public class KademliaInstance implements Runnable{
     public void run() {
         logger.info("kademlia started");
         while (running.get()) {
-            // retrieve next incoming message
-            if (incomingChannel.isEmpty()) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            // retrieve next incoming message (blocks until available)
+            Datagram datagram;
+            try {
+                datagram = incomingChannel.poll(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
                 continue;
             }
-            DatagramPacket datagram = incomingChannel.poll();
             if (datagram == null) continue;
 
-            // decode incoming message
-            try {
-                GenericMessage msg = new GenericMessage();
-                msg.fromDatagramPacket(datagram);
-                logger.info("message received\n" + msg.getRandomID().toString());
-
-                if (!decodeMessage(msg)) continue;
-
-                // update kBucket
-                KademliaNode node = kBuckets.update(new KademliaNode(msg.getSenderNodeID(), msg.getSenderIP(), msg.getSenderPort()), System.currentTimeMillis());
-                if (node != null) {
-                    GenericMessage ping = new GenericMessage(null, -1, node.getAddress(), node.getPort());
-                    ping.setSenderNodeID(ownID);
-                    BigInteger randomId = Helper.getRandomID();
-                    requestMap.put(randomId, new RequestCookie(node.getId(), System.currentTimeMillis(), -1));
-                    ping.setRandomID(randomId);
-                    ping.setTypeHeader(MessageConstants.TYPE_PING);
-                    outgoingChannel.add(ping.toDatagram());
-                    logger.info("ping node " + node.getId().toString(16));
-                }
-
-            } catch (Exception e) {
-                e.printStackTrace();
-                // just skip msg?
-                logger.warning("discarded message\n" + e.getMessage());
-            }
+            // hand over to worker pool (decoded and handled there)
+            dispatcher.dispatch(datagram);
         }
 
         // kademlia stopping
         assert(!running.get());
-        // TODO do clean-up stuff here
+        dispatcher.stop();
+        storeVerifier.stop();
+    }
+
+    /**
+     * Decode and handle an incoming datagram (executed by the dispatcher's workers)
+     * Releases the datagram after decoding
+     *
+     * @param datagram received datagram
+     */
+    private void handleDatagram(Datagram datagram) {
+        try {
+            GenericMessage msg = new GenericMessage();
+            try {
+                msg.fromDatagram(datagram);
+            } finally {
+                datagram.release();
+            }
+            logger.info("message received\n" + msg.getRequestID());
+
+            if (!decodeMessage(msg)) return;
+
+            // update kBucket
+            KademliaNode node = kBuckets.update(new KademliaNode(msg.getSenderID(), msg.getSenderIP(), msg.getSenderPort()), System.currentTimeMillis());
+            if (node != null) {
+                GenericMessage ping = new GenericMessage(null, -1, node.getAddress(), node.getPort());
+                ping.setSenderNodeID(ownID);
+                ping.setRandomID(requestTracker.register(node.getId(), -1).randomID);
+                ping.setTypeHeader(MessageConstants.TYPE_PING);
+                outgoingChannel.put(ping.toDatagram());
+                logger.info("ping node " + node.getId());
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            // just skip msg?
+            logger.warning("discarded message\n" + e.getMessage());
+        }
     }
 
     /**
      * Decode and handle message
+     * Called concurrently by the dispatcher's workers
      *
      * @param msg next message
      * @return false if decoding failed
@@ -131,24 +180,23 @@ public class KademliaInstance implements Runnable{
      */
     private boolean decodeMessage(GenericMessage msg) throws Exception {
         // switch message type
-        byte type = msg.getTypeHeader().byteValueExact();
+        byte type = msg.getType();
 
         switch (type) {
             case MessageConstants.TYPE_PING -> {
                 logger.info("ping received");
                 // reply Pong
-                GenericMessage reply = new GenericMessage(null, -1, msg.getSenderIP(), msg.getSenderPort());
-                reply.setRandomID(msg.getRandomID());
+                GenericMessage reply = GenericMessage.replyTo(msg);
                 reply.setSenderNodeID(this.ownID);
                 reply.setTypeHeader(MessageConstants.TYPE_PONG);
-                outgoingChannel.add(reply.toDatagram());
+                outgoingChannel.put(reply.toDatagram());
                 logger.info("pong replied");
             }
             case MessageConstants.TYPE_PONG -> {
                 logger.info("pong received");
                 // check randomID
-                RequestCookie cookie = checkRandomID(msg.getSenderNodeID(), msg.getRandomID());
-                if (cookie == null) {
+                RequestTracker.Request request = requestTracker.match(msg.getRequestID(), msg.getSenderID());
+                if (request == null) {
                     // not requested (or too long ago) -> skip
                     logger.warning("no cookie available");
                     return false;
@@ -161,58 +209,72 @@ public class KademliaInstance implements Runnable{
                 if (payload == null) return false;
                 //BigInteger key = payload.getEntryKey();
                 byte[] value = payload.getEntryValue();
-                // store <key, value>
-                localHashTable.store(new Data(value));
+                // store <key, value> (verified and committed asynchronously), reply StoreR once done
+                GenericMessage reply = GenericMessage.replyTo(msg);
+                reply.setSenderNodeID(this.ownID);
+                reply.setTypeHeader(MessageConstants.TYPE_STORE_STATUS);
+                storeVerifier.submit(new Data(value), stored -> {
+                    byte status = stored ? MessageConstants.STATUS_STORED : MessageConstants.STATUS_REJECTED;
+                    reply.setPayload(new StatusTcpInfo(status, new byte[0]));
+                    send(reply);
+                    logger.info("storeR replied");
+                });
+            }
+            case MessageConstants.TYPE_STORE_STATUS -> {
+                logger.info("storeR received");
+                // check randomID
+                RequestTracker.Request request = requestTracker.match(msg.getRequestID(), msg.getSenderID());
+                if (request == null) {
+                    // not requested (or too long ago) -> skip
+                    logger.warning("no cookie available");
+                    return false;
+                }
+                StatusTcpInfo payload = (StatusTcpInfo) msg.getPayload();
+                if (payload == null) return false;
+                ReplicationTask replication = replications.get(request.lookupId);
+                if (replication != null) {
+                    replication.onStatus(msg.getSenderID(), payload.getStatus() == MessageConstants.STATUS_STORED);
+                }
             }
-            // TODO Store reply missing? probably not even necessary
             case MessageConstants.TYPE_FINDNODE -> {
                 logger.info("findNode received");
                 // parse payload
                 NodeID payloadMsg = (NodeID) msg.getPayload();
                 if (payloadMsg == null) return false;
-                List<KademliaNode> list = kBuckets.lookup(payloadMsg.getNodeID(), K);
+                List<KademliaNode> list = kBuckets.lookup(payloadMsg.getKademliaID(), K);
                 // reply FindNodeR
                 Tuples payloadRep = new Tuples();
                 for (var elem : list) payloadRep.addTuple(elem.getPort(), elem.getAddress(), new NodeID(elem.getId()));
-                GenericMessage reply = new GenericMessage(null, -1, msg.getSenderIP(), msg.getSenderPort());
-                reply.setRandomID(msg.getRandomID());
+                GenericMessage reply = GenericMessage.replyTo(msg);
                 reply.setSenderNodeID(this.ownID);
                 reply.setTypeHeader(MessageConstants.TYPE_FINDNODE_R);
                 reply.setPayload(payloadRep);
-                outgoingChannel.add(reply.toDatagram());
+                outgoingChannel.put(reply.toDatagram());
                 logger.info("findNodeR replied");
             }
             case MessageConstants.TYPE_FINDNODE_R -> {
                 logger.info("findNodeR received");
                 // check randomID
-                RequestCookie cookie = checkRandomID(msg.getSenderNodeID(), msg.getRandomID());
-                if (cookie == null) {
+                RequestTracker.Request request = requestTracker.match(msg.getRequestID(), msg.getSenderID());
+                if (request == null) {
                     // not requested (or too long ago) -> skip
                     logger.warning("no cookie available");
                     return false;
                 }
 
-                // forward message to corresponding lookup handle
-                long lookupChannelID = cookie.lookupChanelID;
-                var channel = lookupChannels.get(lookupChannelID);
-                if (channel != null) {
-                    logger.info("placing message in channel " + lookupChannelID);
-                    channel.add(msg);
-                } else {
-                    logger.warning("channel removed " + lookupChannelID);
-                }
+                forwardToLookup(request.lookupId, msg);
             }
             case MessageConstants.TYPE_FINDVALUE -> {
                 logger.info("findValue received");
                 GenericMessage reply = handleFindValue(msg);
-                if (reply != null) outgoingChannel.add(reply.toDatagram());
+                if (reply != null) send(reply);
                 else return false;
             }
             case MessageConstants.TYPE_FINDVALUE_R -> {
                 logger.info("findValueR received");
                 // check randomID
-                RequestCookie cookie = checkRandomID(msg.getSenderNodeID(), msg.getRandomID());
-                if (cookie == null) {
+                RequestTracker.Request request = requestTracker.match(msg.getRequestID(), msg.getSenderID());
+                if (request == null) {
                     // not requested (or too long ago) -> skip
                     logger.warning("no cookie available");
                     return false;
@@ -221,15 +283,21 @@ public class KademliaInstance implements Runnable{
                 EntryValue payloadMsg = (EntryValue) msg.getPayload();
                 if (payloadMsg == null) return false;
 
-                // forward message to corresponding lookup handle
-                long lookupChannelID = cookie.lookupChanelID;
-                logger.info("placing message in channel " + lookupChannelID);
-                var channel = lookupChannels.get(lookupChannelID);
-                if (channel != null) {
-                    logger.info("placing message in channel " + lookupChannelID);
-                    channel.add(msg);
-                } else {
-                    logger.warning("channel removed " + lookupChannelID);
+                forwardToLookup(request.lookupId, msg);
+            }
+            case MessageConstants.TYPE_CHUNK -> {
+                // a FindValueR still arriving keeps its request alive
+                requestTracker.extend(msg.getRequestID(), msg.getSenderID());
+                transfers.onChunk(msg);
+            }
+            case MessageConstants.TYPE_CHUNK_ACK -> transfers.onAck(msg);
+            case MessageConstants.TYPE_BATCH -> {
+                Batch payload = (Batch) msg.getPayload();
+                if (payload == null || !MessageCoalescer.isBatchable(payload.getInnerType())) return false;
+                logger.info("batch received (" + payload.getEntries().size() + ")");
+                // handle every entry as if received in its own datagram
+                for (Batch.Entry entry : payload.getEntries()) {
+                    decodeMessage(MessageCoalescer.unpack(msg, entry));
                 }
             }
             default -> {
@@ -240,6 +308,46 @@ public class KademliaInstance implements Runnable{
         return true;
     }
 
+    /**
+     * Handle a message reassembled from chunks (only STORE and FINDVALUE_R are sent in chunks)
+     *
+     * @param msg reassembled message
+     * @throws Exception thrown by GenericMessage
+     */
+    private void handleReassembled(GenericMessage msg) throws Exception {
+        switch (msg.getType()) {
+            case MessageConstants.TYPE_STORE_ENTRYKEY, MessageConstants.TYPE_FINDVALUE_R -> decodeMessage(msg);
+            default -> logger.warning("unsupported chunked message " + msg.getType());
+        }
+    }
+
+    /**
+     * Send a message, in chunks if it is too large for a single datagram
+     * Small FINDVALUE/STORE/STORE_STATUS messages may be batched with others to the same peer
+     *
+     * @param msg message to be sent
+     */
+    private void send(GenericMessage msg) {
+        if (ChunkedTransfer.needsChunking(msg)) transfers.send(msg);
+        else coalescer.send(msg);
+    }
+
+    /**
+     * Forward a lookup response to the corresponding lookup
+     *
+     * @param lookupId id of the lookup
+     * @param msg FindNodeR or FindValueR message
+     */
+    private void forwardToLookup(long lookupId, GenericMessage msg) {
+        LookupTask lookup = lookups.get(lookupId);
+        if (lookup != null) {
+            logger.info("forward message to lookup " + lookupId);
+            lookup.onReply(msg);
+        } else {
+            logger.warning("lookup finished " + lookupId);
+        }
+    }
+
     /**
      * Start kademlia (main) thread
      * At first bootstrapping is executed
@@ -251,6 +359,7 @@ public class KademliaInstance implements Runnable{
      */
     public void start(InetAddress address, int port){
         logger.info("starting kademlia");
+        timer.start();
         bootstrapping(address, port);
     }
 
@@ -261,6 +370,7 @@ public class KademliaInstance implements Runnable{
         logger.info("stopping kademlia");
         this.running.set(false);
         if (backgroundTasks != null) backgroundTasks.stop();
+        timer.stop();
     }
 
     /**
@@ -282,7 +392,7 @@ public class KademliaInstance implements Runnable{
         if (value == null) {
             // not found locally -> search in network
             logger.info("search in network");
-            Data tmp = valueLookup(key);
+            Data tmp = valueLookupAsync(KademliaId.fromBigInteger(key), TerminationPolicy.closestAnswered()).get();
             if (tmp != null) value = tmp.getPage().toBytes();
         } else {
             logger.info("found locally");
@@ -302,17 +412,39 @@ public class KademliaInstance implements Runnable{
      * @throws Exception thrown by GenericMessage
      */
     public Data getValueData(BigInteger key) throws Exception {
+        return getValueDataAsync(key).get();
+    }
+
+    /**
+     * Get the associated value for the given key without blocking
+     * The future is completed with null if no value could be found
+     *
+     * @param key search key
+     * @return future completed with the data associated with the key (or null)
+     */
+    public CompletableFuture<Data> getValueDataAsync(BigInteger key) {
+        return getValueDataAsync(key, TerminationPolicy.newestWithin(VALUE_GRACE_PERIOD));
+    }
+
+    /**
+     * Get the associated value for the given key without blocking
+     * The future is completed with null if no value could be found
+     *
+     * @param key search key
+     * @param policy decides when the network search finishes (e.g. on the first verified value)
+     * @return future completed with the data associated with the key (or null)
+     */
+    public CompletableFuture<Data> getValueDataAsync(BigInteger key, TerminationPolicy policy) {
         logger.info("getValue(" + key.toString(16) + ")");
         // search locally
         Data value = localHashTable.load(key);
-        if (value == null) {
-            // not found locally -> search in network
-            logger.info("search in network");
-            value = valueLookup(key);
-        } else {
+        if (value != null) {
             logger.info("found locally");
+            return CompletableFuture.completedFuture(value);
         }
-        return value;
+        // not found locally -> search in network
+        logger.info("search in network");
+        return valueLookupAsync(KademliaId.fromBigInteger(key), policy);
     }
 
     /**
@@ -321,100 +453,93 @@ public class KademliaInstance implements Runnable{
      * !!!WARNING: Will block for possibly a really long time!!!
      * !!!only call from asynchronous context!!!
      *
-     * @param key key for the given value
-     * @param value byte representation of the value to be stored
+     * @param data Data object containing data, signature and key to be stores
      * @return true if stored in network, false if only stored locally
      * @throws Exception thrown by GenericMessage
      */
-    @Deprecated
-    public boolean store(BigInteger key, byte[] value) throws Exception {
-        logger.info("store(" + key.toString(16) + ")");
-        // store locally
-        localHashTable.store(new Data(value, null, null, System.currentTimeMillis()));
-        // store in network
-        List<KademliaNode> nodes = nodeLookup(key);
-        if (nodes == null || nodes.size() == 0) {
-            logger.warning("Could not store message in the network");
-            return false;
-        }
-        for (var node : nodes) {
-            GenericMessage store = new GenericMessage(null, -1, node.getAddress(), node.getPort());
-            store.setTypeHeader(MessageConstants.TYPE_STORE_ENTRYKEY);
-            BigInteger randomID = Helper.getRandomID();
-            store.setRandomID(randomID);
-            store.setSenderNodeID(ownID);
-            EntryKey payload = new EntryKey(key);
-            payload.setEntryValue(value);
-            store.setPayload(payload);
-            // TODO uncomment if storeR is added
-            // requestMap.put(randomID, new RequestCookie(node.getId(), System.currentTimeMillis(), -1));
-            outgoingChannel.add(store.toDatagram());
-            logger.info("send store to " + node.getId().toString(16));
-        }
-        return true;
+    public boolean store(Data data) throws Exception {
+        return storeAsync(data).get();
     }
 
     /**
-     * Store the given key-value pair
+     * Store the given key-value pair without blocking
      *
-     * !!!WARNING: Will block for possibly a really long time!!!
-     * !!!only call from asynchronous context!!!
+     * @param data Data object containing data, signature and key to be stores
+     * @return future completed with true if stored in network (WRITE_QUORUM replicas acknowledged),
+     * false if only stored locally
+     */
+    public CompletableFuture<Boolean> storeAsync(Data data) {
+        return storeAsync(data, WRITE_QUORUM);
+    }
+
+    /**
+     * Store the given key-value pair without blocking
      *
      * @param data Data object containing data, signature and key to be stores
-     * @return true if stored in network, false if only stored locally
-     * @throws Exception thrown by GenericMessage
+     * @param quorum number of replicas that have to acknowledge (bounded by the number of found nodes)
+     * @return future completed with true if stored in network, false if only stored locally
      */
-    public boolean store(Data data) throws Exception {
-        logger.info("store(" + data.getKeyHash().toString(16) + ")");
-        // store locally
-        localHashTable.store(data);
+    public CompletableFuture<Boolean> storeAsync(Data data, int quorum) {
+        BigInteger keyHash;
+        try {
+            keyHash = data.getKeyHash();
+            logger.info("store(" + keyHash.toString(16) + ")");
+            // store locally
+            localHashTable.store(data);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
 
         // store in network
-        boolean success = publishData(data);
-        if (success) {
-            // stored successfully -> mark published (with current time)
-            ownData.put(data.getKeyHash(), System.currentTimeMillis());
-        } else {
-            // store failed -> mark unpublished
-            ownData.put(data.getKeyHash(), (long)-1);
-        }
-        return success;
+        return publishDataAsync(data, quorum).thenApply(success -> {
+            if (success) {
+                // stored successfully -> mark published (with current time)
+                ownData.put(keyHash, System.currentTimeMillis());
+            } else {
+                // store failed -> mark unpublished
+                ownData.put(keyHash, (long)-1);
+            }
+            return success;
+        });
     }
 
     /**
-     * Tries to publish the given Data object in the Kademlia network
+     * Tries to publish the given Data object in the Kademlia network without blocking
      *
-     * !!!WARNING: Will block for possibly a really long time!!!
-     * !!!only call from asynchronous context!!!
+     * @param data Data object containing data, signature and key to be published
+     * @return future completed with true if successfully stored in network, false otherwise
+     */
+    private CompletableFuture<Boolean> publishDataAsync(Data data) {
+        return publishDataAsync(data, WRITE_QUORUM);
+    }
+
+    /**
+     * Tries to publish the given Data object in the Kademlia network without blocking
+     * STOREs are sent to the k closest nodes in parallel, unacknowledged ones are resent
      *
      * @param data Data object containing data, signature and key to be published
-     * @return true if successfully stored in network, false otherwise
-     * @throws Exception thrown by GenericMessage
+     * @param quorum number of replicas that have to acknowledge (bounded by the number of found nodes)
+     * @return future completed with true once quorum replicas acknowledged, false if that is no longer possible
      */
-    private boolean publishData(Data data) throws Exception {
-        List<KademliaNode> nodes = nodeLookup(data.getKeyHash());
-        if (nodes == null || nodes.size() == 0) {
-            logger.warning("Could not store message in the network");
-            return false;
-        }
-        for (var node : nodes) {
-            GenericMessage store = new GenericMessage(null, -1, node.getAddress(), node.getPort());
-            store.setTypeHeader(MessageConstants.TYPE_STORE_ENTRYKEY);
-            BigInteger randomID = Helper.getRandomID();
-            store.setRandomID(randomID);
-            store.setSenderNodeID(ownID);
-            EntryKey payload = new EntryKey(data.getKeyHash());
-            payload.setEntryValue(data.toBytes());
-            store.setPayload(payload);
-            // TODO uncomment if storeR is added
-            // requestMap.put(randomID, new RequestCookie(node.getId(), System.currentTimeMillis(), -1));
-            outgoingChannel.add(store.toDatagram());
-            logger.info("send store to " + node.getId().toString(16));
+    private CompletableFuture<Boolean> publishDataAsync(Data data, int quorum) {
+        BigInteger keyHash;
+        try {
+            keyHash = data.getKeyHash();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
         }
-        return true;
+        return nodeLookupAsync(KademliaId.fromBigInteger(keyHash)).thenCompose(nodes -> {
+            if (nodes == null || nodes.size() == 0) {
+                logger.warning("Could not store message in the network");
+                return CompletableFuture.completedFuture(false);
+            }
+            ReplicationTask replication = new ReplicationTask(keyHash, data.toBytes(), nodes, quorum);
+            replication.start();
+            return replication.future;
+        });
     }
 
-    public BigInteger getOwnID() {
+    public KademliaId getOwnID() {
         return ownID;
     }
 
@@ -431,7 +556,7 @@ public class KademliaInstance implements Runnable{
             logger.info("starting main thread");
             this.running.set(true);
             this.mainThread.start();
-            backgroundTasks = new BackgroundTasks(kBuckets, requestMap, this::nodeLookup, ownID, outgoingChannel, this::publishData, ownData);
+            backgroundTasks = new BackgroundTasks(kBuckets, requestTracker, this::nodeLookup, ownID, outgoingChannel, this::publishDataAsync, ownData);
             return;
         }
         logger.info("start bootstrapping");
@@ -442,14 +567,14 @@ public class KademliaInstance implements Runnable{
         new Thread(() -> {
             try {
                 for (int tries = 0; tries < BOOTSTRAPPING_TRIES; tries++) {
-                    BigInteger randomID = bootstrappingPing(address, port);     // send ping
+                    RandomId randomID = bootstrappingPing(address, port);     // send ping
                     if (bootstrappingWait(randomID)) {                          // answer received?
                         // start main thread
                         logger.info("starting main thread");
                         this.running.set(true);
                         this.mainThread.start();
-                        backgroundTasks = new BackgroundTasks(kBuckets, requestMap, this::nodeLookup, ownID, outgoingChannel, this::publishData, ownData);
-                        nodeLookup(ownID);
+                        backgroundTasks = new BackgroundTasks(kBuckets, requestTracker, this::nodeLookup, ownID, outgoingChannel, this::publishDataAsync, ownData);
+                        nodeLookupAsync(ownID).join();
                         logger.info("bootstrapping finished");
                         break;
                     } else if (tries == BOOTSTRAPPING_TRIES-1) {
@@ -472,15 +597,15 @@ public class KademliaInstance implements Runnable{
      * @return randomId of the send ping
      * @throws Exception thrown by GenericMessage
      */
-    private BigInteger bootstrappingPing(InetAddress address, int port) throws Exception {
+    private RandomId bootstrappingPing(InetAddress address, int port) throws Exception {
         GenericMessage ping = new GenericMessage(null, -1, address, port);
         // send Ping to bootstrapping address (to get first kademlia id)
         ping.setSenderNodeID(ownID);
-        BigInteger randomId = Helper.getRandomID();
+        RandomId randomId = RandomId.random(random);
         ping.setRandomID(randomId);
         ping.setTypeHeader(MessageConstants.TYPE_PING);
-        outgoingChannel.add(ping.toDatagram());
-        logger.info("bootstrapping ping message send\nmsg: " + ping.getRandomID().toString() + "\nexpected: " + randomId.toString());
+        outgoingChannel.put(ping.toDatagram());
+        logger.info("bootstrapping ping message send\nmsg: " + ping.getRequestID() + "\nexpected: " + randomId);
         return randomId;
     }
 
@@ -492,32 +617,35 @@ public class KademliaInstance implements Runnable{
      * @return true if successful, false if timeout exceeded
      * @throws Exception thrown by GenericMessage
      */
-    private boolean bootstrappingWait(BigInteger randomId) throws Exception {
+    private boolean bootstrappingWait(RandomId randomId) throws Exception {
         long end = System.currentTimeMillis() + BOOTSTRAPPING_TIMEOUT;
 
         // wait for (correct) response
-        while (System.currentTimeMillis() < end) {
-            if (!incomingChannel.isEmpty()) {
+        long remaining;
+        while ((remaining = end - System.currentTimeMillis()) > 0) {
+            Datagram response = incomingChannel.poll(remaining, TimeUnit.MILLISECONDS);
+            if (response != null) {
                 logger.info("received reply");
                 // handle pong
                 GenericMessage pong = new GenericMessage();
-                DatagramPacket response = incomingChannel.poll();
-                assert (response != null);
-                pong.fromDatagramPacket(response);
-                if (pong.getTypeHeader().byteValueExact() != MessageConstants.TYPE_PONG) {
+                try {
+                    pong.fromDatagram(response);
+                } finally {
+                    response.release();
+                }
+                if (pong.getType() != MessageConstants.TYPE_PONG) {
                     logger.warning("no pong!");
                     continue;
                 }
-                if (!pong.getRandomID().equals(randomId)) {
-                    logger.warning("wrong randomID\nis: " + pong.getRandomID().toString() + "\nexpected: " + randomId.toString());
+                if (!pong.getRequestID().equals(randomId)) {
+                    logger.warning("wrong randomID\nis: " + pong.getRequestID() + "\nexpected: " + randomId);
                     continue;
                 }
                 // add node to kBuckets
-                kBuckets.update(new KademliaNode(pong.getSenderNodeID(), pong.getSenderIP(), pong.getSenderPort()), System.currentTimeMillis());
+                kBuckets.update(new KademliaNode(pong.getSenderID(), pong.getSenderIP(), pong.getSenderPort()), System.currentTimeMillis());
                 logger.info("pong received");
                 return true;
             }
-            Thread.sleep(100);
         }
 
         // no response received until timeout
@@ -534,275 +662,114 @@ public class KademliaInstance implements Runnable{
      * @param id reference node to find closest nodes
      * @return list of the k closest nodes
      */
-    private List<KademliaNode> nodeLookup(BigInteger id) throws Exception {
-        logger.info("nodeLookup(" + id.toString(16) + ")");
-        kBuckets.nodeLookupPerformed(id);
-        // create lookup id (to be able to forward incoming replies to the correct node-/valueLookup
-        long lookupId;
-        BlockingQueue<GenericMessage> channel = new LinkedBlockingDeque<>();
-        do {
-            lookupId = random.nextLong();
-        } while (lookupChannels.putIfAbsent(lookupId, channel) != null);
-
-        // initialize list of closest nodes (and status)
-        // status{ 0->new; >0-> asked (number corresponds to ask-time); -1->answered }
-        Map<KademliaNode, Long> closest = new TreeMap<>(DistanceComparator.getCompareKademliaDistances(id));
-        var tmp = kBuckets.lookup(id, K);
-        if (tmp.size() == 0) {
-            logger.warning("lookup ended as kBuckets are empty");
-            return new ArrayList<>();
-        }
-        for (var elem : tmp) closest.put(elem, (long) 0);
-
-        // recursive until closest k nodes responded:
-        while (true) {
-            // send FindNode/FindValue to alpha closest (not yet queried) nodes from list
-            var iterator = closest.entrySet().iterator();
-            int send = 0;
-            while (send < ALPHA && iterator.hasNext()) {
-                Map.Entry<KademliaNode, Long> next = iterator.next();
-                if (next.getValue() == 0) {
-                    GenericMessage findNode = new GenericMessage(null, -1, next.getKey().getAddress(), next.getKey().getPort());
-                    findNode.setTypeHeader(MessageConstants.TYPE_FINDNODE);
-                    BigInteger randomID = Helper.getRandomID();
-                    findNode.setRandomID(randomID);
-                    findNode.setSenderNodeID(ownID);
-                    NodeID nodeID = new NodeID(id);
-                    findNode.setPayload(nodeID);
-                    // register message for own lookupChannel
-                    requestMap.put(randomID, new RequestCookie(next.getKey().getId(), System.currentTimeMillis(), lookupId));
-                    outgoingChannel.add(findNode.toDatagram());
-                    //System.out.println(Arrays.toString(findNode.toDatagram().getData()));
-                    closest.put(next.getKey(), System.currentTimeMillis());   // change status to asked
-                    send++;
-                    logger.info("send findNode to " + next.getKey().getId().toString(16));
-                }
-            }
-
-            // wait for incoming replies (TIMEOUT -> continue, edge case all queried)
-            GenericMessage next = channel.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
-            if (next == null) {
-                // timeout exceeded -> send further messages
-                logger.warning("no reply received (timeout)");
-            } else {
-
-                // mark as answered
-                closest.put(new KademliaNode(next.getSenderNodeID(), next.getSenderIP(), next.getSenderPort()), (long) -1);
-                logger.info("received response " + next.getSenderNodeID().toString(16));
-
-                // get received nodes
-                Tuples payload = (Tuples) next.getPayload();
-                Tuples.Tuple[] tuples;
-                if (payload == null) {
-                    tuples = new Tuples.Tuple[0];
-                    logger.warning("received 0 nodes");
-                } else {
-                    tuples = payload.getTuplesAsArray();
-                    logger.warning("received " + tuples.length + " nodes");
-                }
-
-                // transforms array of Tuples to list of KademliaNodes
-                var nodeList = Arrays.stream(tuples.clone()).map(t -> new KademliaNode(t.getNodeID().getNodeID(), t.getIpAddress(), t.getPort())).collect(Collectors.toList());
-
-                for (KademliaNode node : nodeList) {
-                    if (node.getId().equals(ownID)) continue;   // skip own id
-                    // send ping -> node is only added, if it answers (only if not already known)
-                    pingAndAddToKBuckets(node);
-                    // add to closest (if not present)
-                    closest.putIfAbsent(node, (long) 0);
-                    logger.info("added to closest: " + node.getId().toString(16));
-                }
-            }
-
-            // remove 'silent' nodes from list
-            long time = System.currentTimeMillis();
-            int count = 0;
-            var removeIterator = closest.entrySet().iterator();
-            while (removeIterator.hasNext()) {
-                var entry = removeIterator.next();
-                long entryVal = entry.getValue();
-                if (entryVal > 0 && time > entryVal+REQUEST_TIMEOUT) {  // Request unanswered -> remove
-                    removeIterator.remove();
-                    count++;
-                }
-            }
-            logger.info("removed " + count + " silent nodes");
-
-            // TODO remove elements if list is very long (e.g. 10*K)?
-
-            // check recursion end
-            iterator = closest.entrySet().iterator();
-            boolean allAnswered = true;
-            for (int i = 0; i < K && iterator.hasNext(); i++) {
-                if (iterator.next().getValue() != -1) {
-                    // one of the closest K nodes has not answered yet
-                    allAnswered = false;
-                    break;
-                }
-            }
-            if (allAnswered) {
-                // closest K nodes answered -> finish
-                logger.info("K closest nodes answered -> nodeLookup finished");
-                break;
-            }
-        }
-
-        kBuckets.nodeLookupPerformed(id);
-        lookupChannels.remove(lookupId);
-        // collects first (closest) K entries of 'closest' and returns their keys
-        return closest.entrySet().stream().limit(K).map(Map.Entry::getKey).collect(Collectors.toList());
+    private List<KademliaNode> nodeLookup(KademliaId id) throws Exception {
+        return nodeLookupAsync(id).get();
     }
 
     /**
-     * Find value for the specified key
+     * Find the k closest to id nodes in the network without blocking
      * cf. 2.2 Kademlia protocol
      *
-     * !!!WARNING: Will block for possibly a really long time!!!
-     * !!!only call from asynchronous context!!!
+     * @param id reference node to find closest nodes
+     * @return future completed with the list of the k closest nodes
+     */
+    public CompletableFuture<List<KademliaNode>> nodeLookupAsync(KademliaId id) {
+        logger.info("nodeLookup(" + id + ")");
+        return startLookup(id, MessageConstants.TYPE_FINDNODE, TerminationPolicy.closestAnswered())
+                .thenApply(LookupTask::getNodes);
+    }
+
+    /**
+     * Find value for the specified key without blocking
+     * cf. 2.2 Kademlia protocol
      *
      * @param key (hash)key of the desired value
-     * @return value for that key (or null if not found)
-     */
-    private Data valueLookup(BigInteger key) throws Exception {
-        logger.info("valueLookup(" + key.toString(16) + ")");
-        kBuckets.nodeLookupPerformed(key);
-        // create lookup id (to be able to forward incoming replies to the correct node-/valueLookup
-        long lookupId;
-        BlockingQueue<GenericMessage> channel = new LinkedBlockingDeque<>();
-        do {
-            lookupId = random.nextLong();
-        } while (lookupChannels.putIfAbsent(lookupId, channel) != null);
-
-        // initialize list of closest nodes (and status)
-        // status{ 0->new; >0-> asked (number corresponds to ask-time); -1->answered }
-        Map<KademliaNode, Long> closest = new TreeMap<>(DistanceComparator.getCompareKademliaDistances(key));
-        var tmp = kBuckets.lookup(key, K);
-        if (tmp.size() == 0) {
+     * @param policy decides when the lookup finishes
+     * @return future completed with the newest value received for that key (or null if not found)
+     */
+    private CompletableFuture<Data> valueLookupAsync(KademliaId key, TerminationPolicy policy) {
+        logger.info("valueLookup(" + key + ")");
+        return startLookup(key, MessageConstants.TYPE_FINDVALUE, policy).thenApply(LookupTask::getValue);
+    }
+
+    /**
+     * Create and start a lookup
+     *
+     * @param target searched id
+     * @param requestType TYPE_FINDNODE or TYPE_FINDVALUE
+     * @param policy decides when the lookup finishes
+     * @return future completed with the finished lookup
+     */
+    private CompletableFuture<LookupTask> startLookup(KademliaId target, byte requestType, TerminationPolicy policy) {
+        kBuckets.nodeLookupPerformed(target);
+        var initial = kBuckets.lookup(target, K);
+        LookupTask task = new LookupTask(target, requestType, policy, initial);
+        if (initial.size() == 0) {
             logger.warning("lookup ended as kBuckets are empty");
-            return null;
-        }
-        for (var elem : tmp) closest.put(elem, (long) 0);
-
-        Data currentData = null;
-
-        // recursive until closest k nodes responded:
-        while (true) {
-            // send FindNode/FindValue to alpha closest (not yet queried) nodes from list
-            var iterator = closest.entrySet().iterator();
-            int send = 0;
-            while (send < ALPHA && iterator.hasNext()) {
-                Map.Entry<KademliaNode, Long> next = iterator.next();
-                if (next.getValue() == 0) {
-                    GenericMessage findValue = new GenericMessage(null, -1, next.getKey().getAddress(), next.getKey().getPort());
-                    findValue.setTypeHeader(MessageConstants.TYPE_FINDVALUE);
-                    BigInteger randomID = Helper.getRandomID();
-                    findValue.setRandomID(randomID);
-                    findValue.setSenderNodeID(ownID);
-                    NodeID nodeID = new NodeID(key);
-                    findValue.setPayload(nodeID);
-                    // register message for own lookupChannel
-                    requestMap.put(randomID, new RequestCookie(next.getKey().getId(), System.currentTimeMillis(), lookupId));
-                    outgoingChannel.add(findValue.toDatagram());
-                    //System.out.println(Arrays.toString(findNode.toDatagram().getData()));
-                    closest.put(next.getKey(), System.currentTimeMillis());   // change status to asked
-                    send++;
-                    logger.info("send findValue to " + next.getKey().getId().toString(16));
-                }
-            }
+            task.finish();
+        } else {
+            task.step();
+        }
+        return task.future;
+    }
 
-            // wait for incoming replies (TIMEOUT -> continue, edge case all queried)
-            GenericMessage next = channel.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
-            if (next == null) {
-                // timeout exceeded -> send further messages
-                logger.warning("no reply received (timeout)");
-            } else {
-                // mark as answered
-                closest.put(new KademliaNode(next.getSenderNodeID(), next.getSenderIP(), next.getSenderPort()), (long) -1);
-                logger.info("received response " + next.getSenderNodeID().toString(16));
-
-                // get message type
-                switch (next.getTypeHeader().byteValueExact()) {
-                    case MessageConstants.TYPE_FINDNODE_R -> {
-                        // get received nodes
-                        Tuples payload = (Tuples) next.getPayload();
-                        Tuples.Tuple[] tuples;
-                        if (payload == null) {
-                            tuples = new Tuples.Tuple[0];
-                            logger.warning("received 0 nodes");
-                        } else {
-                            tuples = payload.getTuplesAsArray();
-                            logger.warning("received " + tuples.length + " nodes");
-                        }
-
-                        // transforms array of Tuples to list of KademliaNodes
-                        var nodeList = Arrays.stream(tuples.clone()).map(t -> new KademliaNode(t.getNodeID().getNodeID(), t.getIpAddress(), t.getPort())).collect(Collectors.toList());
-
-                        for (KademliaNode node : nodeList) {
-                            if (node.getId().equals(ownID)) continue;   // skip own id
-                            // send ping -> node is only added, if it answers (only send ping if not already known)
-                            pingAndAddToKBuckets(node);
-                            // add to closest (if not present)
-                            closest.putIfAbsent(node, (long) 0);
-                            logger.info("added to closest: " + node.getId().toString(16));
-                        }
-                    }
-                    case MessageConstants.TYPE_FINDVALUE_R -> {
-                        EntryValue entryValue = (EntryValue) next.getPayload();
-                        byte[] tmpValue = entryValue.getEntryValue();
-                        if (tmpValue != null) {
-                            // deserialize newData
-                            Data newData = new Data(tmpValue);
-                            // check signature
-                            if (Crypto.verify(newData.getPage().toBytes(), newData.getSignature(), Helper.getPublicKeyFromBytes(newData.getPublicKey()))) {
-                                // check correct key
-                                if (newData.getKeyHash().equals(key)) {
-                                    // check if newer
-                                    if (currentData == null || currentData.compareDate(newData) < 0) {
-                                        currentData = newData;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+    /**
+     * Send a FindNode/FindValue request of a lookup
+     *
+     * @param node receiver
+     * @param type TYPE_FINDNODE or TYPE_FINDVALUE
+     * @param target searched id
+     * @param lookupId channel id of the lookup
+     * @throws Exception thrown by GenericMessage
+     */
+    private void sendLookupRequest(KademliaNode node, byte type, KademliaId target, long lookupId) throws Exception {
+        GenericMessage request = new GenericMessage(null, -1, node.getAddress(), node.getPort());
+        request.setTypeHeader(type);
+        // register message for own lookup
+        request.setRandomID(requestTracker.register(node.getId(), lookupId).randomID);
+        request.setSenderNodeID(ownID);
+        request.setPayload(new NodeID(target));
+        send(request);
+        logger.info("send lookup request to " + node.getId());
+    }
 
-            // remove 'silent' nodes from list
-            long time = System.currentTimeMillis();
-            int count = 0;
-            var removeIterator = closest.entrySet().iterator();
-            while (removeIterator.hasNext()) {
-                var entry = removeIterator.next();
-                long entryVal = entry.getValue();
-                if (entryVal > 0 && time > entryVal+REQUEST_TIMEOUT) {  // Request unanswered -> remove
-                    removeIterator.remove();
-                    count++;
-                }
-            }
-            logger.info("removed " + count + " silent nodes");
-
-            // TODO remove elements if list is very long (e.g. 10*K)?
-
-            // check recursion end
-            iterator = closest.entrySet().iterator();
-            boolean allAnswered = true;
-            for (int i = 0; i < K && iterator.hasNext(); i++) {
-                if (iterator.next().getValue() != -1) {
-                    // one of the closest K nodes has not answered yet
-                    allAnswered = false;
-                    break;
-                }
-            }
-            if (allAnswered) {
-                // closest K nodes answered -> finish
-                logger.info("K closest nodes answered -> nodeLookup finished");
-                break;
-            }
+    /**
+     * Extract the nodes of a FindNodeR reply
+     * Unknown nodes are pinged (and added to the kBuckets if they answer)
+     *
+     * @param reply FindNodeR message
+     * @return received nodes
+     */
+    private List<KademliaNode> receivedContacts(GenericMessage reply) {
+        Tuples payload = (Tuples) reply.getPayload();
+        if (payload == null) {
+            logger.warning("received 0 nodes");
+            return List.of();
+        }
+        Tuples.Tuple[] tuples = payload.getTuplesAsArray();
+        logger.info("received " + tuples.length + " nodes");
+        List<KademliaNode> nodeList = new ArrayList<>(tuples.length);
+        for (Tuples.Tuple t : tuples) {
+            KademliaNode node = new KademliaNode(t.getNodeID().getKademliaID(), t.getIpAddress(), t.getPort());
+            if (node.getId().equals(ownID)) continue;   // skip own id
+            // send ping -> node is only added, if it answers (only if not already known)
+            pingAndAddToKBuckets(node);
+            nodeList.add(node);
         }
+        return nodeList;
+    }
 
-        kBuckets.nodeLookupPerformed(key);
-        lookupChannels.remove(lookupId);
-        return currentData;
+    /**
+     * Time in millis to wait for the next reply of the lookup (until its next request timeout)
+     *
+     * @param lookup running lookup
+     * @param now current time in millis
+     * @return time to wait [1, POLL_TIMEOUT]
+     */
+    private static long lookupWait(IterativeLookup lookup, long now) {
+        long deadline = lookup.nextDeadline();
+        if (deadline < 0) return POLL_TIMEOUT;
+        return Math.max(1, Math.min(POLL_TIMEOUT, deadline - now));
     }
 
     /**
@@ -825,30 +792,31 @@ public class KademliaInstance implements Runnable{
         try {
             GenericMessage ping = new GenericMessage(null, -1, node.getAddress(), node.getPort());
             ping.setTypeHeader(MessageConstants.TYPE_PING);
-            BigInteger randomID = Helper.getRandomID();
-            ping.setRandomID(randomID);
+            ping.setRandomID(requestTracker.register(node.getId(), -1).randomID);
             ping.setSenderNodeID(ownID);
-            // register message for own lookupChannel
-            requestMap.put(randomID, new KademliaInstance.RequestCookie(node.getId(), System.currentTimeMillis(),
-                    -1));
-            outgoingChannel.add(ping.toDatagram());
+            outgoingChannel.put(ping.toDatagram());
         } catch (Exception e) {
             logger.warning("send ping failed\n" + e.getMessage());
         }
     }
 
     /**
-     * Checks if the reply answers a prior request
+     * A request was not answered in time (executed by the timer thread)
+     * The receiver is replaced in the kBuckets (if a replacement is waiting),
+     * a waiting lookup is notified directly
      *
-     * @param otherID KademliaId of the replying node
-     * @param randomID RandomId of the reply
-     * @return the corresponding RequestCookie if a prior request, null otherwise
+     * @param request unanswered request
      */
-    private RequestCookie checkRandomID(BigInteger otherID, BigInteger randomID) {
-        RequestCookie cookie = requestMap.remove(randomID);
-        if (cookie == null) return null;
-        if (!cookie.nodeID.equals(otherID)) return null;
-        return cookie;
+    private void requestExpired(RequestTracker.Request request) {
+        kBuckets.pingExpired(request.receiver);
+        if (request.lookupId == -1) return;
+        LookupTask lookup = lookups.get(request.lookupId);
+        if (lookup != null) {
+            lookup.onTimeout(request.receiver);
+            return;
+        }
+        ReplicationTask replication = replications.get(request.lookupId);
+        if (replication != null) replication.onTimeout(request.receiver);
     }
 
     /**
@@ -865,35 +833,264 @@ public class KademliaInstance implements Runnable{
         NodeID payloadReq = (NodeID) request.getPayload();
         if (payloadReq == null) return null;
 
-        Data value = localHashTable.load(payloadReq.getNodeID());
-        GenericMessage reply = new GenericMessage(null, -1, request.getSenderIP(), request.getSenderPort());
-        reply.setRandomID(request.getRandomID());
+        // serialized value is sent straight from the stored record (no decoding, no intermediate copies)
+        ByteBuffer value = localHashTable.loadSerialized(payloadReq.getNodeID());
+        GenericMessage reply = GenericMessage.replyTo(request);
         reply.setSenderNodeID(ownID);
         if (value == null) {    // value not available  -> FindNodeR
             logger.info("value not available -> answer findNodeR");
             reply.setTypeHeader(MessageConstants.TYPE_FINDNODE_R);
-            List<KademliaNode> list = kBuckets.lookup(payloadReq.getNodeID(), K);
+            List<KademliaNode> list = kBuckets.lookup(payloadReq.getKademliaID(), K);
             Tuples payloadRes = new Tuples();
             for (var elem : list) payloadRes.addTuple(elem.getPort(), elem.getAddress(), new NodeID(elem.getId()));
             reply.setPayload(payloadRes);
         } else {                // value available      -> FindValueR
             logger.info("value available -> answer findValueR");
             reply.setTypeHeader(MessageConstants.TYPE_FINDVALUE_R);
-            EntryValue payloadRes = new EntryValue(true, value.toBytes());
+            EntryValue payloadRes = new EntryValue(true, value);
             reply.setPayload(payloadRes);
         }
         return reply;
     }
 
-    public static class RequestCookie {
-        public BigInteger nodeID;
-        public long sendTime;
-        public long lookupChanelID;
+    /**
+     * A running node-/valueLookup (one core for both, they only differ in the request type)
+     * Driven by incoming replies (dispatcher workers) and request timeouts (timer thread),
+     * no thread waits for a lookup to finish
+     * Finishes when the k closest nodes answered or earlier if the TerminationPolicy decides so
+     */
+    private class LookupTask {
+        private final long lookupId;
+        private final byte requestType;
+        private final IterativeLookup lookup;
+        private final CompletableFuture<LookupTask> future;
+        private TimerWheel.Timeout timeout;
+
+        /**
+         * Create lookup and register it for incoming replies
+         *
+         * @param target searched id
+         * @param requestType TYPE_FINDNODE or TYPE_FINDVALUE
+         * @param policy decides when the lookup finishes
+         * @param initial initial nodes (from own kBuckets)
+         */
+        private LookupTask(KademliaId target, byte requestType, TerminationPolicy policy, List<KademliaNode> initial) {
+            this.requestType = requestType;
+            this.lookup = new IterativeLookup(target, ownID, K, ALPHA, MAX_ALPHA, initial, policy);
+            this.future = new CompletableFuture<>();
+            this.timeout = null;
+            this.lookupId = taskIds.getAndIncrement();
+            lookups.put(lookupId, this);
+        }
+
+        /**
+         * Expire timed out requests, refill the request window and schedule the next timeout
+         * Finishes the lookup if the k closest nodes answered (or the policy ends it)
+         */
+        private synchronized void step() {
+            if (future.isDone()) return;
+            long now = System.currentTimeMillis();
+            lookup.expire(now);
+            if (lookup.isFinished()) {
+                logger.info("K closest nodes answered -> lookup finished");
+                finish();
+                return;
+            }
+            long remaining = lookup.remaining(now);
+            if (remaining == 0) {
+                logger.info("terminated by policy -> lookup finished");
+                finish();
+                return;
+            }
+            try {
+                for (KademliaNode node : lookup.nextRequests(now)) {
+                    sendLookupRequest(node, requestType, lookup.getTarget(), lookupId);
+                }
+            } catch (Exception e) {
+                lookups.remove(lookupId);
+                future.completeExceptionally(e);
+                return;
+            }
+            long wait = lookupWait(lookup, now);
+            if (remaining != TerminationPolicy.UNLIMITED) wait = Math.min(wait, remaining);
+            if (timeout != null) timeout.cancel();
+            timeout = timer.schedule(this::step, wait);
+        }
+
+        /**
+         * Handle a reply (FindNodeR or FindValueR) of this lookup
+         *
+         * @param msg reply
+         */
+        private void onReply(GenericMessage msg) {
+            logger.info("received response " + msg.getSenderID());
+            KademliaNode sender = new KademliaNode(msg.getSenderID(), msg.getSenderIP(), msg.getSenderPort());
+            List<KademliaNode> contacts = List.of();
+            Data newData = null;
+            switch (msg.getType()) {
+                case MessageConstants.TYPE_FINDNODE_R -> contacts = receivedContacts(msg);
+                case MessageConstants.TYPE_FINDVALUE_R -> newData = verifiedValue(msg);
+            }
+            synchronized (this) {
+                if (future.isDone()) return;
+                long now = System.currentTimeMillis();
+                // kept if newer
+                if (newData != null) lookup.onValue(newData, now);
+                lookup.onReply(sender, contacts, now);
+                step();
+            }
+        }
+
+        /**
+         * Deserialize and verify the value of a FindValueR reply
+         *
+         * @param msg FindValueR message
+         * @return value or null if missing or invalid
+         */
+        private Data verifiedValue(GenericMessage msg) {
+            EntryValue entryValue = (EntryValue) msg.getPayload();
+            byte[] tmpValue = entryValue.getEntryValue();
+            if (tmpValue == null) return null;
+            try {
+                Data newData = new Data(tmpValue);
+                // check signature
+                if (!SignatureCache.SHARED.verify(newData.getPage().toBytes(), newData.getSignature(), newData.getPublicKey())) return null;
+                // check correct key
+                if (!KademliaId.fromBigInteger(newData.getKeyHash()).equals(lookup.getTarget())) return null;
+                return newData;
+            } catch (Exception e) {
+                logger.warning("invalid value received\n" + e.getMessage());
+                return null;
+            }
+        }
+
+        private synchronized void finish() {
+            if (timeout != null) timeout.cancel();
+            lookups.remove(lookupId);
+            kBuckets.nodeLookupPerformed(lookup.getTarget());
+            future.complete(this);
+        }
+
+        /**
+         * A request of this lookup finally timed out, the node is dropped and its slot refilled
+         *
+         * @param id id of the unresponsive node
+         */
+        private synchronized void onTimeout(KademliaId id) {
+            if (future.isDone()) return;
+            if (lookup.onTimeout(id)) step();
+        }
+
+        private List<KademliaNode> getNodes() {
+            return lookup.result();
+        }
+
+        private Data getValue() {
+            return lookup.getValue();
+        }
+    }
+
+    /**
+     * A running replication of a value to the k closest nodes
+     * All STOREs are sent at once, every replica acknowledges with a StoreR (registered at the requestTracker),
+     * unanswered STOREs are resent (only to that replica) up to STORE_RETRIES times
+     * The future completes as soon as quorum replicas acknowledged (or too many failed),
+     * the remaining replicas are still served afterwards
+     */
+    private class ReplicationTask {
+        private final long replicationId;
+        private final BigInteger key;
+        private final byte[] value;
+        private final Map<KademliaId, KademliaNode> nodes;
+        // guarded by this
+        private final Replication replication;
+        private final CompletableFuture<Boolean> future;
+
+        /**
+         * Create replication and register it for incoming StoreRs
+         *
+         * @param key key of the value
+         * @param value serialized data
+         * @param replicas nodes the value is stored at
+         * @param quorum number of acknowledgements needed (bounded by the number of replicas)
+         */
+        private ReplicationTask(BigInteger key, byte[] value, List<KademliaNode> replicas, int quorum) {
+            this.key = key;
+            this.value = value;
+            this.nodes = new HashMap<>();
+            for (KademliaNode node : replicas) nodes.put(node.getId(), node);
+            this.replication = new Replication(new ArrayList<>(nodes.keySet()), quorum, STORE_RETRIES);
+            this.future = new CompletableFuture<>();
+            this.replicationId = taskIds.getAndIncrement();
+            replications.put(replicationId, this);
+        }
+
+        /**
+         * Send the STOREs to all replicas
+         */
+        private synchronized void start() {
+            for (KademliaId id : replication.start()) sendStore(nodes.get(id));
+            check();
+        }
+
+        /**
+         * Handle the StoreR of a replica
+         *
+         * @param id id of the replica
+         * @param stored true if the replica stored the value (or a newer one)
+         */
+        private synchronized void onStatus(KademliaId id, boolean stored) {
+            if (replication.onStatus(id, stored)) check();
+        }
+
+        /**
+         * A STORE was not acknowledged in time, resend it (or give the replica up)
+         *
+         * @param id id of the replica
+         */
+        private synchronized void onTimeout(KademliaId id) {
+            if (replication.onTimeout(id)) sendStore(nodes.get(id));
+            else check();
+        }
+
+        /**
+         * The chunked transfer of a STORE ended, the acknowledgement timeout starts now
+         * (a failed transfer is handled like an unanswered STORE once the timeout expires)
+         */
+        private synchronized void onTransferred(KademliaId id, RequestTracker.Request request) {
+            replication.transferEnded(id);
+            requestTracker.start(request);
+        }
+
+        private void sendStore(KademliaNode node) {
+            try {
+                GenericMessage store = new GenericMessage(null, -1, node.getAddress(), node.getPort());
+                store.setTypeHeader(MessageConstants.TYPE_STORE_ENTRYKEY);
+                store.setSenderNodeID(ownID);
+                EntryKey payload = new EntryKey(key);
+                payload.setEntryValue(value);
+                store.setPayload(payload);
+                if (ChunkedTransfer.needsChunking(store)) {
+                    // the receiver verifies only after the last chunk -> wait for StoreR from then on,
+                    // the replica is not resent to while its transfer is running
+                    RequestTracker.Request request = requestTracker.reserve(node.getId(), replicationId);
+                    store.setRandomID(request.randomID);
+                    replication.transferStarted(node.getId());
+                    transfers.send(store).whenComplete((done, e) -> onTransferred(node.getId(), request));
+                } else {
+                    store.setRandomID(requestTracker.register(node.getId(), replicationId).randomID);
+                    coalescer.send(store);
+                }
+                logger.info("send store to " + node.getId());
+            } catch (Exception e) {
+                logger.warning("send store failed\n" + e.getMessage());
+            }
+        }
 
-        public RequestCookie(BigInteger nodeID, long sendTime, long lookupChanelID) {
-            this.nodeID = nodeID;
-            this.sendTime = sendTime;
-            this.lookupChanelID = lookupChanelID;
+        private void check() {
+            Boolean result = replication.result();
+            if (result != null && !future.isDone()) future.complete(result);
+            if (replication.isFinished()) replications.remove(replicationId);
         }
     }
 }
@@ -4,17 +4,21 @@ import java.math.BigInteger;
 import java.net.InetAddress;
 
 public class KademliaNode {
-    private final BigInteger id;
+    private final KademliaId id;
     private final InetAddress address;
     private final int port;
 
-    public KademliaNode(BigInteger id, InetAddress address, int port) {
+    public KademliaNode(KademliaId id, InetAddress address, int port) {
         this.id = id;
         this.address = address;
         this.port = port;
     }
 
-    public BigInteger getId() {
+    public KademliaNode(BigInteger id, InetAddress address, int port) {
+        this(KademliaId.fromBigInteger(id), address, port);
+    }
+
+    public KademliaId getId() {
         return id;
     }
 
@@ -1,11 +1,11 @@
 package huberlin.p2projekt21.kademlia;
 
-import huberlin.p2projekt21.Helper;
-import huberlin.p2projekt21.crypto.Crypto;
+import huberlin.p2projekt21.crypto.SignatureCache;
 import huberlin.p2projekt21.storage.Storage;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
@@ -19,11 +19,49 @@ import java.util.concurrent.ConcurrentHashMap;
  * Furthermore it is used to allow different instances to run independently with different data-elements stored.
  */
 public class LocalHashTable {
+    // number of locks serializing store/load per key (stores are handled by several workers)
+    public static final int LOCK_STRIPES = 64;
+    // byte budget of the hot-page cache
+    public static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024;
 
     private final Map<BigInteger, Long> localStorage;
+    private final Object[] locks;
+    // recently loaded pages (null if disabled)
+    private final PageCache cache;
 
     public LocalHashTable() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Create new table
+     *
+     * @param cacheSize byte budget of the hot-page cache (0 -> no cache)
+     */
+    public LocalHashTable(long cacheSize) {
         localStorage = new ConcurrentHashMap<>();
+        locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) locks[i] = new Object();
+        cache = cacheSize > 0 ? new PageCache(cacheSize) : null;
+    }
+
+    /**
+     * Get the hot-page cache (for its statistics)
+     *
+     * @return cache or null if disabled
+     */
+    public PageCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Get the lock responsible for the given key
+     *
+     * @param key key of the data
+     * @return lock object
+     */
+    private Object lockFor(BigInteger key) {
+        return locks[Math.floorMod(key.hashCode(), LOCK_STRIPES)];
     }
 
     /**
@@ -33,40 +71,84 @@ public class LocalHashTable {
      * @return Data object or null if not found
      */
     public Data load(BigInteger key) {
-        if (localStorage.containsKey(key)) {
-            try {
-                byte[][] tmp = Storage.read(key);
-                return new Data(tmp);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
-                return null;
+        if (!localStorage.containsKey(key)) return null;
+        if (cache != null) {
+            PageCache.Entry entry = cache.get(key);
+            if (entry != null) return entry.getData();
+        }
+        try {
+            synchronized (lockFor(key)) {
+                if (cache == null) return new Data(Storage.read(key));
+                ByteBuffer serialized = Storage.readSerialized(key);
+                if (serialized == null) return null;
+                byte[] bytes = new byte[serialized.remaining()];
+                serialized.duplicate().get(bytes);
+                Data data = new Data(bytes);
+                cache.put(key, data.page.getTimeStamp(), serialized, data);
+                return data;
             }
+        } catch (IOException | NullPointerException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Loads the data for the given key in its serialized form (as sent in FindValueR)
+     * The buffer is a read-only view of the stored record (or cached copy), the data is not copied or decoded
+     *
+     * @param key key of the desired data
+     * @return serialized data or null if not found
+     */
+    public ByteBuffer loadSerialized(BigInteger key) {
+        if (!localStorage.containsKey(key)) return null;
+        if (cache != null) {
+            PageCache.Entry entry = cache.get(key);
+            if (entry != null) return entry.getSerialized();
+        }
+        try {
+            synchronized (lockFor(key)) {
+                ByteBuffer serialized = Storage.readSerialized(key);
+                if (serialized != null && cache != null) {
+                    cache.put(key, Data.getTimeStamp(serialized), serialized, null);
+                }
+                return serialized;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
         }
-        return null;
     }
 
     /**
      * Stores the given data if the signature is correct and no newer version is already stored
+     * (an already stored newer version is no error)
+     * The signature is checked without holding a lock, only the check for newer versions and the write are serialized
      *
      * @param data data to be stored
      * @throws IOException .
      * @throws InvalidKeySpecException .
      * @throws NoSuchAlgorithmException .
-     * @throws SignatureException .
+     * @throws SignatureException if the signature is wrong
      * @throws InvalidKeyException .
      */
     public void store(Data data) throws IOException, InvalidKeySpecException, NoSuchAlgorithmException, SignatureException, InvalidKeyException {
-        if (!Crypto.verify(data.getPage().toBytes(), data.getSignature(), Helper.getPublicKeyFromBytes(data.getPublicKey()))) {
-            // signature is wrong
-            return;
+        // identical (republished/replicated) pages are only verified once
+        if (!SignatureCache.SHARED.verify(data.getPage().toBytes(), data.getSignature(), data.getPublicKey())) {
+            throw new SignatureException("invalid signature");
         }
-        Long time = localStorage.get(data.getKeyHash());
-        if (time != null && time >= data.page.getTimeStamp()) {
-            // stored one is newer
-            return;
+        BigInteger key = data.getKeyHash();
+        synchronized (lockFor(key)) {
+            Long time = localStorage.get(key);
+            if (time != null && time >= data.page.getTimeStamp()) {
+                // stored one is newer
+                return;
+            }
+            localStorage.put(key, data.page.getTimeStamp());
+            Storage.store(key, data.getPage().toSerialized(), data.getSignature(), data.getPublicKey());
+            // cache is filled under the same lock -> no older version can be cached afterwards
+            if (cache != null) cache.invalidate(key, data.page.getTimeStamp());
         }
-        localStorage.put(data.getKeyHash(), data.page.getTimeStamp());
-        Storage.store(data.getKeyHash(), data.getPage().toBytes(), data.getSignature(), data.getPublicKey());
     }
 
 }
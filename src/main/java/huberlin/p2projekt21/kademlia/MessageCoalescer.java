@@ -0,0 +1,232 @@
+package huberlin.p2projekt21.kademlia;
+
+import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
+import huberlin.p2projekt21.datagrams.messages.Batch;
+import huberlin.p2projekt21.datagrams.messages.GenericMessage;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Groups small per-key messages (FINDVALUE, STORE, STORE_STATUS) headed for the same peer into one TYPE_BATCH datagram
+ *
+ * A message to an idle peer is sent immediately and opens a window of FLUSH_DELAY, further messages of the same type
+ * to that peer are collected and sent as one batch when the window ends (or once the batch is full).
+ * The window stays open as long as messages keep arriving, so single requests are not delayed
+ * while bursts (publishing many pages to overlapping closest nodes) share datagrams.
+ * Every entry keeps its own randomID, the receiver handles the entries as separate messages (see unpack)
+ */
+public class MessageCoalescer {
+    // time in millis messages to a recently used peer are collected
+    public static final long FLUSH_DELAY = TimerWheel.TICK;
+    // max size of a batch datagram (serialized)
+    public static final int MAX_BATCH_SIZE = ChunkedTransfer.MAX_UNCHUNKED;
+
+    private final TimerWheel timer;
+    private final ChunkedTransfer.SendMethod sendMethod;
+    private final ChunkedTransfer.SendMethod timerSendMethod;
+    // guarded by itself
+    private final Map<BatchKey, Window> windows;
+    private final AtomicLong batches;
+    private final AtomicLong coalesced;
+    private final Logger logger;
+
+    /**
+     * Create new coalescer
+     *
+     * @param timer timer flushing the collected messages
+     * @param sendMethod sends a single datagram (may block)
+     * @param timerSendMethod sends a single datagram without blocking (used for all sends on the timer thread)
+     */
+    public MessageCoalescer(TimerWheel timer, ChunkedTransfer.SendMethod sendMethod,
+                            ChunkedTransfer.SendMethod timerSendMethod) {
+        this.timer = timer;
+        this.sendMethod = sendMethod;
+        this.timerSendMethod = timerSendMethod;
+        this.windows = new HashMap<>();
+        this.batches = new AtomicLong(0);
+        this.coalesced = new AtomicLong(0);
+        this.logger = Logger.getGlobal();
+    }
+
+    /**
+     * Checks if messages of the given type may be sent in a batch
+     *
+     * @param type message type
+     * @return true for FINDVALUE, STORE and STORE_STATUS
+     */
+    public static boolean isBatchable(byte type) {
+        return Batch.isBatchable(type);
+    }
+
+    /**
+     * Create the message of a batch entry as if it was received in its own datagram
+     *
+     * @param batch received batch message
+     * @param entry entry of the batch
+     * @return message of the entry
+     * @throws Exception thrown by GenericMessage
+     */
+    public static GenericMessage unpack(GenericMessage batch, Batch.Entry entry) throws Exception {
+        GenericMessage msg = new GenericMessage(batch.getSenderIP(), batch.getSenderPort(),
+                batch.getReceiverIP(), batch.getReceiverPort());
+        msg.setTypeHeader(((Batch) batch.getPayload()).getInnerType());
+        msg.setSenderNodeID(batch.getSenderID());
+        msg.setRandomID(entry.getRandomID());
+        msg.setPayload(entry.getPayload());
+        return msg;
+    }
+
+    /**
+     * Send a message, batchable messages to recently used peers are delayed up to FLUSH_DELAY
+     * Called on the timer thread (lookup steps, STORE retries) the message is sent without blocking
+     *
+     * @param msg message to be sent (fits into a single datagram)
+     */
+    public void send(GenericMessage msg) {
+        ChunkedTransfer.SendMethod method = timer.isTimerThread() ? timerSendMethod : sendMethod;
+        int entrySize = Batch.ENTRY_OVERHEAD_BYTES + msg.getLength() - MessageConstants.HEADER_SIZE_BYTES;
+        if (!isBatchable(msg.getType()) || Window.EMPTY_SIZE + entrySize > MAX_BATCH_SIZE) {
+            sendDirect(msg, method);
+            return;
+        }
+        BatchKey key = new BatchKey(msg.getReceiverIP(), msg.getReceiverPort(), msg.getType());
+        List<GenericMessage> full = null;
+        synchronized (windows) {
+            Window window = windows.get(key);
+            if (window == null) {
+                // idle peer -> send now, collect the following messages
+                window = new Window(key);
+                windows.put(key, window);
+                schedule(window);
+            } else {
+                if (window.size + entrySize > MAX_BATCH_SIZE) full = window.take();
+                window.add(msg, entrySize);
+                msg = null;
+            }
+        }
+        if (full != null) sendBatch(full, method);
+        if (msg != null) sendDirect(msg, method);
+    }
+
+    /**
+     * @return number of batch datagrams sent
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return number of messages sent within batches
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private void schedule(Window window) {
+        timer.schedule(() -> flush(window), FLUSH_DELAY);
+    }
+
+    /**
+     * End of a window (executed by the timer thread)
+     * Sends the collected messages (without blocking), the window is closed if there were none
+     */
+    private void flush(Window window) {
+        List<GenericMessage> pending;
+        synchronized (windows) {
+            pending = window.take();
+            if (pending.isEmpty()) windows.remove(window.key);
+            else schedule(window);
+        }
+        if (!pending.isEmpty()) sendBatch(pending, timerSendMethod);
+    }
+
+    private void sendBatch(List<GenericMessage> pending, ChunkedTransfer.SendMethod method) {
+        if (pending.size() == 1) {
+            sendDirect(pending.get(0), method);
+            return;
+        }
+        GenericMessage first = pending.get(0);
+        Batch payload = new Batch(first.getType());
+        for (GenericMessage msg : pending) payload.addEntry(msg.getRequestID(), msg.getPayload());
+        try {
+            GenericMessage batch = new GenericMessage(null, -1, first.getReceiverIP(), first.getReceiverPort());
+            batch.setTypeHeader(MessageConstants.TYPE_BATCH);
+            batch.setSenderNodeID(first.getSenderID());
+            batch.setPayload(payload);
+            batches.incrementAndGet();
+            coalesced.addAndGet(pending.size());
+            method.send(batch);
+        } catch (Exception e) {
+            logger.warning("send batch failed\n" + e.getMessage());
+        }
+    }
+
+    private void sendDirect(GenericMessage msg, ChunkedTransfer.SendMethod method) {
+        try {
+            method.send(msg);
+        } catch (Exception e) {
+            logger.warning("send failed\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * Messages collected for one peer and type (guarded by windows)
+     */
+    private static class Window {
+        private static final int EMPTY_SIZE = MessageConstants.HEADER_SIZE_BYTES + Batch.HEADER_BYTES;
+
+        private final BatchKey key;
+        private List<GenericMessage> pending;
+        private int size;
+
+        private Window(BatchKey key) {
+            this.key = key;
+            this.pending = new ArrayList<>();
+            this.size = EMPTY_SIZE;
+        }
+
+        private void add(GenericMessage msg, int entrySize) {
+            pending.add(msg);
+            size += entrySize;
+        }
+
+        private List<GenericMessage> take() {
+            List<GenericMessage> out = pending;
+            pending = new ArrayList<>();
+            size = EMPTY_SIZE;
+            return out;
+        }
+    }
+
+    private static class BatchKey {
+        private final InetAddress address;
+        private final int port;
+        private final byte type;
+
+        private BatchKey(InetAddress address, int port, byte type) {
+            this.address = address;
+            this.port = port;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BatchKey)) return false;
+            BatchKey other = (BatchKey) o;
+            return port == other.port && type == other.type && Objects.equals(address, other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Objects.hashCode(address) + port) + type;
+        }
+    }
+}
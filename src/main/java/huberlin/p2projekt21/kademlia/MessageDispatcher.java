@@ -0,0 +1,109 @@
+package huberlin.p2projekt21.kademlia;
+
+import huberlin.p2projekt21.datagrams.helpers.MessageCodec;
+import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
+import huberlin.p2projekt21.networking.Datagram;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Routes incoming datagrams to worker pools depending on their message type
+ * Cheap routing messages (PING, PONG, FINDNODE, FINDNODE_R, CHUNK_ACK) and expensive storage messages
+ * (STORE, FINDVALUE, FINDVALUE_R, CHUNK, BATCH: signature checks, disk access, large payloads) use separate executors,
+ * so routing traffic keeps flowing while stores are verified
+ */
+public class MessageDispatcher {
+    public static final int CONTROL_THREADS = 2;
+    public static final int STORAGE_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+    // max number of datagrams waiting per pool, further datagrams are dropped
+    public static final int QUEUE_CAPACITY = 1024;
+
+    private final DatagramHandler handler;
+    private final ThreadPoolExecutor controlPool;
+    private final ThreadPoolExecutor storagePool;
+    private final AtomicLong dropped;
+    private final Logger logger;
+
+    /**
+     * Create dispatcher and start the worker pools
+     *
+     * @param handler handler executed (by a worker) for each datagram
+     */
+    public MessageDispatcher(DatagramHandler handler) {
+        this.handler = handler;
+        this.dropped = new AtomicLong(0);
+        this.logger = Logger.getGlobal();
+        RejectedExecutionHandler reject = (task, executor) -> {
+            // pool saturated (or stopped) -> shed load
+            ((Task) task).datagram.release();
+            dropped.incrementAndGet();
+            logger.warning("dispatcher saturated, datagram dropped");
+        };
+        this.controlPool = new ThreadPoolExecutor(CONTROL_THREADS, CONTROL_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), reject);
+        this.storagePool = new ThreadPoolExecutor(STORAGE_THREADS, STORAGE_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), reject);
+    }
+
+    /**
+     * Hand the datagram to the pool responsible for its message type
+     * The handler (or the dispatcher if dropped) releases the datagram
+     *
+     * @param datagram received datagram
+     */
+    public void dispatch(Datagram datagram) {
+        ByteBuffer message = datagram.getBuffer();
+        if (!MessageCodec.hasHeader(message)) {
+            logger.warning("datagram too short, discarded");
+            datagram.release();
+            return;
+        }
+        byte type = MessageCodec.getType(message);
+        switch (type) {
+            case MessageConstants.TYPE_STORE_ENTRYKEY, MessageConstants.TYPE_FINDVALUE,
+                    MessageConstants.TYPE_FINDVALUE_R, MessageConstants.TYPE_CHUNK,
+                    MessageConstants.TYPE_BATCH -> storagePool.execute(new Task(datagram));
+            default -> controlPool.execute(new Task(datagram));
+        }
+    }
+
+    /**
+     * Stop accepting datagrams, queued ones are still handled
+     */
+    public void stop() {
+        controlPool.shutdown();
+        storagePool.shutdown();
+    }
+
+    /**
+     * Get the number of datagrams dropped because a pool was saturated
+     *
+     * @return number of dropped datagrams
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public interface DatagramHandler {
+        void handle(Datagram datagram);
+    }
+
+    private class Task implements Runnable {
+        private final Datagram datagram;
+
+        private Task(Datagram datagram) {
+            this.datagram = datagram;
+        }
+
+        @Override
+        public void run() {
+            handler.handle(datagram);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package huberlin.p2projekt21.kademlia;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of stored pages (serialized form and lazily decoded Data) with a byte budget
+ *
+ * Eviction is frequency-aware (TinyLFU admission in front of an LRU): access frequencies of all requested keys
+ * (also of those not cached) are approximated by a small count-min sketch which is halved periodically.
+ * A new page only replaces the least recently used page if it was requested more often,
+ * so a burst of one-time requests can not flush the popular pages
+ *
+ * All methods are synchronized (critical sections are short, no I/O)
+ */
+public class PageCache {
+    // depth of the frequency sketch (number of hash functions)
+    private static final int SKETCH_DEPTH = 4;
+    // counters saturate at this value
+    private static final int MAX_FREQUENCY = 15;
+    // min number of counters per row of the sketch
+    private static final int MIN_SKETCH_WIDTH = 1024;
+    // assumed min size of a page (to size the sketch)
+    private static final int MIN_PAGE_SIZE = 1024;
+    // odd multipliers deriving one index per row from the key hash
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final long capacity;
+    // access order -> first entry is the least recently used
+    private final LinkedHashMap<BigInteger, Entry> entries;
+    private final byte[][] sketch;
+    private final int sketchMask;
+    private final int sampleSize;
+    private int samples;
+    private long used;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+
+    /**
+     * Create new cache
+     *
+     * @param capacity max number of cached bytes (sum of the serialized sizes)
+     */
+    public PageCache(long capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        // next power of two of the max number of cached pages
+        long pages = Math.max(MIN_SKETCH_WIDTH, Math.min(1 << 20, capacity / MIN_PAGE_SIZE));
+        int width = Integer.highestOneBit((int) pages - 1) << 1;
+        this.sketch = new byte[SKETCH_DEPTH][width];
+        this.sketchMask = width - 1;
+        this.sampleSize = 10 * width;
+        this.samples = 0;
+        this.used = 0;
+    }
+
+    /**
+     * Get a cached page, the access is counted for the admission of later puts
+     *
+     * @param key key of the page
+     * @return cached entry or null
+     */
+    public synchronized Entry get(BigInteger key) {
+        recordAccess(key);
+        Entry entry = entries.get(key);
+        if (entry == null) misses++;
+        else hits++;
+        return entry;
+    }
+
+    /**
+     * Cache a page (replaces the cached version of the key)
+     * If the budget is exceeded, least recently used pages are evicted as long as they were requested
+     * less often than the new one, otherwise the new page is not cached
+     *
+     * @param key key of the page
+     * @param timeStamp time stamp of the page
+     * @param serialized serialized data (must not be modified afterwards)
+     * @param data decoded data (null -> decoded on first use)
+     * @return true if cached
+     */
+    public synchronized boolean put(BigInteger key, long timeStamp, ByteBuffer serialized, Data data) {
+        long weight = serialized.remaining();
+        Entry old = entries.remove(key);
+        if (old != null) used -= old.weight;
+        if (weight > capacity) {
+            rejections++;
+            return false;
+        }
+        // admission: all victims have to be less frequent than the new page
+        int frequency = frequency(key);
+        int victims = 0;
+        long freed = 0;
+        for (var victim : entries.entrySet()) {
+            if (used - freed + weight <= capacity) break;
+            if (frequency <= frequency(victim.getKey())) {
+                rejections++;
+                return false;
+            }
+            freed += victim.getValue().weight;
+            victims++;
+        }
+        Iterator<Map.Entry<BigInteger, Entry>> iterator = entries.entrySet().iterator();
+        for (int i = 0; i < victims; i++) {
+            used -= iterator.next().getValue().weight;
+            iterator.remove();
+            evictions++;
+        }
+        entries.put(key, new Entry(timeStamp, serialized.asReadOnlyBuffer(), data, weight));
+        used += weight;
+        return true;
+    }
+
+    /**
+     * Remove the cached page of the key (if older than the given time stamp)
+     *
+     * @param key key of the page
+     * @param timeStamp time stamp of the newer version
+     */
+    public synchronized void invalidate(BigInteger key, long timeStamp) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.timeStamp < timeStamp) {
+            entries.remove(key);
+            used -= entry.weight;
+        }
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    /**
+     * Increment the estimated frequency of the key, all counters are halved after sampleSize accesses (aging)
+     */
+    private void recordAccess(BigInteger key) {
+        int hash = spread(key.hashCode());
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (sketch[i][index] < MAX_FREQUENCY) sketch[i][index]++;
+        }
+        if (++samples >= sampleSize) {
+            samples /= 2;
+            for (byte[] row : sketch) {
+                for (int j = 0; j < row.length; j++) row[j] >>= 1;
+            }
+        }
+    }
+
+    /**
+     * Estimated frequency of the key (min of its counters)
+     */
+    private int frequency(BigInteger key) {
+        int hash = spread(key.hashCode());
+        int res = MAX_FREQUENCY;
+        for (int i = 0; i < SKETCH_DEPTH; i++) res = Math.min(res, sketch[i][indexOf(hash, i)]);
+        return res;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = hash * SEEDS[row];
+        return (h ^ (h >>> 16)) & sketchMask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 13);
+    }
+
+    public static class Entry {
+        private final long timeStamp;
+        private final ByteBuffer serialized;
+        private final long weight;
+        private Data data;
+
+        private Entry(long timeStamp, ByteBuffer serialized, Data data, long weight) {
+            this.timeStamp = timeStamp;
+            this.serialized = serialized;
+            this.data = data;
+            this.weight = weight;
+        }
+
+        public long getTimeStamp() {
+            return timeStamp;
+        }
+
+        /**
+         * Get the serialized data
+         *
+         * @return independent read-only view
+         */
+        public ByteBuffer getSerialized() {
+            return serialized.duplicate();
+        }
+
+        /**
+         * Get the decoded data (decoded on first use)
+         *
+         * @return data
+         */
+        public synchronized Data getData() {
+            if (data == null) {
+                byte[] bytes = new byte[serialized.remaining()];
+                serialized.duplicate().get(bytes);
+                data = new Data(bytes);
+            }
+            return data;
+        }
+    }
+}
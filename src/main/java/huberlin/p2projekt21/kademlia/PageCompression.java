@@ -0,0 +1,121 @@
+package huberlin.p2projekt21.kademlia;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of page contents (see Data.Page.toSerialized)
+ * Compressed bodies are [uncompressed length 4][zlib stream], the level is chosen by the size of the page:
+ * small pages (the common case, sent in single datagrams) are compressed as much as possible,
+ * large pages faster
+ *
+ * Deflater and Inflater are kept per thread (they hold native memory and are expensive to create)
+ */
+public class PageCompression {
+    // pages smaller than this are never compressed (header and zlib overhead eat the gain)
+    public static final int MIN_SIZE = 128;
+    // pages up to this size use BEST_COMPRESSION
+    public static final int SMALL_PAGE_SIZE = 64 * 1024;
+    // pages larger than this use BEST_SPEED
+    public static final int LARGE_PAGE_SIZE = 1024 * 1024;
+    // max accepted uncompressed size (protects against decompression bombs), larger pages can't be transferred
+    public static final int MAX_PAGE_SIZE = ChunkedTransfer.MAX_MESSAGE_SIZE;
+    // max compression ratio of deflate, a larger claimed size can't be valid
+    public static final int MAX_RATIO = 1032;
+    // initial size of the output buffer of decompress (grown as data is inflated)
+    private static final int INITIAL_OUTPUT_SIZE = 4096;
+
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<>();
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<>();
+
+    /**
+     * Get the compression level for a page
+     *
+     * @param length uncompressed length
+     * @return Deflater level or Deflater.NO_COMPRESSION if the page should be stored as is
+     */
+    public static int levelFor(int length) {
+        if (length < MIN_SIZE) return Deflater.NO_COMPRESSION;
+        if (length <= SMALL_PAGE_SIZE) return Deflater.BEST_COMPRESSION;
+        if (length <= LARGE_PAGE_SIZE) return Deflater.DEFAULT_COMPRESSION;
+        return Deflater.BEST_SPEED;
+    }
+
+    /**
+     * Compress page content
+     *
+     * @param data uncompressed content
+     * @return compressed body or null if compression does not make it smaller
+     */
+    public static byte[] compress(byte[] data) {
+        int level = levelFor(data.length);
+        if (level == Deflater.NO_COMPRESSION) return null;
+        Deflater deflater = DEFLATER.get();
+        if (deflater == null) {
+            deflater = new Deflater();
+            DEFLATER.set(deflater);
+        }
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(data);
+        deflater.finish();
+        // output larger than the input is useless -> stop there
+        byte[] out = new byte[Integer.BYTES + data.length];
+        ByteBuffer.wrap(out).putInt(data.length);
+        int pos = Integer.BYTES;
+        while (!deflater.finished() && pos < out.length) {
+            pos += deflater.deflate(out, pos, out.length - pos);
+        }
+        if (!deflater.finished()) return null;
+        byte[] res = new byte[pos];
+        System.arraycopy(out, 0, res, 0, pos);
+        return res;
+    }
+
+    /**
+     * Decompress page content
+     * The claimed size is checked against MAX_PAGE_SIZE and MAX_RATIO, the output buffer grows with the data
+     * actually inflated (a forged size does not allocate memory before the stream is inflated)
+     *
+     * @param body compressed body as created by compress
+     * @param offset offset of the body
+     * @param length length of the body
+     * @return uncompressed content
+     * @throws IllegalArgumentException if the body is corrupt
+     */
+    public static byte[] decompress(byte[] body, int offset, int length) {
+        if (length < Integer.BYTES) throw new IllegalArgumentException("compressed page too short");
+        int size = ByteBuffer.wrap(body, offset, length).getInt();
+        long maxSize = Math.min(MAX_PAGE_SIZE, (long) (length - Integer.BYTES) * MAX_RATIO);
+        if (size < 0 || size > maxSize) throw new IllegalArgumentException("invalid page size " + size);
+        Inflater inflater = INFLATER.get();
+        if (inflater == null) {
+            inflater = new Inflater();
+            INFLATER.set(inflater);
+        }
+        inflater.reset();
+        inflater.setInput(body, offset + Integer.BYTES, length - Integer.BYTES);
+        byte[] res = new byte[Math.min(size, Math.max(INITIAL_OUTPUT_SIZE, 4 * length))];
+        byte[] overflow = new byte[1];
+        try {
+            int pos = 0;
+            // inflate until the end of the stream (checksum checked) and reject any output beyond size
+            while (!inflater.finished()) {
+                if (pos == res.length && pos < size) res = Arrays.copyOf(res, (int) Math.min(size, 2L * pos));
+                int n = pos < size ? inflater.inflate(res, pos, res.length - pos) : inflater.inflate(overflow);
+                if (n > 0 && pos == size) throw new IllegalArgumentException("compressed page exceeds its size");
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("compressed page truncated");
+                }
+                pos += n;
+            }
+            if (pos != size) throw new IllegalArgumentException("compressed page does not match its size");
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupt compressed page: " + e.getMessage());
+        }
+        return res;
+    }
+}
@@ -0,0 +1,112 @@
+package huberlin.p2projekt21.kademlia;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Immutable 160 bit random id correlating requests and replies
+ * Stored as two longs and an int (hi most significant), usable as hash key without allocation on match
+ */
+public final class RandomId {
+    public static final int BITS = 160;
+    public static final int BYTES = BITS / 8;
+    public static final RandomId ZERO = new RandomId(0, 0, 0);
+
+    private final long hi;
+    private final long mid;
+    private final int lo;
+
+    public RandomId(long hi, long mid, int lo) {
+        this.hi = hi;
+        this.mid = mid;
+        this.lo = lo;
+    }
+
+    /**
+     * Create id from its big-endian byte representation
+     *
+     * @param bytes array containing the id
+     * @param offset index of the first byte
+     * @return id
+     */
+    public static RandomId fromBytes(byte[] bytes, int offset) {
+        assert (bytes.length - offset >= BYTES);
+        return read(ByteBuffer.wrap(bytes), offset);
+    }
+
+    public static RandomId fromBytes(byte[] bytes) {
+        return fromBytes(bytes, 0);
+    }
+
+    /**
+     * Read id at an absolute index (buffer position is not changed)
+     *
+     * @param buffer source buffer
+     * @param index index of the first byte
+     * @return id
+     */
+    public static RandomId read(ByteBuffer buffer, int index) {
+        return new RandomId(buffer.getLong(index), buffer.getLong(index + 8), buffer.getInt(index + 16));
+    }
+
+    /**
+     * Create id from a non-negative BigInteger (less than 2^160)
+     *
+     * @param value value of the id
+     * @return id
+     */
+    public static RandomId fromBigInteger(BigInteger value) {
+        assert (value.signum() >= 0 && value.bitLength() <= BITS);
+        return new RandomId(value.shiftRight(96).longValue(), value.shiftRight(32).longValue(), value.intValue());
+    }
+
+    /**
+     * Create a random id
+     *
+     * @param random source of randomness
+     * @return random id
+     */
+    public static RandomId random(Random random) {
+        return new RandomId(random.nextLong(), random.nextLong(), random.nextInt());
+    }
+
+    /**
+     * Write the big-endian representation at the buffer's position (advances it)
+     *
+     * @param out target buffer
+     */
+    public void writeTo(ByteBuffer out) {
+        out.putLong(hi).putLong(mid).putInt(lo);
+    }
+
+    public byte[] toBytes() {
+        byte[] out = new byte[BYTES];
+        writeTo(ByteBuffer.wrap(out));
+        return out;
+    }
+
+    public BigInteger toBigInteger() {
+        return new BigInteger(1, toBytes());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RandomId)) return false;
+        RandomId other = (RandomId) o;
+        return hi == other.hi && mid == other.mid && lo == other.lo;
+    }
+
+    @Override
+    public int hashCode() {
+        // ids are random, folding is sufficient
+        long h = hi ^ mid ^ lo;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toBigInteger().toString(16);
+    }
+}
@@ -0,0 +1,134 @@
+package huberlin.p2projekt21.kademlia;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * State of the replication of a value to a set of replicas (no network access, not thread safe)
+ * Counts acknowledged and failed replicas against the write quorum and decides which STOREs are resent:
+ * only replicas that did not answer yet, at most retries times, and never while a (chunked) STORE to the
+ * replica is still being transferred
+ */
+public class Replication {
+    private final int quorum;
+    private final int replicas;
+    private final int retries;
+    // replica -> number of sent STOREs (removed once acknowledged or given up)
+    private final Map<KademliaId, Integer> outstanding;
+    // replicas a STORE is currently transferred to (no timeout running)
+    private final Set<KademliaId> transferring;
+    private int acknowledged;
+    private int failed;
+
+    /**
+     * Create new replication
+     *
+     * @param replicas ids of the replicas
+     * @param quorum number of acknowledgements needed (bounded by the number of replicas)
+     * @param retries max number of times an unacknowledged STORE is resent to a replica
+     */
+    public Replication(List<KademliaId> replicas, int quorum, int retries) {
+        this.replicas = replicas.size();
+        this.quorum = Math.max(1, Math.min(quorum, replicas.size()));
+        this.retries = retries;
+        this.outstanding = new HashMap<>();
+        for (KademliaId id : replicas) outstanding.put(id, 0);
+        this.transferring = new HashSet<>();
+        this.acknowledged = 0;
+        this.failed = 0;
+    }
+
+    /**
+     * Get the replicas the first STORE is sent to (counted as sent)
+     *
+     * @return ids of all replicas
+     */
+    public List<KademliaId> start() {
+        List<KademliaId> out = new ArrayList<>(outstanding.keySet());
+        for (KademliaId id : out) outstanding.put(id, 1);
+        return out;
+    }
+
+    /**
+     * A STORE to the replica is sent in chunks, its timeout starts once the transfer ended
+     *
+     * @param id id of the replica
+     */
+    public void transferStarted(KademliaId id) {
+        if (outstanding.containsKey(id)) transferring.add(id);
+    }
+
+    /**
+     * The chunked transfer of a STORE ended (the acknowledgement timeout is running from now on)
+     *
+     * @param id id of the replica
+     */
+    public void transferEnded(KademliaId id) {
+        transferring.remove(id);
+    }
+
+    /**
+     * Handle the StoreR of a replica
+     *
+     * @param id id of the replica
+     * @param stored true if the replica stored the value (or a newer one)
+     * @return false if the replica was not outstanding (duplicate or late reply)
+     */
+    public boolean onStatus(KademliaId id, boolean stored) {
+        if (outstanding.remove(id) == null) return false;
+        transferring.remove(id);
+        if (stored) acknowledged++;
+        else failed++;
+        return true;
+    }
+
+    /**
+     * A STORE was not acknowledged in time
+     *
+     * @param id id of the replica
+     * @return true if the STORE has to be resent (counted as sent), false if the replica was given up or is done
+     */
+    public boolean onTimeout(KademliaId id) {
+        Integer sent = outstanding.get(id);
+        if (sent == null || transferring.contains(id)) return false;
+        if (sent > retries) {
+            outstanding.remove(id);
+            failed++;
+            return false;
+        }
+        outstanding.put(id, sent + 1);
+        return true;
+    }
+
+    /**
+     * Get the outcome of the replication
+     *
+     * @return true once quorum replicas acknowledged, false once that is no longer possible, null if undecided
+     */
+    public Boolean result() {
+        if (acknowledged >= quorum) return true;
+        if (replicas - failed < quorum) return false;
+        return null;
+    }
+
+    /**
+     * Checks if all replicas answered or were given up
+     *
+     * @return true if no STORE is outstanding
+     */
+    public boolean isFinished() {
+        return outstanding.isEmpty();
+    }
+
+    public int getAcknowledged() {
+        return acknowledged;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+}
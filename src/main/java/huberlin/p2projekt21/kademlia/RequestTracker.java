@@ -0,0 +1,159 @@
+package huberlin.p2projekt21.kademlia;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Correlates replies with sent requests (by their RandomId)
+ * Every registered request gets a timeout on the TimerWheel, so expired requests are reported
+ * exactly once (and on time) without scanning all outstanding requests
+ * Registration, matching and expiry are O(1)
+ */
+public class RequestTracker {
+    private final ConcurrentHashMap<RandomId, Request> pending;
+    private final TimerWheel timer;
+    private final TimeoutHandler handler;
+    private final long timeout;
+    private final Random random;
+    private final AtomicLong expired;
+    private final Logger logger;
+
+    /**
+     * Create new tracker
+     *
+     * @param timer timer driving the request timeouts
+     * @param timeout time in millis until a request is considered unanswered
+     * @param handler called (on the timer thread) for every unanswered request
+     */
+    public RequestTracker(TimerWheel timer, long timeout, TimeoutHandler handler) {
+        this.pending = new ConcurrentHashMap<>();
+        this.timer = timer;
+        this.timeout = timeout;
+        this.handler = handler;
+        this.random = new Random();
+        this.expired = new AtomicLong(0);
+        this.logger = Logger.getGlobal();
+    }
+
+    /**
+     * Register a new request with a fresh random id
+     *
+     * @param receiver kademlia id of the receiver
+     * @param lookupId id of the lookup waiting for the reply (-1 if none)
+     * @return registered request (containing the random id to be sent)
+     */
+    public Request register(KademliaId receiver, long lookupId) {
+        Request request = reserve(receiver, lookupId);
+        start(request);
+        return request;
+    }
+
+    /**
+     * Register a new request whose timeout is started later (e.g. once a chunked STORE was transferred)
+     *
+     * @param receiver kademlia id of the receiver
+     * @param lookupId id of the lookup waiting for the reply (-1 if none)
+     * @return registered request (containing the random id to be sent)
+     */
+    public Request reserve(KademliaId receiver, long lookupId) {
+        Request request;
+        do {
+            request = new Request(RandomId.random(random), receiver, System.currentTimeMillis(), lookupId);
+        } while (pending.putIfAbsent(request.randomID, request) != null);
+        return request;
+    }
+
+    /**
+     * Start the timeout of a reserved request
+     *
+     * @param request request returned by reserve()
+     */
+    public void start(Request request) {
+        synchronized (request) {
+            if (request.timeout != null || pending.get(request.randomID) != request) return;
+            request.timeout = timer.schedule(() -> expire(request), timeout);
+        }
+    }
+
+    /**
+     * Match a reply to its request, the request is removed
+     *
+     * @param randomID random id of the reply
+     * @param sender kademlia id of the replying node
+     * @return the matched request or null if unknown, expired or sent by another node
+     */
+    public Request match(RandomId randomID, KademliaId sender) {
+        Request request = pending.get(randomID);
+        if (request == null) return null;
+        if (!request.receiver.equals(sender)) return null;
+        if (!pending.remove(randomID, request)) return null;    // matched or expired concurrently
+        synchronized (request) {
+            if (request.timeout != null) request.timeout.cancel();
+        }
+        return request;
+    }
+
+    /**
+     * Restart the timeout of a request whose reply is still arriving (e.g. a chunked FindValueR)
+     *
+     * @param randomID random id of the request
+     * @param sender kademlia id of the replying node
+     * @return true if the request is outstanding and its timeout was restarted
+     */
+    public boolean extend(RandomId randomID, KademliaId sender) {
+        Request request = pending.get(randomID);
+        if (request == null || !request.receiver.equals(sender)) return false;
+        synchronized (request) {
+            if (pending.get(randomID) != request) return false;
+            if (request.timeout != null) request.timeout.cancel();
+            request.timeout = timer.schedule(() -> expire(request), timeout);
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of outstanding requests
+     *
+     * @return number of requests
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Get the number of requests that expired unanswered
+     *
+     * @return number of expired requests
+     */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    private void expire(Request request) {
+        if (!pending.remove(request.randomID, request)) return;    // answered in the meantime
+        expired.incrementAndGet();
+        logger.info("timeout exceeded\nreceiver: " + request.receiver + "\nrandomID: " + request.randomID);
+        handler.onTimeout(request);
+    }
+
+    public interface TimeoutHandler {
+        void onTimeout(Request request);
+    }
+
+    public static class Request {
+        public final RandomId randomID;
+        public final KademliaId receiver;
+        public final long sendTime;
+        public final long lookupId;
+        private TimerWheel.Timeout timeout;
+
+        private Request(RandomId randomID, KademliaId receiver, long sendTime, long lookupId) {
+            this.randomID = randomID;
+            this.receiver = receiver;
+            this.sendTime = sendTime;
+            this.lookupId = lookupId;
+        }
+    }
+}
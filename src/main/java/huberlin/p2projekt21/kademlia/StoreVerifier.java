@@ -0,0 +1,274 @@
+package huberlin.p2projekt21.kademlia;
+
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Verification stage for inbound STOREs
+ * Stores are grouped by key: per key at most one batch of stores is verified and committed at a time,
+ * stores arriving meanwhile are collected, the next batch is committed newest version first
+ * (an invalid newest version does not hide the valid older ones).
+ * Different keys are verified in parallel on a worker pool
+ *
+ * After a republish wave a node receives K copies of many pages at once, byte-identical duplicates are merged
+ * here and verified only once. Every callback reports the result of its own version
+ * At most maxPendingKeys keys and MAX_VERSIONS_PER_KEY distinct versions per key are pending at once,
+ * further stores are rejected (callback reports false)
+ */
+public class StoreVerifier {
+    public static final int VERIFY_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // max number of keys with a pending store (bounds the map and the queue of the worker pool)
+    public static final int MAX_PENDING_KEYS = 4096;
+    // max number of distinct pending versions of a key
+    public static final int MAX_VERSIONS_PER_KEY = 16;
+
+    private final StoreMethod storeMethod;
+    private final ExecutorService pool;
+    // keys with a running commit -> newest version waiting for it (null if none)
+    private final ConcurrentHashMap<BigInteger, Pending> pending;
+    private final int maxPendingKeys;
+    private final AtomicInteger pendingKeys;
+    private final AtomicLong submitted;
+    private final AtomicLong merged;
+    private final AtomicLong committed;
+    private final AtomicLong rejected;
+    private final Logger logger;
+
+    /**
+     * Create verifier and start its worker pool
+     *
+     * @param storeMethod verifies and commits a store (e.g. LocalHashTable::store)
+     * @param threads number of workers
+     */
+    public StoreVerifier(StoreMethod storeMethod, int threads) {
+        this(storeMethod, threads, MAX_PENDING_KEYS);
+    }
+
+    /**
+     * Create verifier and start its worker pool
+     *
+     * @param storeMethod verifies and commits a store (e.g. LocalHashTable::store)
+     * @param threads number of workers
+     * @param maxPendingKeys max number of keys with a pending store
+     */
+    public StoreVerifier(StoreMethod storeMethod, int threads, int maxPendingKeys) {
+        this.storeMethod = storeMethod;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "store-verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pending = new ConcurrentHashMap<>();
+        this.maxPendingKeys = maxPendingKeys;
+        this.pendingKeys = new AtomicInteger(0);
+        this.submitted = new AtomicLong(0);
+        this.merged = new AtomicLong(0);
+        this.committed = new AtomicLong(0);
+        this.rejected = new AtomicLong(0);
+        this.logger = Logger.getGlobal();
+    }
+
+    /**
+     * Queue a received store (returns immediately)
+     *
+     * @param data received data
+     * @throws InvalidKeySpecException .
+     * @throws NoSuchAlgorithmException .
+     */
+    public void submit(Data data) throws InvalidKeySpecException, NoSuchAlgorithmException {
+        submit(data.getKeyHash(), data, null);
+    }
+
+    /**
+     * Queue a received store (returns immediately)
+     *
+     * @param data received data
+     * @param callback notified (by a worker) once the store was committed or failed (null -> none)
+     * @throws InvalidKeySpecException .
+     * @throws NoSuchAlgorithmException .
+     */
+    public void submit(Data data, StoreCallback callback) throws InvalidKeySpecException, NoSuchAlgorithmException {
+        submit(data.getKeyHash(), data, callback);
+    }
+
+    /**
+     * Queue a received store (returns immediately)
+     *
+     * @param key key of the data
+     * @param data received data
+     */
+    public void submit(BigInteger key, Data data) {
+        submit(key, data, null);
+    }
+
+    /**
+     * Queue a received store (returns immediately)
+     *
+     * @param key key of the data
+     * @param data received data
+     * @param callback notified (by a worker) once the store was committed or failed (null -> none),
+     *                 immediately (by the caller) if the store was rejected
+     */
+    public void submit(BigInteger key, Data data, StoreCallback callback) {
+        submitted.incrementAndGet();
+        boolean[] schedule = {false};
+        boolean[] accepted = {false};
+        pending.compute(key, (k, p) -> {
+            if (p == null) {
+                if (pendingKeys.incrementAndGet() > maxPendingKeys) {
+                    pendingKeys.decrementAndGet();
+                    return null;
+                }
+                schedule[0] = true;
+                p = new Pending();
+            }
+            Version version = null;
+            for (Version v : p.versions) {
+                if (identical(v.data, data)) version = v;
+            }
+            if (version != null) {
+                merged.incrementAndGet();
+            } else if (p.versions.size() < MAX_VERSIONS_PER_KEY) {
+                version = new Version(data);
+                p.versions.add(version);
+            } else {
+                return p;
+            }
+            if (callback != null) version.waiting.add(callback);
+            accepted[0] = true;
+            return p;
+        });
+        if (!accepted[0]) {
+            rejected.incrementAndGet();
+            if (callback != null) notify(callback, false);
+            return;
+        }
+        if (schedule[0]) pool.execute(() -> drain(key));
+    }
+
+    /**
+     * Eventually stop the workers, queued stores are still committed
+     */
+    public void stop() {
+        pool.shutdown();
+    }
+
+    /**
+     * Get the number of stores merged into an identical pending store
+     *
+     * @return number of merged stores
+     */
+    public long getMerged() {
+        return merged.get();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getCommitted() {
+        return committed.get();
+    }
+
+    /**
+     * Get the number of stores rejected because maxPendingKeys keys (or MAX_VERSIONS_PER_KEY versions) were pending
+     *
+     * @return number of rejected stores
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Commit the pending versions of the key (newest first) until none is left
+     * Versions older than a committed one are still verified by the store method (it keeps the newer one)
+     */
+    private void drain(BigInteger key) {
+        List<Version> batch = new ArrayList<>();
+        while (true) {
+            pending.compute(key, (k, p) -> {
+                batch.addAll(p.versions);
+                p.versions.clear();
+                // nothing left -> remove, the next submit schedules a new drain
+                return batch.isEmpty() ? null : p;
+            });
+            if (batch.isEmpty()) {
+                pendingKeys.decrementAndGet();
+                return;
+            }
+            batch.sort((a, b) -> Long.compare(b.data.page.getTimeStamp(), a.data.page.getTimeStamp()));
+            for (Version version : batch) {
+                boolean stored;
+                try {
+                    storeMethod.store(version.data);
+                    committed.incrementAndGet();
+                    stored = true;
+                } catch (Exception e) {
+                    logger.warning("store failed\n" + e.getMessage());
+                    stored = false;
+                }
+                for (StoreCallback callback : version.waiting) notify(callback, stored);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Checks if two stores carry the same page, signature and key (only those are merged)
+     */
+    private static boolean identical(Data a, Data b) {
+        return a.page.getTimeStamp() == b.page.getTimeStamp()
+                && Arrays.equals(a.getSignature(), b.getSignature())
+                && Arrays.equals(a.getPublicKey(), b.getPublicKey())
+                && Arrays.equals(a.page.getData(), b.page.getData());
+    }
+
+    /**
+     * Notify a callback, a failing callback must not end the drain (the key would stay pending forever)
+     */
+    private void notify(StoreCallback callback, boolean stored) {
+        try {
+            callback.done(stored);
+        } catch (Exception e) {
+            logger.warning("store callback failed\n" + e);
+        }
+    }
+
+    public interface StoreMethod {
+        void store(Data data) throws Exception;
+    }
+
+    public interface StoreCallback {
+        void done(boolean stored);
+    }
+
+    private static class Pending {
+        // distinct versions waiting for the next drain round, guarded by the map (only accessed in compute)
+        private final List<Version> versions;
+
+        private Pending() {
+            this.versions = new ArrayList<>();
+        }
+    }
+
+    private static class Version {
+        private final Data data;
+        // callbacks of data (and of the identical stores merged into it)
+        private final List<StoreCallback> waiting;
+
+        private Version(Data data) {
+            this.data = data;
+            this.waiting = new ArrayList<>();
+        }
+    }
+}
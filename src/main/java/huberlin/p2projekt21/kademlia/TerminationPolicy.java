@@ -0,0 +1,49 @@
+package huberlin.p2projekt21.kademlia;
+
+/**
+ * Decides when a lookup may finish before the k closest nodes answered
+ * (a lookup always finishes when the k closest nodes answered)
+ */
+public interface TerminationPolicy {
+    // no limit: finish when the k closest nodes answered
+    long UNLIMITED = -1;
+
+    /**
+     * Time left until the lookup has to finish
+     *
+     * @param value newest verified value received so far (null if none)
+     * @param firstValueTime time in millis the first verified value was received (-1 if none)
+     * @param now current time in millis
+     * @return remaining millis (0 -> finish now) or UNLIMITED
+     */
+    long remaining(Data value, long firstValueTime, long now);
+
+    /**
+     * Wait for the k closest nodes (nodeLookup, newest value of the k closest nodes)
+     *
+     * @return policy
+     */
+    static TerminationPolicy closestAnswered() {
+        return (value, firstValueTime, now) -> UNLIMITED;
+    }
+
+    /**
+     * Finish as soon as the first verified value arrives
+     *
+     * @return policy
+     */
+    static TerminationPolicy firstValue() {
+        return (value, firstValueTime, now) -> value == null ? UNLIMITED : 0;
+    }
+
+    /**
+     * After the first verified value arrived, wait up to 'grace' millis for a newer one
+     *
+     * @param grace max additional time in millis
+     * @return policy
+     */
+    static TerminationPolicy newestWithin(long grace) {
+        assert (grace >= 0);
+        return (value, firstValueTime, now) -> value == null ? UNLIMITED : Math.max(0, firstValueTime + grace - now);
+    }
+}
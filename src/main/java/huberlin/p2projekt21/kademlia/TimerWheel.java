@@ -0,0 +1,162 @@
+package huberlin.p2projekt21.kademlia;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timer wheel
+ * A single thread advances the wheel every TICK millis and runs the expired tasks,
+ * so thousands of pending timeouts (e.g. of concurrent lookups) need no parked threads
+ * Scheduling and cancelling are O(1), tasks have to be short (they run on the timer thread)
+ */
+public class TimerWheel implements Runnable {
+    // resolution in millis
+    public static final long TICK = 10;
+    // number of slots (one round = TICK * WHEEL_SIZE millis)
+    public static final int WHEEL_SIZE = 512;
+
+    private final List<LinkedList<Timeout>> wheel;
+    // timeouts scheduled since the last tick (moved into the wheel by the timer thread)
+    private final Queue<Timeout> scheduled;
+    private final AtomicBoolean running;
+    private final Thread thread;
+    private final Logger logger;
+    private long startTime;
+    private long tick;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel() {
+        this.wheel = new ArrayList<>(WHEEL_SIZE);
+        for (int i = 0; i < WHEEL_SIZE; i++) wheel.add(new LinkedList<>());
+        this.scheduled = new ConcurrentLinkedQueue<>();
+        this.running = new AtomicBoolean(false);
+        this.thread = new Thread(this, "timer-wheel");
+        this.thread.setDaemon(true);
+        this.logger = Logger.getGlobal();
+    }
+
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            startTime = System.currentTimeMillis();
+            tick = 0;
+            thread.start();
+        }
+    }
+
+    /**
+     * Eventually stop the timer, pending tasks are not executed
+     */
+    public void stop() {
+        running.set(false);
+    }
+
+    /**
+     * Checks if the caller runs on the timer thread (inside a task, must not block)
+     *
+     * @return true if called by a task
+     */
+    public boolean isTimerThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Schedule a task
+     *
+     * @param task task to be executed on the timer thread
+     * @param delay delay in millis (rounded up to TICK)
+     * @return handle to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task, System.currentTimeMillis() + Math.max(0, delay));
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public void run() {
+        while (running.get()) {
+            long nextTick = startTime + (tick + 1) * TICK;
+            long sleep = nextTick - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    //noinspection BusyWait
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    continue;
+                }
+            }
+            tick++;
+            transferScheduled();
+            expire(wheel.get((int) (tick % WHEEL_SIZE)));
+        }
+    }
+
+    /**
+     * Move newly scheduled timeouts into their slot
+     */
+    private void transferScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.isCancelled()) continue;
+            long deadlineTick = Math.max(tick, (timeout.deadline - startTime + TICK - 1) / TICK);
+            timeout.rounds = (deadlineTick - tick) / WHEEL_SIZE;
+            wheel.get((int) (deadlineTick % WHEEL_SIZE)).add(timeout);
+        }
+    }
+
+    /**
+     * Run all timeouts of the slot due in this round
+     */
+    private void expire(LinkedList<Timeout> slot) {
+        Iterator<Timeout> iterator = slot.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.isCancelled()) {
+                iterator.remove();
+            } else if (timeout.rounds <= 0) {
+                iterator.remove();
+                try {
+                    timeout.task.run();
+                } catch (Throwable e) {
+                    // an Error must not kill the timer thread (all later timeouts would never fire)
+                    e.printStackTrace();
+                    logger.warning("timer task failed\n" + e.getMessage());
+                }
+            } else {
+                timeout.rounds--;
+            }
+        }
+    }
+
+    public static class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private volatile boolean cancelled;
+        // remaining wheel rounds (only accessed by the timer thread)
+        private long rounds;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+            this.cancelled = false;
+        }
+
+        /**
+         * Cancel the task (no effect if already executed)
+         */
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package huberlin.p2projekt21.networking;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded hand-off channel between the transport and kademlia
+ * offer() never blocks and sheds load when the channel is full (used for incoming datagrams)
+ * put() blocks up to PUT_TIMEOUT to apply backpressure on the producer (used for outgoing datagrams)
+ * Dropped elements and the depth high-water mark are recorded
+ *
+ * @param <T> transferred element type
+ */
+public class BoundedChannel<T> {
+    public static final int INCOMING_CAPACITY = 1024;
+    public static final int OUTGOING_CAPACITY = 1024;
+    // max time in millis a producer blocks on a full channel before the element is dropped
+    public static final long PUT_TIMEOUT = 100;
+
+    private final BlockingQueue<T> queue;
+    private final AtomicLong enqueued;
+    private final AtomicLong dropped;
+    private final AtomicInteger maxDepth;
+    // invoked after every enqueue (e.g. to wake up a selector)
+    private volatile Runnable listener;
+
+    /**
+     * Create new channel
+     *
+     * @param capacity max number of queued elements
+     */
+    public BoundedChannel(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.enqueued = new AtomicLong(0);
+        this.dropped = new AtomicLong(0);
+        this.maxDepth = new AtomicInteger(0);
+        this.listener = null;
+    }
+
+    /**
+     * Enqueue without blocking
+     *
+     * @param element element to enqueue
+     * @return false if the channel was full and the element was dropped
+     */
+    public boolean offer(T element) {
+        if (!queue.offer(element)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        enqueued(element);
+        return true;
+    }
+
+    /**
+     * Enqueue, waits up to PUT_TIMEOUT for free space
+     *
+     * @param element element to enqueue
+     * @return false if the channel stayed full and the element was dropped
+     */
+    public boolean put(T element) {
+        try {
+            if (!queue.offer(element, PUT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+            return false;
+        }
+        enqueued(element);
+        return true;
+    }
+
+    /**
+     * Update statistics and notify listener
+     */
+    private void enqueued(T element) {
+        enqueued.incrementAndGet();
+        int depth = queue.size();
+        int max = maxDepth.get();
+        while (depth > max && !maxDepth.compareAndSet(max, depth)) max = maxDepth.get();
+        Runnable tmp = listener;
+        if (tmp != null) tmp.run();
+    }
+
+    /**
+     * Retrieve next element without blocking
+     *
+     * @return next element or null if empty
+     */
+    public T poll() {
+        return queue.poll();
+    }
+
+    /**
+     * Retrieve next element, waits up to timeout
+     *
+     * @param timeout max time to wait
+     * @param unit unit of timeout
+     * @return next element or null if the timeout exceeded
+     * @throws InterruptedException .
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Set a listener invoked after every enqueue
+     *
+     * @param listener listener (null to remove)
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "depth=" + getDepth() + " maxDepth=" + getMaxDepth() + " enqueued=" + getEnqueued() + " dropped=" + getDropped();
+    }
+}
@@ -0,0 +1,91 @@
+package huberlin.p2projekt21.networking;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of datagrams with direct buffers of a fixed size
+ * Released datagrams are recycled, so the receive path does not allocate direct memory in steady state
+ * If the pool is empty a new datagram is created, at most maxPooled of them are kept afterwards
+ * Receive buffers are only used by the receiving threads, received datagrams are copied into the smaller
+ * message buffers (see Datagram.copy()) and queued, the consumer releases them after decoding
+ * The message pool is sized to the queues a datagram can wait in, so a full pipeline is recycled as well
+ */
+public class BufferPool {
+    // number of receive buffers kept (each MAX_SIZE bytes of direct memory, one per receiving thread)
+    public static final int RECEIVE_POOL_SIZE = 4;
+    public static final BufferPool RECEIVE_POOL = new BufferPool(Datagram.MAX_SIZE, RECEIVE_POOL_SIZE);
+    // size of a message buffer, every datagram of the protocol fits (DatagramPacker.MTU_BUDGET, chunks)
+    public static final int MESSAGE_BUFFER_SIZE = 2048;
+    // incoming channel plus the datagrams queued behind it (dispatcher queues)
+    public static final int MESSAGE_POOL_SIZE = 2 * BoundedChannel.INCOMING_CAPACITY;
+    public static final BufferPool MESSAGE_POOL = new BufferPool(MESSAGE_BUFFER_SIZE, MESSAGE_POOL_SIZE);
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<Datagram> free;
+    private final AtomicInteger pooled;
+    private final AtomicLong allocated;
+
+    /**
+     * Create a new (empty) pool
+     *
+     * @param bufferSize size of each buffer in bytes
+     * @param maxPooled max number of idle datagrams kept
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.free = new ConcurrentLinkedQueue<>();
+        this.pooled = new AtomicInteger(0);
+        this.allocated = new AtomicLong(0);
+    }
+
+    /**
+     * Take an idle datagram from the pool or create a new one
+     *
+     * @return datagram ready for receiving
+     */
+    public Datagram acquire() {
+        Datagram datagram = free.poll();
+        if (datagram != null) {
+            pooled.decrementAndGet();
+            return datagram;
+        }
+        allocated.incrementAndGet();
+        return new Datagram(bufferSize, this);
+    }
+
+    /**
+     * Return a datagram to the pool (dropped if the pool is full)
+     *
+     * @param datagram released datagram
+     */
+    void release(Datagram datagram) {
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(datagram);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Get the size of the pooled buffers
+     *
+     * @return buffer size in bytes
+     */
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Get the number of buffers allocated since creation
+     * (stays constant in steady state)
+     *
+     * @return number of allocated buffers
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,123 @@
+package huberlin.p2projekt21.networking;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Received datagram, either a pooled direct receive buffer (MAX_SIZE, reused by the receiving thread)
+ * or a pooled message buffer the received bytes are copied into (see copy(), these are queued for the consumers)
+ * The view only covers the received bytes (position 0, limit == length)
+ * The consumer has to call release() once it is done, afterwards a pooled buffer is reused
+ */
+public class Datagram {
+    // max payload of an UDP datagram (IPv4)
+    public static final int MAX_SIZE = 65527;
+
+    private final ByteBuffer buffer;
+    private final BufferPool pool;
+    private SocketAddress address;
+
+    /**
+     * Create a new datagram owning a direct buffer
+     *
+     * @param capacity size of the buffer
+     * @param pool pool the datagram returns to on release (null -> not pooled)
+     */
+    Datagram(int capacity, BufferPool pool) {
+        this(ByteBuffer.allocateDirect(capacity), pool, null);
+    }
+
+    private Datagram(ByteBuffer buffer, BufferPool pool, SocketAddress address) {
+        this.buffer = buffer;
+        this.pool = pool;
+        this.address = address;
+    }
+
+    /**
+     * Copy the given bytes into a datagram of the pool
+     * Content larger than the pooled buffers is copied into a right-sized, not pooled buffer
+     * (never sent by this protocol, see DatagramPacker.MTU_BUDGET)
+     *
+     * @param content bytes to be copied (position to limit, the position is not changed)
+     * @param address sender address
+     * @param pool pool the copy is taken from
+     * @return datagram containing the content
+     */
+    static Datagram copyOf(ByteBuffer content, SocketAddress address, BufferPool pool) {
+        Datagram copy = content.remaining() <= pool.getBufferSize()
+                ? pool.acquire()
+                : new Datagram(ByteBuffer.allocate(content.remaining()), null, null);
+        copy.buffer.clear();
+        copy.buffer.put(content.duplicate()).flip();
+        copy.address = address;
+        return copy;
+    }
+
+    /**
+     * Copy the received datagram into a datagram of the pool
+     * (a queued datagram does not pin a MAX_SIZE receive buffer)
+     *
+     * @param pool pool the copy is taken from
+     * @return copy of the content and the sender address
+     */
+    Datagram copy(BufferPool pool) {
+        return copyOf(buffer, address, pool);
+    }
+
+    /**
+     * Prepare the buffer for receiving the next datagram
+     *
+     * @return the whole buffer, ready to be written into
+     */
+    ByteBuffer prepareReceive() {
+        address = null;
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Marks the received bytes [0, position) as content of this datagram
+     *
+     * @param address sender address
+     */
+    void completeReceive(SocketAddress address) {
+        this.address = address;
+        buffer.flip();
+    }
+
+    /**
+     * Get a read-only view of the received bytes
+     * Every call returns an independent view (position 0, limit == length)
+     *
+     * @return view of the content
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the number of received bytes
+     *
+     * @return length of the content
+     */
+    public int getLength() {
+        return buffer.limit();
+    }
+
+    /**
+     * Get the address of the sender
+     *
+     * @return sender address
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Return the buffer to its pool
+     * The datagram must not be used afterwards
+     */
+    public void release() {
+        if (pool != null) pool.release(this);
+    }
+}
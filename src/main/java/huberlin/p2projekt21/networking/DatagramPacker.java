@@ -0,0 +1,141 @@
+package huberlin.p2projekt21.networking;
+
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects small outgoing datagrams per destination and packs them into envelopes of at most MTU_BUDGET bytes
+ * A destination's envelope is sealed FLUSH_DELAY after its first message (or once the next message does not fit),
+ * an envelope holding a single message is sent as plain datagram. Message order per destination is kept
+ * Not thread safe (owned by the transport thread)
+ */
+public class DatagramPacker {
+    // max envelope size: IPv6 minimum MTU (1280) - IPv6 header (40) - UDP header (8)
+    public static final int MTU_BUDGET = 1232;
+    // max time in nanos a message waits for further messages to the same destination
+    public static final long FLUSH_DELAY = 1000 * 1000;
+
+    // open envelopes in order of their deadline
+    private final Map<SocketAddress, Pending> pending;
+    private final ArrayDeque<DatagramPacket> ready;
+    private long envelopes;
+    private long packed;
+
+    public DatagramPacker() {
+        this.pending = new LinkedHashMap<>();
+        this.ready = new ArrayDeque<>();
+        this.envelopes = 0;
+        this.packed = 0;
+    }
+
+    /**
+     * Queue an outgoing datagram
+     *
+     * @param datagram datagram to be sent
+     * @param now current time (System.nanoTime())
+     */
+    public void add(DatagramPacket datagram, long now) {
+        SocketAddress address = datagram.getSocketAddress();
+        int size = Envelope.PART_OVERHEAD_BYTES + datagram.getLength();
+        Pending open = pending.get(address);
+        if (Envelope.HEADER_BYTES + size > MTU_BUDGET) {
+            // too large to be packed, queued messages to the destination go first
+            if (open != null) seal(pending.remove(address));
+            ready.add(datagram);
+            return;
+        }
+        if (open != null && open.size + size > MTU_BUDGET) {
+            seal(pending.remove(address));
+            open = null;
+        }
+        if (open == null) {
+            open = new Pending(address, now + FLUSH_DELAY);
+            pending.put(address, open);
+        }
+        open.parts.add(datagram);
+        open.size += size;
+    }
+
+    /**
+     * Seal all envelopes whose flush delay has passed
+     *
+     * @param now current time (System.nanoTime())
+     */
+    public void sealExpired(long now) {
+        Iterator<Pending> it = pending.values().iterator();
+        while (it.hasNext()) {
+            Pending open = it.next();
+            if (open.deadline - now > 0) break;
+            it.remove();
+            seal(open);
+        }
+    }
+
+    /**
+     * Retrieve the next datagram ready to be sent
+     *
+     * @return next datagram or null if none is ready
+     */
+    public DatagramPacket poll() {
+        return ready.poll();
+    }
+
+    /**
+     * Get the time until the next envelope has to be sealed
+     *
+     * @param now current time (System.nanoTime())
+     * @return remaining nanos (at least 0), -1 if no envelope is open
+     */
+    public long nextDeadline(long now) {
+        if (pending.isEmpty()) return -1;
+        return Math.max(0, pending.values().iterator().next().deadline - now);
+    }
+
+    public boolean hasReady() {
+        return !ready.isEmpty();
+    }
+
+    /**
+     * @return number of envelopes sent (holding at least two messages)
+     */
+    public long getEnvelopes() {
+        return envelopes;
+    }
+
+    /**
+     * @return number of messages sent within envelopes
+     */
+    public long getPacked() {
+        return packed;
+    }
+
+    private void seal(Pending open) {
+        if (open.parts.size() == 1) {
+            ready.add(open.parts.get(0));
+            return;
+        }
+        ready.add(Envelope.pack(open.parts, open.address));
+        envelopes++;
+        packed += open.parts.size();
+    }
+
+    private static class Pending {
+        private final SocketAddress address;
+        private final long deadline;
+        private final List<DatagramPacket> parts;
+        private int size;
+
+        private Pending(SocketAddress address, long deadline) {
+            this.address = address;
+            this.deadline = deadline;
+            this.parts = new ArrayList<>();
+            this.size = Envelope.HEADER_BYTES;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package huberlin.p2projekt21.networking;
+
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Datagram carrying several messages for the same destination
+ * Layout: | MARKER (1) | n * ( length (2) | message ... ) |
+ * MARKER is never used as first byte (message type) of a single message, so both can be told apart
+ */
+public class Envelope {
+    public static final byte MARKER = (byte) 0xFF;
+    public static final int HEADER_BYTES = 1;
+    public static final int PART_OVERHEAD_BYTES = 2;
+    // max length of a single packed message
+    public static final int MAX_PART_LENGTH = 0xFFFF;
+
+    private Envelope() {}
+
+    /**
+     * Checks if a datagram is an envelope
+     *
+     * @param content received bytes
+     * @return true if packed by pack()
+     */
+    public static boolean isEnvelope(ByteBuffer content) {
+        return content.limit() > 0 && content.get(0) == MARKER;
+    }
+
+    /**
+     * Pack messages for the same destination into one datagram
+     *
+     * @param parts messages to be packed (each at most MAX_PART_LENGTH bytes)
+     * @param address destination
+     * @return envelope datagram
+     */
+    public static DatagramPacket pack(List<DatagramPacket> parts, SocketAddress address) {
+        int length = HEADER_BYTES;
+        for (DatagramPacket part : parts) length += PART_OVERHEAD_BYTES + part.getLength();
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.put(MARKER);
+        for (DatagramPacket part : parts) {
+            out.putShort((short) part.getLength());
+            out.put(part.getData(), part.getOffset(), part.getLength());
+        }
+        return new DatagramPacket(out.array(), length, address);
+    }
+
+    /**
+     * Unpack a received envelope into separate datagrams (copied into buffers of the pool)
+     * A malformed envelope is dropped from the first invalid part on
+     *
+     * @param envelope received envelope (not released)
+     * @param pool pool the datagrams are taken from
+     * @param channel channel the datagrams are offered to (dropped and released if full)
+     * @return number of unpacked messages
+     */
+    public static int unpack(Datagram envelope, BufferPool pool, BoundedChannel<Datagram> channel) {
+        ByteBuffer in = envelope.getBuffer();
+        in.position(HEADER_BYTES);
+        int count = 0;
+        while (in.remaining() >= PART_OVERHEAD_BYTES) {
+            int length = in.getShort() & 0xFFFF;
+            if (length == 0 || length > in.remaining()) break;
+            ByteBuffer part = in.slice();
+            part.limit(length);
+            in.position(in.position() + length);
+
+            Datagram datagram = Datagram.copyOf(part, envelope.getAddress(), pool);
+            if (!channel.offer(datagram)) datagram.release();
+            count++;
+        }
+        return count;
+    }
+}
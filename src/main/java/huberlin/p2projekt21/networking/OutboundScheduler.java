@@ -0,0 +1,190 @@
+package huberlin.p2projekt21.networking;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Outgoing datagrams queued per destination
+ * flush() sends round-robin (one datagram per destination and turn), so a burst to one peer
+ * does not delay the others, and writes until the socket accepts no more (or FLUSH_LIMIT is reached)
+ * The queue of a destination is bounded, further datagrams to it are dropped
+ * Not thread safe except for the statistics (owned by the transport thread)
+ */
+public class OutboundScheduler {
+    // max number of queued datagrams (all destinations)
+    public static final int MAX_QUEUED = BoundedChannel.OUTGOING_CAPACITY;
+    // max number of queued datagrams per destination
+    public static final int MAX_PER_DESTINATION = 256;
+    // max number of datagrams written per flush, keeps the receive path responsive
+    public static final int FLUSH_LIMIT = 256;
+
+    private final SendMethod sendMethod;
+    private final Map<SocketAddress, Destination> destinations;
+    // destinations with queued datagrams, in round-robin order
+    private final ArrayDeque<Destination> active;
+    private final AtomicInteger depth;
+    private final AtomicInteger maxDepth;
+    private final AtomicLong sent;
+    private final AtomicLong dropped;
+    private final AtomicLong latencySum;
+    private final AtomicLong maxLatency;
+
+    /**
+     * Create new scheduler
+     *
+     * @param sendMethod non-blocking send (e.g. DatagramChannel::send), returns 0 if the socket is full
+     */
+    public OutboundScheduler(SendMethod sendMethod) {
+        this.sendMethod = sendMethod;
+        this.destinations = new HashMap<>();
+        this.active = new ArrayDeque<>();
+        this.depth = new AtomicInteger(0);
+        this.maxDepth = new AtomicInteger(0);
+        this.sent = new AtomicLong(0);
+        this.dropped = new AtomicLong(0);
+        this.latencySum = new AtomicLong(0);
+        this.maxLatency = new AtomicLong(0);
+    }
+
+    /**
+     * Checks if another datagram can be queued
+     *
+     * @return false if MAX_QUEUED datagrams are queued
+     */
+    public boolean hasCapacity() {
+        return depth.get() < MAX_QUEUED;
+    }
+
+    public boolean isEmpty() {
+        return active.isEmpty();
+    }
+
+    /**
+     * Queue a datagram
+     *
+     * @param datagram datagram to be sent
+     * @param now current time (System.nanoTime())
+     * @return false if the queue of the destination (or all queues) was full and the datagram was dropped
+     */
+    public boolean enqueue(DatagramPacket datagram, long now) {
+        SocketAddress address = datagram.getSocketAddress();
+        Destination destination = destinations.get(address);
+        if (!hasCapacity() || (destination != null && destination.queue.size() >= MAX_PER_DESTINATION)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (destination == null) {
+            destination = new Destination(address);
+            destinations.put(address, destination);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(datagram.getData(), datagram.getOffset(), datagram.getLength());
+        destination.queue.add(new Entry(buffer, now));
+        if (destination.queue.size() == 1) active.add(destination);
+        int current = depth.incrementAndGet();
+        int max = maxDepth.get();
+        while (current > max && !maxDepth.compareAndSet(max, current)) max = maxDepth.get();
+        return true;
+    }
+
+    /**
+     * Send queued datagrams round-robin until all queues are empty, the socket is full or FLUSH_LIMIT is reached
+     * A datagram the send method fails on (e.g. unreachable address) is dropped
+     *
+     * @return false if the socket did not accept a datagram (wait until writable)
+     */
+    public boolean flush() {
+        for (int i = 0; i < FLUSH_LIMIT && !active.isEmpty(); i++) {
+            Destination destination = active.peek();
+            Entry entry = destination.queue.peek();
+            try {
+                if (sendMethod.send(entry.buffer, destination.address) == 0) return false;
+                long latency = System.nanoTime() - entry.enqueued;
+                latencySum.addAndGet(latency);
+                long max = maxLatency.get();
+                while (latency > max && !maxLatency.compareAndSet(max, latency)) max = maxLatency.get();
+                sent.incrementAndGet();
+            } catch (IOException e) {
+                dropped.incrementAndGet();
+                Logger.getGlobal().warning("send to " + destination.address + " failed\n" + e.getMessage());
+            }
+            depth.decrementAndGet();
+
+            destination.queue.poll();
+            active.poll();
+            if (destination.queue.isEmpty()) destinations.remove(destination.address);
+            else active.add(destination);
+        }
+        return true;
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the average time from enqueue until the socket accepted a datagram
+     *
+     * @return average latency in nanos (0 if nothing was sent)
+     */
+    public long getAverageLatency() {
+        long count = sent.get();
+        return count == 0 ? 0 : latencySum.get() / count;
+    }
+
+    /**
+     * @return max latency in nanos
+     */
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    @Override
+    public String toString() {
+        return "depth=" + getDepth() + " maxDepth=" + getMaxDepth() + " sent=" + getSent() + " dropped=" + getDropped()
+                + " avgLatency=" + getAverageLatency() / 1000 + "us maxLatency=" + getMaxLatency() / 1000 + "us";
+    }
+
+    public interface SendMethod {
+        int send(ByteBuffer buffer, SocketAddress address) throws IOException;
+    }
+
+    private static class Destination {
+        private final SocketAddress address;
+        private final ArrayDeque<Entry> queue;
+
+        private Destination(SocketAddress address) {
+            this.address = address;
+            this.queue = new ArrayDeque<>();
+        }
+    }
+
+    private static class Entry {
+        private final ByteBuffer buffer;
+        private final long enqueued;
+
+        private Entry(ByteBuffer buffer, long enqueued) {
+            this.buffer = buffer;
+            this.enqueued = enqueued;
+        }
+    }
+}
@@ -1,22 +1,18 @@
 package huberlin.p2projekt21.networking;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
 import java.net.SocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.logging.Logger;
 
 public class Receiver implements Runnable{
 
     private final DatagramChannel SOCKET;
-    private final ConcurrentLinkedDeque<DatagramPacket> CHANNEL;
+    private final BoundedChannel<Datagram> CHANNEL;
     private final Thread THREAD;
     private volatile boolean running;
 
 
-    public Receiver(DatagramChannel socket, ConcurrentLinkedDeque<DatagramPacket> channel) {
+    public Receiver(DatagramChannel socket, BoundedChannel<Datagram> channel) {
         this.SOCKET = socket;
         this.CHANNEL = channel;
         this.THREAD = new Thread(this);
@@ -33,13 +29,18 @@ public class Receiver implements Runnable{
     }
 
     public void receiveMessage() throws IOException {
-        ByteBuffer buffer = ByteBuffer.allocate(65527);
-        SocketAddress senderAddress = this.SOCKET.receive(buffer);
+        Datagram datagram = BufferPool.RECEIVE_POOL.acquire();
+        SocketAddress senderAddress = this.SOCKET.receive(datagram.prepareReceive());
         if(senderAddress != null){
-            byte[] payload = buffer.array();
-            DatagramPacket datagram = new DatagramPacket(payload, payload.length, senderAddress);
-            CHANNEL.add(datagram);
+            datagram.completeReceive(senderAddress);
+            if(Envelope.isEnvelope(datagram.getBuffer())){
+                Envelope.unpack(datagram, BufferPool.MESSAGE_POOL, CHANNEL);
+            }else{
+                Datagram message = datagram.copy(BufferPool.MESSAGE_POOL);
+                if(!CHANNEL.offer(message)) message.release();
+            }
         }
+        datagram.release();
     }
 
     @Override
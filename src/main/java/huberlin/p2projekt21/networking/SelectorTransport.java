@@ -0,0 +1,183 @@
+package huberlin.p2projekt21.networking;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking UDP transport replacing the Receiver/Sender pair
+ * A single thread waits on a Selector, drains every available datagram per wakeup
+ * and flushes the outgoing channel in bursts (no sleep per datagram)
+ * Outgoing datagrams are queued per destination and sent round-robin (see OutboundScheduler)
+ * Optionally small datagrams to the same destination are packed into envelopes (see DatagramPacker),
+ * received envelopes are always unpacked before they are handed to kademlia
+ */
+public class SelectorTransport implements Runnable {
+    // max number of datagrams received per wakeup, prevents starving the other direction
+    public static final int BURST_SIZE = 64;
+
+    private final DatagramChannel SOCKET;
+    private final BoundedChannel<Datagram> INCOMING;
+    private final BoundedChannel<DatagramPacket> OUTGOING;
+    private final Selector SELECTOR;
+    private final SelectionKey KEY;
+    private final BufferPool POOL;
+    private final Thread THREAD;
+    // null -> datagrams are sent as queued
+    private final DatagramPacker PACKER;
+    private final OutboundScheduler SCHEDULER;
+    private volatile boolean running;
+
+    // pooled receive buffer (never queued, received datagrams are copied out)
+    private Datagram spare;
+    // the socket did not accept a datagram (send buffer full), sending is retried on OP_WRITE
+    private boolean writeBlocked;
+
+    /**
+     * Create a new transport, switches the socket to non-blocking mode
+     *
+     * @param socket bound UDP socket
+     * @param incoming channel for received datagrams
+     * @param outgoing channel for datagrams to be sent
+     * @throws IOException if the selector could not be opened
+     */
+    public SelectorTransport(DatagramChannel socket, BoundedChannel<Datagram> incoming,
+                             BoundedChannel<DatagramPacket> outgoing) throws IOException {
+        this(socket, incoming, outgoing, false);
+    }
+
+    /**
+     * Create a new transport, switches the socket to non-blocking mode
+     *
+     * @param socket bound UDP socket
+     * @param incoming channel for received datagrams
+     * @param outgoing channel for datagrams to be sent
+     * @param pack true: pack small datagrams to the same destination into envelopes
+     * @throws IOException if the selector could not be opened
+     */
+    public SelectorTransport(DatagramChannel socket, BoundedChannel<Datagram> incoming,
+                             BoundedChannel<DatagramPacket> outgoing, boolean pack) throws IOException {
+        this.SOCKET = socket;
+        this.INCOMING = incoming;
+        this.OUTGOING = outgoing;
+        this.SELECTOR = Selector.open();
+        this.SOCKET.configureBlocking(false);
+        this.KEY = this.SOCKET.register(SELECTOR, SelectionKey.OP_READ);
+        this.POOL = BufferPool.RECEIVE_POOL;
+        this.THREAD = new Thread(this);
+        this.PACKER = pack ? new DatagramPacker() : null;
+        this.SCHEDULER = new OutboundScheduler(SOCKET::send);
+        this.writeBlocked = false;
+        this.running = false;
+        // wake the selector as soon as something is queued for sending
+        this.OUTGOING.setListener(SELECTOR::wakeup);
+    }
+
+    public void start() {
+        this.running = true;
+        this.THREAD.start();
+    }
+
+    public void terminate() {
+        this.running = false;
+        this.OUTGOING.setListener(null);
+        this.SELECTOR.wakeup();
+    }
+
+    /**
+     * Get the outbound queues (statistics: queue depth, send latency, drops)
+     *
+     * @return scheduler of this transport
+     */
+    public OutboundScheduler getScheduler() {
+        return SCHEDULER;
+    }
+
+    @Override
+    public void run() {
+        while (this.running) {
+            try {
+                // block until readable, writable or woken up (don't block if sendable datagrams are queued)
+                // wait at most until the next envelope has to be sealed
+                long deadline = PACKER != null ? PACKER.nextDeadline(System.nanoTime()) : -1;
+                boolean sendable = !OUTGOING.isEmpty() || !SCHEDULER.isEmpty() || (PACKER != null && PACKER.hasReady());
+                if (!writeBlocked && sendable) {
+                    SELECTOR.selectNow();
+                } else if (deadline >= 0) {
+                    SELECTOR.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline)));
+                } else {
+                    SELECTOR.select();
+                }
+                SELECTOR.selectedKeys().clear();
+                // socket closed (terminating) -> key cancelled
+                if (!KEY.isValid()) break;
+                if (KEY.isReadable()) receiveAll();
+                flush();
+            } catch (CancelledKeyException | ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (!SOCKET.isOpen()) break;
+                e.printStackTrace();
+                Logger.getGlobal().warning("transport failed\n" + e.getMessage());
+            }
+        }
+        if (spare != null) spare.release();
+        try {
+            SELECTOR.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Receive datagrams until the socket has none left (or BURST_SIZE is reached)
+     *
+     * @throws IOException .
+     */
+    private void receiveAll() throws IOException {
+        for (int i = 0; i < BURST_SIZE; i++) {
+            if (spare == null) spare = POOL.acquire();
+            SocketAddress senderAddress = SOCKET.receive(spare.prepareReceive());
+            if (senderAddress == null) return;  // drained, keep spare for next wakeup
+            spare.completeReceive(senderAddress);
+            // messages are copied into pooled message buffers, the receive buffer is reused
+            if (Envelope.isEnvelope(spare.getBuffer())) {
+                Envelope.unpack(spare, BufferPool.MESSAGE_POOL, INCOMING);
+            } else {
+                Datagram datagram = spare.copy(BufferPool.MESSAGE_POOL);
+                if (!INCOMING.offer(datagram)) datagram.release();  // channel full -> dropped (counted by the channel)
+            }
+        }
+    }
+
+    /**
+     * Move queued datagrams into the per-destination queues (as long as there is room, otherwise they stay
+     * in the outgoing channel) and send until the queues are empty, FLUSH_LIMIT is reached or the socket is full
+     * Registers for OP_WRITE while the socket is full
+     *
+     * @throws IOException .
+     */
+    private void flush() throws IOException {
+        long now = System.nanoTime();
+        DatagramPacket queued;
+        if (PACKER != null) {
+            for (int i = 0; i < OutboundScheduler.FLUSH_LIMIT && SCHEDULER.hasCapacity()
+                    && (queued = OUTGOING.poll()) != null; i++) {
+                PACKER.add(queued, now);
+            }
+            PACKER.sealExpired(now);
+            while (SCHEDULER.hasCapacity() && (queued = PACKER.poll()) != null) SCHEDULER.enqueue(queued, now);
+        } else {
+            while (SCHEDULER.hasCapacity() && (queued = OUTGOING.poll()) != null) SCHEDULER.enqueue(queued, now);
+        }
+        writeBlocked = !SCHEDULER.flush();
+        if (KEY.isValid()) KEY.interestOps(writeBlocked ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+}
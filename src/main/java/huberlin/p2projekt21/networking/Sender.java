@@ -5,17 +5,15 @@ import java.net.DatagramPacket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.logging.Logger;
 
 public class Sender implements Runnable{
 
     private final DatagramChannel SOCKET;
-    private final ConcurrentLinkedDeque<DatagramPacket> CHANNEL;
+    private final BoundedChannel<DatagramPacket> CHANNEL;
     private final Thread THREAD;
     private volatile boolean running;
 
-    public Sender(DatagramChannel socket, ConcurrentLinkedDeque<DatagramPacket> channel) {
+    public Sender(DatagramChannel socket, BoundedChannel<DatagramPacket> channel) {
         this.SOCKET = socket;
         this.CHANNEL = channel;
         this.THREAD = new Thread(this);
@@ -32,8 +30,8 @@ public class Sender implements Runnable{
     }
 
     public void sendMessage() throws IOException {
-        if(!this.CHANNEL.isEmpty()){
-            DatagramPacket datagram = this.CHANNEL.remove();
+        DatagramPacket datagram = this.CHANNEL.poll();
+        if(datagram != null){
             ByteBuffer buffer = ByteBuffer.wrap(datagram.getData());
             SocketAddress receiverAddress = datagram.getSocketAddress();
             this.SOCKET.send(buffer, receiverAddress);
@@ -0,0 +1,528 @@
+package huberlin.p2projekt21.storage;
+
+import huberlin.p2projekt21.kademlia.KademliaId;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, log-structured store for (data, signature, key) records addressed by a 32 byte key hash
+ *
+ * Records are appended to the active segment file, an in-memory index maps every key hash to its newest record
+ * (later writes supersede earlier ones). When a segment is full a new one is started, closed segments
+ * whose records are mostly superseded are compacted in the background (live records are copied to the active
+ * segment one at a time, so writes are not blocked for the whole segment, the old file is deleted).
+ *
+ * Record layout: [magic 4][crc 4][dataLength 4][signatureLength 4][keyLength 4][keyHash 32][key][signature][data]
+ * The body (key, signature, data) equals the serialized Data, so it can be sent without re-encoding (see getBody).
+ * The crc covers everything after the crc field. On open all segments are replayed in order,
+ * a torn or corrupt record (e.g. after a crash during a write) ends the segment and is truncated.
+ *
+ * Writes are serialized, reads are concurrent (positional reads or read-only mappings, no shared file position)
+ * Only sealed segments (no longer written) are mapped, each once as a whole; the active segment is read positionally
+ */
+public class SegmentStore implements Closeable {
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;  // 64 MiB
+    // closed segments with less live bytes than this share are compacted
+    public static final double COMPACTION_THRESHOLD = 0.5;
+    public static final int KEY_HASH_LENGTH = KademliaId.BYTES;
+    public static final int HEADER_LENGTH = 5 * Integer.BYTES + KEY_HASH_LENGTH;
+    private static final int MAGIC = 0x46324650;
+    private static final String FILE_PREFIX = "segment-";
+    private static final String FILE_SUFFIX = ".log";
+    // max time close() waits for queued compactions
+    private static final long CLOSE_TIMEOUT = 60_000;
+
+    private final Path directory;
+    private final long segmentSize;
+    // segments by id (ascending = write order), guarded by 'this'
+    private final TreeMap<Long, Segment> segments;
+    private final Map<KademliaId, Location> index;
+    // readers hold the read lock, deleting a compacted segment requires the write lock
+    private final ReentrantReadWriteLock segmentLock;
+    // compacts segments off the write path (one at a time)
+    private final ExecutorService compactor;
+    private final Logger logger;
+    private Segment active;
+    // guarded by 'this'
+    private boolean closed;
+
+    /**
+     * Open (or create) the store with default segment size
+     *
+     * @param directory directory containing the segment files
+     * @throws IOException .
+     */
+    public SegmentStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open (or create) the store and recover the index from the existing segments
+     *
+     * @param directory directory containing the segment files
+     * @param segmentSize size in bytes after which a new segment is started
+     * @throws IOException .
+     */
+    public SegmentStore(Path directory, long segmentSize) throws IOException {
+        assert (segmentSize <= Integer.MAX_VALUE);     // segments are mapped as a whole
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segments = new TreeMap<>();
+        this.index = new ConcurrentHashMap<>();
+        this.segmentLock = new ReentrantReadWriteLock();
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.logger = Logger.getGlobal();
+        this.closed = false;
+        Files.createDirectories(directory);
+        // compactions scheduled by the recovery wait until it is done
+        synchronized (this) {
+            recover();
+        }
+    }
+
+    /**
+     * Append a record, supersedes the prior record of the key hash
+     *
+     * @param keyHash 32 byte key hash
+     * @param data data
+     * @param signature signature of the data
+     * @param key public key
+     * @throws IOException .
+     */
+    public synchronized void put(byte[] keyHash, byte[] data, byte[] signature, byte[] key) throws IOException {
+        assert (keyHash.length == KEY_HASH_LENGTH);
+        ByteBuffer record = encode(keyHash, data, signature, key);
+        Location location = append(record);
+        Location old = index.put(KademliaId.fromBytes(keyHash), location);
+        if (old != null) supersede(old);
+    }
+
+    /**
+     * Read the newest record of the key hash
+     *
+     * @param keyHash 32 byte key hash
+     * @return null if not stored or an array containing the data, signature and key (in this order)
+     * @throws IOException .
+     */
+    public byte[][] get(byte[] keyHash) throws IOException {
+        KademliaId id = KademliaId.fromBytes(keyHash);
+        segmentLock.readLock().lock();
+        try {
+            Location location = index.get(id);
+            if (location == null) return null;
+            ByteBuffer record = ByteBuffer.allocate(location.length);
+            readFully(location.segment.channel, record, location.offset);
+            record.flip();
+            if (!isValid(record)) {
+                logger.warning("corrupt record in " + location.segment.path + " at " + location.offset);
+                return null;
+            }
+            return decode(record);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the body (key, signature, data) of the newest record of the key hash
+     * Records of sealed segments are not copied, the view is backed by a read-only mapping of the segment file
+     * (records are never modified, so it stays valid even if the record is superseded or its segment compacted later)
+     * Records of the active segment are read into a heap buffer
+     *
+     * @param keyHash 32 byte key hash
+     * @return read-only view of the body or null if not stored (or corrupt)
+     * @throws IOException .
+     */
+    public ByteBuffer getBody(byte[] keyHash) throws IOException {
+        KademliaId id = KademliaId.fromBytes(keyHash);
+        segmentLock.readLock().lock();
+        try {
+            Location location = index.get(id);
+            if (location == null) return null;
+            ByteBuffer record;
+            if (location.segment.sealed) {
+                record = location.segment.map(location.offset, location.length);
+            } else {
+                record = ByteBuffer.allocate(location.length);
+                readFully(location.segment.channel, record, location.offset);
+                record = record.flip().asReadOnlyBuffer();
+            }
+            if (!isValid(record)) {
+                logger.warning("corrupt record in " + location.segment.path + " at " + location.offset);
+                return null;
+            }
+            return record.position(HEADER_LENGTH).slice();
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Check if a record for the key hash is stored
+     *
+     * @param keyHash 32 byte key hash
+     * @return true if stored
+     */
+    public boolean contains(byte[] keyHash) {
+        return index.containsKey(KademliaId.fromBytes(keyHash));
+    }
+
+    /**
+     * Get the number of stored keys
+     *
+     * @return number of keys
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Get the number of segment files
+     *
+     * @return number of segments
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Flush the active segment to disk
+     *
+     * @throws IOException .
+     */
+    public synchronized void force() throws IOException {
+        active.channel.force(false);
+    }
+
+    /**
+     * Close the store, waits for queued compactions first (they need the store monitor)
+     *
+     * @throws IOException .
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            if (!compactor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                logger.warning("compaction did not finish before close");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closed = true;
+            segmentLock.writeLock().lock();
+            try {
+                active.channel.force(false);
+                for (Segment segment : segments.values()) segment.channel.close();
+                segments.clear();
+                index.clear();
+            } finally {
+                segmentLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Append a record to the active segment (a new segment is started if it is full)
+     */
+    private Location append(ByteBuffer record) throws IOException {
+        int length = record.remaining();
+        if (active.size > 0 && active.size + length > segmentSize) roll();
+        long offset = active.size;
+        while (record.hasRemaining()) active.channel.write(record, offset + record.position());
+        active.size += length;
+        active.live += length;
+        return new Location(active, offset, length);
+    }
+
+    /**
+     * Account a superseded record, schedules the compaction of its segment if mostly superseded
+     */
+    private void supersede(Location old) {
+        old.segment.live -= old.length;
+        scheduleCompaction(old.segment);
+    }
+
+    /**
+     * Start a new active segment
+     */
+    private void roll() throws IOException {
+        active.channel.force(false);
+        active.sealed = true;
+        // may have been superseded while it was active
+        scheduleCompaction(active);
+        active = openSegment(active.id + 1);
+        segments.put(active.id, active);
+    }
+
+    /**
+     * Queue a sealed segment for compaction if less than COMPACTION_THRESHOLD of it is live (holding 'this')
+     */
+    private void scheduleCompaction(Segment segment) {
+        if (closed || !segment.sealed || segment.compacting) return;
+        if (segment.live >= segment.size * COMPACTION_THRESHOLD) return;
+        segment.compacting = true;
+        compactor.execute(() -> compact(segment));
+    }
+
+    /**
+     * Copy the live records of a segment to the active segment and delete it (compaction thread)
+     * The store monitor is held per record only, so puts are not blocked for the whole segment
+     * The copies are forced to disk before the file is deleted (an OS crash or power loss must not lose records
+     * only present in the deleted file), a process crash in between is resolved by the replay order
+     */
+    private void compact(Segment segment) {
+        logger.info("compacting " + segment.path + " (" + segment.live + " of " + segment.size + " bytes live)");
+        try {
+            long offset = 0;
+            while (true) {
+                synchronized (this) {
+                    if (closed) return;
+                    if (offset >= segment.size) {
+                        // copies (and records superseding the old file) durable before it is deleted
+                        active.channel.force(false);
+                        segments.remove(segment.id);
+                        break;
+                    }
+                    offset += compactRecord(segment, offset);
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("compacting " + segment.path + " failed\n" + e.getMessage());
+            return;
+        }
+        segmentLock.writeLock().lock();
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            logger.warning("could not close " + segment.path + "\n" + e.getMessage());
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+        try {
+            Files.delete(segment.path);
+        } catch (IOException e) {
+            // still mapped by a reader on platforms not allowing this (records are superseded anyway)
+            logger.warning("could not delete " + segment.path + "\n" + e.getMessage());
+            segment.path.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * Copy the record at the offset to the active segment if it is still the newest of its key (holding 'this')
+     *
+     * @return length of the record
+     */
+    private int compactRecord(Segment segment, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(segment.channel, header, offset);
+        int length = recordLength(header.flip());
+        KademliaId id = KademliaId.read(header, 5 * Integer.BYTES);
+        Location location = index.get(id);
+        if (location != null && location.segment == segment && location.offset == offset) {
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(segment.channel, record, offset);
+            index.put(id, append(record.flip()));
+        }
+        return length;
+    }
+
+    /**
+     * Replay all segments in order to rebuild the index
+     */
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                long id = Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+                segments.put(id, openSegment(id));
+            }
+        }
+        for (Segment segment : segments.values()) replay(segment);
+        if (segments.isEmpty()) segments.put(0L, openSegment(0));
+        active = segments.lastEntry().getValue();
+        for (Segment segment : segments.headMap(active.id).values()) {
+            segment.sealed = true;
+            scheduleCompaction(segment);
+        }
+        logger.info("segment store opened: " + index.size() + " keys in " + segments.size() + " segments");
+    }
+
+    /**
+     * Add all valid records of the segment to the index, truncate at the first invalid record
+     */
+    private void replay(Segment segment) throws IOException {
+        long fileSize = segment.channel.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (offset < fileSize) {
+            if (fileSize - offset < HEADER_LENGTH) break;
+            header.clear();
+            readFully(segment.channel, header, offset);
+            int length = recordLength(header.flip());
+            if (length < 0 || offset + length > fileSize) break;
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(segment.channel, record, offset);
+            if (!isValid(record.flip())) break;
+            Location location = new Location(segment, offset, length);
+            Location old = index.put(KademliaId.read(record, 5 * Integer.BYTES), location);
+            if (old != null) old.segment.live -= old.length;
+            segment.live += length;
+            offset += length;
+        }
+        if (offset < fileSize) {
+            logger.warning("truncating " + segment.path + " at " + offset + " (" + (fileSize - offset) + " bytes invalid)");
+            segment.channel.truncate(offset);
+        }
+        segment.size = offset;
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Path path = directory.resolve(String.format("%s%08d%s", FILE_PREFIX, id, FILE_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new Segment(id, path, channel);
+    }
+
+    private static ByteBuffer encode(byte[] keyHash, byte[] data, byte[] signature, byte[] key) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + data.length + signature.length + key.length);
+        record.putInt(MAGIC).putInt(0)
+                .putInt(data.length).putInt(signature.length).putInt(key.length)
+                .put(keyHash).put(key).put(signature).put(data);
+        record.putInt(Integer.BYTES, crc(record.flip()));
+        return record;
+    }
+
+    private static byte[][] decode(ByteBuffer record) {
+        byte[] data = new byte[record.getInt(2 * Integer.BYTES)];
+        byte[] signature = new byte[record.getInt(3 * Integer.BYTES)];
+        byte[] key = new byte[record.getInt(4 * Integer.BYTES)];
+        record.position(HEADER_LENGTH);
+        record.get(key).get(signature).get(data);
+        return new byte[][]{data, signature, key};
+    }
+
+    /**
+     * Total length of the record described by the header
+     *
+     * @return length in bytes or -1 if the header is invalid
+     */
+    private static int recordLength(ByteBuffer header) {
+        if (header.getInt(0) != MAGIC) return -1;
+        long length = HEADER_LENGTH;
+        for (int i = 2; i <= 4; i++) {
+            int part = header.getInt(i * Integer.BYTES);
+            if (part < 0) return -1;
+            length += part;
+        }
+        return length > Integer.MAX_VALUE ? -1 : (int) length;
+    }
+
+    /**
+     * Check length and crc of a record (buffer contains exactly the record, position 0)
+     */
+    private static boolean isValid(ByteBuffer record) {
+        return recordLength(record) == record.limit()
+                && record.getInt(Integer.BYTES) == crc(record);
+    }
+
+    /**
+     * Crc of everything after the crc field (works on heap and mapped buffers, position is not changed)
+     */
+    private static int crc(ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.duplicate().position(2 * Integer.BYTES));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Fill the (cleared) buffer from the given file offset
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) throw new EOFException();
+        }
+    }
+
+    private static class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        // bytes written / bytes of records not superseded (guarded by the store)
+        private long size;
+        private long live;
+        // queued for or being compacted (guarded by the store)
+        private boolean compacting;
+
+        // no more records are appended (set before the next segment becomes active)
+        private volatile boolean sealed;
+        // read-only mapping of the whole sealed segment (created on first read)
+        private volatile MappedByteBuffer mapped;
+
+        private Segment(long id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = 0;
+            this.live = 0;
+            this.compacting = false;
+            this.sealed = false;
+            this.mapped = null;
+        }
+
+        /**
+         * Get a view of [offset, offset + length) of the mapped file (sealed segments only, mapped once)
+         *
+         * @return read-only view (position 0, limit == length)
+         */
+        private ByteBuffer map(long offset, int length) throws IOException {
+            assert (sealed);
+            MappedByteBuffer current = mapped;
+            if (current == null) {
+                synchronized (this) {
+                    current = mapped;
+                    if (current == null) {
+                        current = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                        mapped = current;
+                    }
+                }
+            }
+            return current.asReadOnlyBuffer().position((int) offset).limit((int) offset + length).slice();
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+
+        private Location(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -2,54 +2,58 @@ package huberlin.p2projekt21.storage;
 
 import huberlin.p2projekt21.Helper;
 import huberlin.p2projekt21.crypto.Crypto;
+import huberlin.p2projekt21.crypto.SignatureScheme;
 import huberlin.p2projekt21.properties.PropertiesSingleton;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
 
 /**
  * Class containing functions for storing and reading data to/from local directory
+ * All records are kept in an append-only SegmentStore under DATA_PATH,
+ * data of older versions (three files per key) is still read and migrated on first access
  */
 public class Storage {
+    private static SegmentStore segmentStore = null;
 
     /**
-     * Stores the data, signature and signature for a public key in files named after the hash of said key
+     * Get the segment store (opened on first use)
+     *
+     * @return segment store located at DATA_PATH
+     * @throws IOException .
+     */
+    private static synchronized SegmentStore getSegmentStore() throws IOException {
+        if (segmentStore == null) {
+            String DATA_PATH = PropertiesSingleton.getInstance().get("DATA_PATH");
+            segmentStore = new SegmentStore(Paths.get(DATA_PATH));
+        }
+        return segmentStore;
+    }
+
+    /**
+     * Stores the data, signature and public key under the hash of said key
      * <p>
      * changed to private to prevent different hashes of same keys
-     * now only SHA256(PublicKey).hashCode() is allowed
+     * now only SHA256(PublicKey) is allowed
      *
-     * @param hashString hex string of public key hash
+     * @param hashCode   32 byte public key hash
      * @param data       Data which shall be stored on local machine
      * @param signature  Signature of the data
      * @param key        Public Key of the data
      * @throws IOException .
      */
-    private static void store(String hashString, byte[] data, byte[] signature, byte[] key) throws IOException {
-        String DATA_PATH = PropertiesSingleton.getInstance().get("DATA_PATH");
-        String DATA_FILE_NAME_TEMPLATE = PropertiesSingleton.getInstance().get("DATA_FILE_NAME_TEMPLATE");
-        String SIGNATURE_FILE_NAME_TEMPLATE = PropertiesSingleton.getInstance().get("SIGNATURE_FILE_NAME_TEMPLATE");
-        String KEY_FILE_NAME_TEMPLATE = PropertiesSingleton.getInstance().get("KEY_FILE_NAME_TEMPLATE");
-
-        Path dataDirP = Paths.get(DATA_PATH);
-        if (!Files.exists(dataDirP)) Files.createDirectories(dataDirP);
-
-        Path dataP = Paths.get(DATA_PATH + DATA_FILE_NAME_TEMPLATE.replace("ID", hashString));
-        Path sigP = Paths.get(DATA_PATH + SIGNATURE_FILE_NAME_TEMPLATE.replace("ID", hashString));
-        Path keyP = Paths.get(DATA_PATH + KEY_FILE_NAME_TEMPLATE.replace("ID", hashString));
-
-        Files.write(dataP, data);
-        Files.write(sigP, signature);
-        Files.write(keyP, key);
+    private static void storeHash(byte[] hashCode, byte[] data, byte[] signature, byte[] key) throws IOException {
+        getSegmentStore().put(hashCode, data, signature, key);
     }
 
     /**
-     * Stores the data and signature for a public key in files named after the hash of said key
+     * Stores the data and signature for a public key under the hash of said key
      *
      * @param key       HPublic key used for store
      * @param data      Data which shall be stored on local machine
@@ -58,14 +62,13 @@ public class Storage {
      */
     public static void store(byte[] key, byte[] data, byte[] signature) throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
         //int hashCode = Crypto.getPublicKeyHash(key);
-        PublicKey publicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(key));
+        PublicKey publicKey = Helper.getPublicKeyFromBytes(key);
         byte[] hashCode = Helper.hashForKey(publicKey);
-        String hashString = Helper.bytesToHex(hashCode);
-        store(hashString, data, signature, key);
+        storeHash(hashCode, data, signature, key);
     }
 
     /**
-     * Stores the data and signature for a public key in files named after the hash of said key
+     * Stores the data and signature for a public key under the hash of said key
      *
      * @param keyHash   SHA256 Hash of Public key used for store
      * @param data      Data which shall be stored on local machine
@@ -74,8 +77,7 @@ public class Storage {
      */
     public static void store(BigInteger keyHash, byte[] data, byte[] signature, byte[] key) throws IOException {
         byte[] hashCode = Helper.bigIntToByteArray(keyHash, 32);
-        String hashString = Helper.bytesToHex(hashCode);
-        store(hashString, data, signature, key);
+        storeHash(hashCode, data, signature, key);
     }
 
     /**
@@ -89,28 +91,44 @@ public class Storage {
      * @throws InvalidKeyException .
      */
     public static void storeOwn(byte[] data) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException, SignatureException, InvalidKeyException {
-        String DATA_PATH = PropertiesSingleton.getInstance().get("DATA_PATH");
         //int ownId = Crypto.getStoredPublicKey().hashCode();
         PublicKey ownKey = Crypto.getStoredPublicKey();
         byte[] hashCode = Helper.hashForKey(ownKey);
-        String hashString = Helper.bytesToHex(hashCode);
 
         byte[] signature = Crypto.signWithStoredKey(data);
 
-        store(hashString, data, signature, ownKey.getEncoded());
+        storeHash(hashCode, data, signature, SignatureScheme.encode(ownKey));
     }
 
     /**
      * Looks if data and signature for a public key hash are available and returns them if they are
+     * Data stored by older versions (three files per key) is moved into the segment store
      *
      * changed to private to prevent different hashes of same keys
-     * now only SHA256(PublicKey).hashCode() is allowed
+     * now only SHA256(PublicKey) is allowed
+     *
+     * @param hashCode 32 byte hash of the public key used for lookup
+     * @return null if nothing was found or an array containing the data, signature and key (in this order)
+     * @throws IOException .
+     */
+    private static byte[][] readHash(byte[] hashCode) throws IOException {
+        SegmentStore store = getSegmentStore();
+        byte[][] stored = store.get(hashCode);
+        if (stored != null) return stored;
+
+        byte[][] legacy = readLegacy(Helper.bytesToHex(hashCode));
+        if (legacy != null) store.put(hashCode, legacy[0], legacy[1], legacy[2]);
+        return legacy;
+    }
+
+    /**
+     * Reads data stored by older versions (files named after the hash of the key)
      *
      * @param hashString Hex string of hash of the public key used for lookup
      * @return null if no file was found or an array containing the data, signature and key (in this order)
      * @throws IOException .
      */
-    private static byte[][] read(String hashString) throws IOException {
+    private static byte[][] readLegacy(String hashString) throws IOException {
         String DATA_PATH = PropertiesSingleton.getInstance().get("DATA_PATH");
         String DATA_FILE_NAME_TEMPLATE = PropertiesSingleton.getInstance().get("DATA_FILE_NAME_TEMPLATE");
         String SIGNATURE_FILE_NAME_TEMPLATE = PropertiesSingleton.getInstance().get("SIGNATURE_FILE_NAME_TEMPLATE");
@@ -139,10 +157,9 @@ public class Storage {
      */
     public static byte[][] read(byte[] key) throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
         //int hashCode = Crypto.getPublicKeyHash(key);
-        PublicKey publicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(key));
+        PublicKey publicKey = Helper.getPublicKeyFromBytes(key);
         byte[] hashCode = Helper.hashForKey(publicKey);
-        String hashString = Helper.bytesToHex(hashCode);
-        return read(hashString);
+        return readHash(hashCode);
     }
 
     /**
@@ -154,7 +171,24 @@ public class Storage {
      */
     public static byte[][] read(BigInteger keyHash) throws IOException {
         byte[] hashCode = Helper.bigIntToByteArray(keyHash, 32);
-        String hashString = Helper.bytesToHex(hashCode);
-        return read(hashString);
+        return readHash(hashCode);
+    }
+
+    /**
+     * Looks if data for a public key hash is available and returns it serialized (publicKey, signature, page)
+     * The returned buffer is a read-only view of the stored record, nothing is copied
+     *
+     * @param keyHash SHA256 Hash of Public key used for lookup
+     * @return null if nothing was found or a view of the serialized data
+     * @throws IOException .
+     */
+    public static ByteBuffer readSerialized(BigInteger keyHash) throws IOException {
+        byte[] hashCode = Helper.bigIntToByteArray(keyHash, 32);
+        SegmentStore store = getSegmentStore();
+        ByteBuffer stored = store.getBody(hashCode);
+        if (stored != null) return stored;
+        // migrate data of older versions first
+        if (readHash(hashCode) == null) return null;
+        return store.getBody(hashCode);
     }
 }
@@ -0,0 +1,164 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
+import huberlin.p2projekt21.datagrams.messages.Chunk;
+import huberlin.p2projekt21.datagrams.messages.EntryKey;
+import huberlin.p2projekt21.datagrams.messages.GenericMessage;
+import huberlin.p2projekt21.kademlia.ChunkedTransfer;
+import huberlin.p2projekt21.kademlia.KademliaId;
+import huberlin.p2projekt21.kademlia.TimerWheel;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test ChunkedTransfer (two instances connected by a simulated lossy link)
+ */
+public class ChunkedTransferTest {
+    private static final InetAddress HOST = InetAddress.getLoopbackAddress();
+
+    /**
+     * Serialize the message and deliver it as if received from the given port
+     */
+    private static GenericMessage received(GenericMessage msg, int senderPort) {
+        DatagramPacket packet = msg.toDatagram();
+        GenericMessage res;
+        try {
+            res = new GenericMessage();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        res.fromDatagramPacket(new DatagramPacket(packet.getData(), packet.getLength(), HOST, senderPort));
+        return res;
+    }
+
+    @Test
+    public void lossyTransferTest() throws Exception {
+        TimerWheel timer = new TimerWheel();
+        timer.start();
+        ExecutorService link = Executors.newSingleThreadExecutor();
+        KademliaId idA = KademliaId.fromBigInteger(BigInteger.ONE);
+        KademliaId idB = KademliaId.fromBigInteger(BigInteger.TWO);
+        CompletableFuture<GenericMessage> delivered = new CompletableFuture<>();
+        AtomicInteger chunks = new AtomicInteger();
+        ChunkedTransfer[] nodes = new ChunkedTransfer[2];
+        try {
+            // every 5th chunk and every 3rd ack is lost
+            AtomicInteger acks = new AtomicInteger();
+            nodes[0] = new ChunkedTransfer(idA, timer, msg -> {
+                if (chunks.incrementAndGet() % 5 == 0) return;
+                GenericMessage in = received(msg, 1000);
+                link.execute(() -> {
+                    try {
+                        nodes[1].onChunk(in);
+                    } catch (Exception e) {
+                        delivered.completeExceptionally(e);
+                    }
+                });
+            }, msg -> fail());
+            nodes[1] = new ChunkedTransfer(idB, timer, msg -> {
+                if (acks.incrementAndGet() % 3 == 0) return;
+                GenericMessage in = received(msg, 2000);
+                link.execute(() -> nodes[0].onAck(in));
+            }, delivered::complete);
+
+            byte[] value = new byte[100 * 1024];
+            new Random(1).nextBytes(value);
+            GenericMessage store = new GenericMessage(null, -1, HOST, 2000);
+            store.setTypeHeader(MessageConstants.TYPE_STORE_ENTRYKEY);
+            store.setSenderNodeID(idA);
+            store.setRandomID();
+            EntryKey payload = new EntryKey(BigInteger.TEN);
+            payload.setEntryValue(value);
+            store.setPayload(payload);
+            assertTrue(ChunkedTransfer.needsChunking(store));
+
+            assertTrue(nodes[0].send(store).get(10, TimeUnit.SECONDS));
+            GenericMessage msg = delivered.get(10, TimeUnit.SECONDS);
+            assertEquals(MessageConstants.TYPE_STORE_ENTRYKEY, msg.getType());
+            assertEquals(idA, msg.getSenderID());
+            assertEquals(HOST, msg.getSenderIP());
+            assertArrayEquals(value, ((EntryKey) msg.getPayload()).getEntryValue());
+            assertTrue(nodes[0].getRetransmitted() > 0);
+            assertEquals(0, nodes[1].getReserved());
+        } finally {
+            link.shutdownNow();
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void limitTest() throws Exception {
+        TimerWheel timer = new TimerWheel();
+        ChunkedTransfer transfer = new ChunkedTransfer(KademliaId.ZERO, timer, msg -> {}, msg -> fail());
+        byte[] data = new byte[MessageConstants.CHUNK_DATA_SIZE_BYTES];
+
+        // oversized messages are not reassembled
+        transfer.onChunk(chunkMessage(1, ChunkedTransfer.MAX_MESSAGE_SIZE + 1, data));
+        assertEquals(1, transfer.getRejected());
+        assertEquals(0, transfer.getReserved());
+
+        // max number of incomplete transfers per peer
+        for (int i = 0; i < ChunkedTransfer.MAX_TRANSFERS_PER_PEER; i++) {
+            transfer.onChunk(chunkMessage(i, 4 * data.length, data));
+        }
+        // memory grows with the received chunks, not with the claimed length
+        assertEquals(ChunkedTransfer.MAX_TRANSFERS_PER_PEER * (long) data.length, transfer.getReserved());
+        transfer.onChunk(chunkMessage(-1, 4 * data.length, data));
+        assertEquals(2, transfer.getRejected());
+
+        // misaligned chunk
+        transfer.onChunk(chunkMessage(0, 4 * data.length, new byte[10]));
+        assertEquals(3, transfer.getRejected());
+    }
+
+    @Test
+    public void peerLimitTest() throws Exception {
+        TimerWheel timer = new TimerWheel();
+        ChunkedTransfer transfer = new ChunkedTransfer(KademliaId.ZERO, timer, msg -> {}, msg -> fail());
+        int size = MessageConstants.CHUNK_DATA_SIZE_BYTES;
+        byte[] data = new byte[size];
+
+        // claiming the max size reserves one chunk, chunks beyond the window are dropped
+        transfer.onChunk(chunkMessage(1000, 1, ChunkedTransfer.MAX_MESSAGE_SIZE, 0, data));
+        assertEquals(size, transfer.getReserved());
+        transfer.onChunk(chunkMessage(1000, 1, ChunkedTransfer.MAX_MESSAGE_SIZE, (ChunkedTransfer.WINDOW + 1) * size, data));
+        assertEquals(size, transfer.getReserved());
+
+        // a peer sending more than half of a max size message reaches its byte limit
+        int half = ChunkedTransfer.MAX_MESSAGE_SIZE / 2;
+        for (int offset = size; offset <= half; offset += size) {
+            transfer.onChunk(chunkMessage(1000, 1, ChunkedTransfer.MAX_MESSAGE_SIZE, offset, data));
+        }
+        assertEquals(ChunkedTransfer.MAX_REASSEMBLY_BYTES_PER_PEER, transfer.getReserved());
+        long rejected = transfer.getRejected();
+        transfer.onChunk(chunkMessage(1000, 2, 2 * size, 0, data));
+        assertEquals(rejected + 1, transfer.getRejected());
+        assertEquals(ChunkedTransfer.MAX_REASSEMBLY_BYTES_PER_PEER, transfer.getReserved());
+
+        // other peers are not affected
+        transfer.onChunk(chunkMessage(3000, 2, 2 * size, 0, data));
+        assertEquals(rejected + 1, transfer.getRejected());
+        assertEquals(ChunkedTransfer.MAX_REASSEMBLY_BYTES_PER_PEER + size, transfer.getReserved());
+    }
+
+    private static GenericMessage chunkMessage(long transferID, int totalLength, byte[] data) throws Exception {
+        return chunkMessage(1000, transferID, totalLength, 0, data);
+    }
+
+    private static GenericMessage chunkMessage(int senderPort, long transferID, int totalLength, int offset, byte[] data)
+            throws Exception {
+        GenericMessage msg = new GenericMessage(HOST, senderPort, HOST, 2000);
+        msg.setTypeHeader(MessageConstants.TYPE_CHUNK);
+        msg.setSenderNodeID(KademliaId.ZERO);
+        msg.setPayload(new Chunk(transferID, totalLength, offset, data));
+        return msg;
+    }
+}
@@ -0,0 +1,122 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.datagrams.helpers.MessageCodec;
+import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
+import huberlin.p2projekt21.datagrams.messages.*;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test message encoding/decoding
+ */
+public class CodecTest {
+
+    private static GenericMessage roundTrip(GenericMessage msg) throws Exception {
+        DatagramPacket datagram = msg.toDatagram();
+        assertEquals(msg.getLength(), datagram.getLength());
+        // decode from the middle of a larger array, trailing bytes must be ignored
+        byte[] padded = new byte[datagram.getLength() + 100];
+        System.arraycopy(datagram.getData(), 0, padded, 7, datagram.getLength());
+        GenericMessage res = new GenericMessage();
+        res.fromDatagramPacket(new DatagramPacket(padded, 7, datagram.getLength(), InetAddress.getLoopbackAddress(), 1234));
+        assertEquals(msg.getType(), res.getType());
+        assertEquals(msg.getSenderNodeID(), res.getSenderNodeID());
+        assertEquals(msg.getRandomID(), res.getRandomID());
+        return res;
+    }
+
+    private static GenericMessage message(byte type) throws Exception {
+        GenericMessage msg = new GenericMessage(null, -1, InetAddress.getLoopbackAddress(), 1234);
+        msg.setTypeHeader(type);
+        msg.setSenderNodeID(new BigInteger(256, new Random()));
+        msg.setRandomID(new BigInteger(160, new Random()));
+        return msg;
+    }
+
+    @Test
+    public void pingTest() throws Exception {
+        GenericMessage res = roundTrip(message(MessageConstants.TYPE_PING));
+        assertNull(res.getPayload());
+    }
+
+    @Test
+    public void headerTest() throws Exception {
+        GenericMessage msg = message(MessageConstants.TYPE_PONG);
+        ByteBuffer buffer = ByteBuffer.wrap(msg.toDatagram().getData());
+        assertTrue(MessageCodec.hasHeader(buffer));
+        assertEquals(MessageConstants.TYPE_PONG, MessageCodec.getType(buffer));
+        assertEquals(msg.getSenderID(), MessageCodec.getSenderNodeID(buffer));
+        assertEquals(0, MessageCodec.getPayloadLength(buffer));
+    }
+
+    @Test
+    public void findNodeRTest() throws Exception {
+        GenericMessage msg = message(MessageConstants.TYPE_FINDNODE_R);
+        Tuples tuples = new Tuples();
+        for (int i = 0; i < 20; i++) {
+            tuples.addTuple(4000 + i, InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) i}), new NodeID(new BigInteger(256, new Random())));
+        }
+        msg.setPayload(tuples);
+        Tuples res = (Tuples) roundTrip(msg).getPayload();
+        assertEquals(20, res.getTuplesAsArray().length);
+        for (int i = 0; i < 20; i++) {
+            Tuples.Tuple exp = tuples.getTuplesAsArray()[i];
+            Tuples.Tuple is = res.getTuplesAsArray()[i];
+            assertEquals(exp.getPort(), is.getPort());
+            assertEquals(exp.getIpAddress(), is.getIpAddress());
+            assertEquals(exp.getNodeID().getNodeID(), is.getNodeID().getNodeID());
+        }
+    }
+
+    @Test
+    public void storeTest() throws Exception {
+        GenericMessage msg = message(MessageConstants.TYPE_STORE_ENTRYKEY);
+        BigInteger key = new BigInteger(256, new Random());
+        byte[] value = new byte[1000];
+        new Random().nextBytes(value);
+        EntryKey payload = new EntryKey(key);
+        payload.setEntryValue(value);
+        msg.setPayload(payload);
+        EntryKey res = (EntryKey) roundTrip(msg).getPayload();
+        assertEquals(key, res.getEntryKey());
+        assertArrayEquals(value, res.getEntryValue());
+    }
+
+    @Test
+    public void findValueRTest() throws Exception {
+        GenericMessage msg = message(MessageConstants.TYPE_FINDVALUE_R);
+        byte[] value = new byte[300];
+        new Random().nextBytes(value);
+        msg.setPayload(new EntryValue(true, value));
+        EntryValue res = (EntryValue) roundTrip(msg).getPayload();
+        assertTrue(res.isValueNotInfo());
+        assertArrayEquals(value, res.getEntryValue());
+    }
+
+    @Test
+    public void forgedLengthTest() {
+        // lengths/counts larger than the received bytes are rejected before allocating
+        byte[] entryKey = ByteBuffer.allocate(4 + MessageConstants.ENTRYKEY_SIZE_BYTES + 8)
+                .putInt(Integer.MAX_VALUE - 8).array();
+        byte[] entryValue = ByteBuffer.allocate(4 + 1 + 8).putInt(Integer.MAX_VALUE - 8).array();
+        byte[] tuples = ByteBuffer.allocate(4 + 40).putInt(Integer.MAX_VALUE).array();
+        byte[] negative = ByteBuffer.allocate(4 + 40).putInt(-1).array();
+        for (byte[] forged : new byte[][]{entryKey, entryValue, tuples, negative}) {
+            try {
+                if (forged == entryKey) EntryKey.fromBytestream(forged);
+                else if (forged == entryValue) EntryValue.fromBytestream(forged);
+                else Tuples.fromBytestream(forged);
+                fail();
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.networking.BoundedChannel;
+import huberlin.p2projekt21.networking.BufferPool;
+import huberlin.p2projekt21.networking.Datagram;
+import huberlin.p2projekt21.networking.DatagramPacker;
+import huberlin.p2projekt21.networking.Envelope;
+import huberlin.p2projekt21.networking.SelectorTransport;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test DatagramPacker and Envelope
+ */
+public class EnvelopeTest {
+    private static final InetSocketAddress PEER_A = new InetSocketAddress(InetAddress.getLoopbackAddress(), 2000);
+    private static final InetSocketAddress PEER_B = new InetSocketAddress(InetAddress.getLoopbackAddress(), 3000);
+
+    private static DatagramPacket datagram(int length, int value, InetSocketAddress address) {
+        byte[] data = new byte[length];
+        data[0] = (byte) value;
+        return new DatagramPacket(data, length, address);
+    }
+
+    @Test
+    public void packerTest() {
+        DatagramPacker packer = new DatagramPacker();
+        packer.add(datagram(100, 1, PEER_A), 0);
+        packer.add(datagram(100, 2, PEER_B), 0);
+        packer.add(datagram(100, 3, PEER_A), 0);
+        assertNull(packer.poll());
+        assertEquals(DatagramPacker.FLUSH_DELAY, packer.nextDeadline(0));
+
+        packer.sealExpired(DatagramPacker.FLUSH_DELAY);
+        assertEquals(-1, packer.nextDeadline(DatagramPacker.FLUSH_DELAY));
+        DatagramPacket envelope = packer.poll();
+        assertEquals(PEER_A, envelope.getSocketAddress());
+        assertTrue(Envelope.isEnvelope(ByteBuffer.wrap(envelope.getData())));
+        assertEquals(Envelope.HEADER_BYTES + 2 * (Envelope.PART_OVERHEAD_BYTES + 100), envelope.getLength());
+        // single message -> sent as is
+        DatagramPacket single = packer.poll();
+        assertEquals(PEER_B, single.getSocketAddress());
+        assertEquals(2, single.getData()[0]);
+        assertNull(packer.poll());
+        assertEquals(1, packer.getEnvelopes());
+        assertEquals(2, packer.getPacked());
+
+        // envelopes stay within MTU_BUDGET, large datagrams are not delayed (and keep their order)
+        for (int i = 0; i < 30; i++) packer.add(datagram(100, i, PEER_A), 0);
+        packer.add(datagram(DatagramPacker.MTU_BUDGET, 99, PEER_A), 0);
+        int envelopes = 0;
+        DatagramPacket next;
+        while ((next = packer.poll()) != null && Envelope.isEnvelope(ByteBuffer.wrap(next.getData()))) {
+            assertTrue(next.getLength() <= DatagramPacker.MTU_BUDGET);
+            envelopes++;
+        }
+        assertEquals(3, envelopes);
+        assertNotNull(next);
+        assertEquals(99, next.getData()[0]);
+        assertNull(packer.poll());
+    }
+
+    @Test
+    public void transportTest() throws Exception {
+        DatagramChannel socketA = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        DatagramChannel socketB = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        BoundedChannel<DatagramPacket> outA = new BoundedChannel<>(BoundedChannel.OUTGOING_CAPACITY);
+        BoundedChannel<Datagram> inB = new BoundedChannel<>(BoundedChannel.INCOMING_CAPACITY);
+        SelectorTransport transportA = new SelectorTransport(socketA, new BoundedChannel<>(16), outA, true);
+        SelectorTransport transportB = new SelectorTransport(socketB, inB, new BoundedChannel<>(16));
+        transportA.start();
+        transportB.start();
+        try {
+            InetSocketAddress addressB = (InetSocketAddress) socketB.getLocalAddress();
+            int count = 20;
+            for (int i = 0; i < count; i++) outA.put(datagram(50, i, addressB));
+
+            // every message arrives as separate datagram from A
+            Set<Integer> received = new HashSet<>();
+            for (int i = 0; i < count; i++) {
+                Datagram datagram = inB.poll(5, TimeUnit.SECONDS);
+                assertNotNull(datagram);
+                assertEquals(50, datagram.getLength());
+                // unpacked into a pooled message buffer
+                assertEquals(BufferPool.MESSAGE_BUFFER_SIZE, datagram.getBuffer().capacity());
+                assertEquals(socketA.getLocalAddress(), datagram.getAddress());
+                received.add((int) datagram.getBuffer().get(0));
+                datagram.release();
+            }
+            assertEquals(count, received.size());
+        } finally {
+            transportA.terminate();
+            transportB.terminate();
+            socketA.close();
+            socketB.close();
+        }
+    }
+
+    @Test
+    public void receiveCopyTest() throws Exception {
+        DatagramChannel socketA = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        DatagramChannel socketB = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        BoundedChannel<DatagramPacket> outA = new BoundedChannel<>(BoundedChannel.OUTGOING_CAPACITY);
+        BoundedChannel<Datagram> inB = new BoundedChannel<>(BoundedChannel.INCOMING_CAPACITY);
+        SelectorTransport transportA = new SelectorTransport(socketA, new BoundedChannel<>(16), outA);
+        SelectorTransport transportB = new SelectorTransport(socketB, inB, new BoundedChannel<>(16));
+        transportA.start();
+        transportB.start();
+        try {
+            InetSocketAddress addressB = (InetSocketAddress) socketB.getLocalAddress();
+            outA.put(datagram(100, 7, addressB));
+            // queued datagrams are copied into message buffers, not MAX_SIZE receive buffers
+            Datagram datagram = inB.poll(5, TimeUnit.SECONDS);
+            assertNotNull(datagram);
+            assertEquals(BufferPool.MESSAGE_BUFFER_SIZE, datagram.getBuffer().capacity());
+            assertEquals(7, datagram.getBuffer().get(0));
+            assertEquals(socketA.getLocalAddress(), datagram.getAddress());
+            datagram.release();
+
+            // released message buffers are reused, no allocation in steady state
+            long allocated = BufferPool.MESSAGE_POOL.getAllocated();
+            for (int i = 0; i < 50; i++) {
+                outA.put(datagram(100, i, addressB));
+                datagram = inB.poll(5, TimeUnit.SECONDS);
+                assertNotNull(datagram);
+                assertEquals(i, datagram.getBuffer().get(0));
+                datagram.release();
+            }
+            assertEquals(allocated, BufferPool.MESSAGE_POOL.getAllocated());
+        } finally {
+            transportA.terminate();
+            transportB.terminate();
+            socketA.close();
+            socketB.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.kademlia.Data;
+import huberlin.p2projekt21.kademlia.IterativeLookup;
+import huberlin.p2projekt21.kademlia.KademliaId;
+import huberlin.p2projekt21.kademlia.KademliaNode;
+import huberlin.p2projekt21.kademlia.TerminationPolicy;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test IterativeLookup (window handling and early termination without network)
+ */
+public class IterativeLookupTest {
+    private static final KademliaId TARGET = KademliaId.fromBigInteger(BigInteger.ZERO);
+    private static final KademliaId OWN = KademliaId.fromBigInteger(BigInteger.ONE.shiftLeft(255));
+
+    private static List<KademliaNode> nodes(int from, int to) {
+        List<KademliaNode> list = new ArrayList<>();
+        for (int i = from; i < to; i++) list.add(new KademliaNode(BigInteger.valueOf(i), null, -1));
+        return list;
+    }
+
+    private static Data value(long timeStamp) {
+        return new Data(new byte[]{1}, new byte[Data.SIGNATURE_LENGTH_BYTES], new byte[Data.RSA_KEY_LENGTH_BYTES],
+                timeStamp);
+    }
+
+    /**
+     * Run a valueLookup like LookupTask does: every node answers after 10ms with a value (time stamp == node id),
+     * until the k closest nodes answered or the policy ends it
+     *
+     * @return number of queried nodes
+     */
+    private static int runValueLookup(IterativeLookup lookup) {
+        long now = 0;
+        int queried = 0;
+        while (!lookup.isFinished() && lookup.remaining(now) != 0) {
+            List<KademliaNode> sent = lookup.nextRequests(now);
+            queried += sent.size();
+            now += 10;
+            for (KademliaNode node : sent) {
+                lookup.onValue(value(node.getId().toBigInteger().longValue()), now);
+                lookup.onReply(node, List.of(), now);
+            }
+        }
+        return queried;
+    }
+
+    @Test
+    public void earlyTerminationTest() {
+        // default: all k closest nodes are queried, newest value of them
+        IterativeLookup closest = new IterativeLookup(TARGET, OWN, 8, 2, 2, nodes(1, 13),
+                TerminationPolicy.closestAnswered());
+        assertEquals(8, runValueLookup(closest));
+        assertTrue(closest.isFinished());
+        assertEquals(8, closest.getValue().getPage().getTimeStamp());
+
+        // firstValue: stops after the first round of replies
+        IterativeLookup first = new IterativeLookup(TARGET, OWN, 8, 2, 2, nodes(1, 13), TerminationPolicy.firstValue());
+        assertEquals(2, runValueLookup(first));
+        assertFalse(first.isFinished());
+        assertEquals(2, first.getValue().getPage().getTimeStamp());
+
+        // newestWithin: newer values are taken until the grace period (from the first value) is over
+        IterativeLookup grace = new IterativeLookup(TARGET, OWN, 8, 2, 2, nodes(1, 13),
+                TerminationPolicy.newestWithin(15));
+        assertEquals(6, runValueLookup(grace));
+        assertFalse(grace.isFinished());
+        assertEquals(6, grace.getValue().getPage().getTimeStamp());
+        assertEquals(0, grace.remaining(30));
+    }
+
+    @Test
+    public void windowRefillTest() {
+        IterativeLookup lookup = new IterativeLookup(TARGET, OWN, 4, 2, 4, nodes(1, 7));
+        List<KademliaNode> first = lookup.nextRequests(0);
+        assertEquals(2, first.size());
+        assertTrue(lookup.nextRequests(0).isEmpty());   // window full
+
+        // one reply frees exactly one slot, filled with the next closest node
+        lookup.onReply(first.get(0), List.of(), 10);
+        List<KademliaNode> second = lookup.nextRequests(10);
+        assertEquals(1, second.size());
+        assertEquals(BigInteger.valueOf(3), second.get(0).getId().toBigInteger());
+        assertFalse(lookup.isFinished());
+    }
+
+    @Test
+    public void timeoutRaisesAlphaTest() {
+        IterativeLookup lookup = new IterativeLookup(TARGET, OWN, 4, 2, 3, nodes(1, 9));
+        lookup.nextRequests(0);
+        long deadline = lookup.nextDeadline();
+        assertEquals(IterativeLookup.INITIAL_REQUEST_TIMEOUT, deadline);
+
+        // both requests stale -> slots freed, alpha raised (bounded by maxAlpha)
+        assertEquals(2, lookup.expire(deadline));
+        assertEquals(3, lookup.getAlpha());
+        assertEquals(0, lookup.getInFlight());
+        assertEquals(3, lookup.nextRequests(deadline).size());
+    }
+
+    @Test
+    public void finishTest() {
+        IterativeLookup lookup = new IterativeLookup(TARGET, OWN, 2, 3, 3, nodes(1, 4));
+        long now = 0;
+        // nodes learned beyond the k closest answered ones do not delay the end
+        List<KademliaNode> sent = lookup.nextRequests(now);
+        lookup.onReply(sent.get(2), nodes(8, 9), ++now);
+        for (KademliaNode node : sent.subList(0, 2)) lookup.onReply(node, List.of(), ++now);
+        assertTrue(lookup.isFinished());
+        assertEquals(2, lookup.result().size());
+        assertEquals(BigInteger.ONE, lookup.result().get(0).getId().toBigInteger());
+
+        // own id is never queried
+        IterativeLookup own = new IterativeLookup(TARGET, OWN, 2, 3, 3, List.of(new KademliaNode(OWN, null, -1)));
+        assertTrue(own.nextRequests(0).isEmpty());
+        assertTrue(own.isFinished());
+    }
+
+    @Test
+    public void hardTimeoutTest() {
+        IterativeLookup lookup = new IterativeLookup(TARGET, OWN, 4, 2, 3, nodes(1, 9));
+        List<KademliaNode> sent = lookup.nextRequests(0);
+        // tracker reports the request -> node dropped, slot freed immediately
+        assertTrue(lookup.onTimeout(sent.get(0).getId()));
+        assertEquals(1, lookup.getInFlight());
+        assertEquals(3, lookup.getAlpha());
+        assertFalse(lookup.onTimeout(sent.get(0).getId()));
+        // answered and not yet queried nodes are kept
+        lookup.onReply(sent.get(1), List.of(), 10);     // timely reply lowers alpha again
+        assertFalse(lookup.onTimeout(sent.get(1).getId()));
+        assertFalse(lookup.onTimeout(KademliaId.fromBigInteger(BigInteger.valueOf(8))));
+        assertEquals(2, lookup.nextRequests(10).size());
+    }
+}
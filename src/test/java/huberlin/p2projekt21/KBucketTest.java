@@ -2,12 +2,15 @@ package huberlin.p2projekt21;
 
 import huberlin.p2projekt21.kademlia.DistanceComparator;
 import huberlin.p2projekt21.kademlia.KBuckets;
+import huberlin.p2projekt21.kademlia.KademliaId;
 import huberlin.p2projekt21.kademlia.KademliaNode;
 import org.junit.Test;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
 
+import static org.junit.Assert.*;
+
 /**
  * Unit test KBuckets
  */
@@ -46,6 +49,34 @@ public class KBucketTest {
         assert (list.get(2) == n0);
     }
 
+    @Test
+    public void indexTest() {
+        int k = 2;
+        KBuckets kBuckets = new KBuckets(k, 256, KademliaId.fromBigInteger(BigInteger.ZERO));
+        // ids 4..7 share bucket 2
+        KademliaNode n4 = new KademliaNode(BigInteger.valueOf(4), null, -1);
+        KademliaNode n5 = new KademliaNode(BigInteger.valueOf(5), null, -1);
+        KademliaNode n6 = new KademliaNode(BigInteger.valueOf(6), null, -1);
+        assertNull(kBuckets.update(n4, 1));
+        assertNull(kBuckets.update(n5, 2));
+        assertNull(kBuckets.update(n4, 3));     // known -> only refreshed
+        assertEquals(2, kBuckets.size());
+        assertTrue(kBuckets.contained(n4.getId()));
+
+        // bucket full -> cached, least recently seen node has to be pinged
+        assertEquals(n5, kBuckets.update(n6, 4));
+        assertEquals(2, kBuckets.size());
+        assertTrue(kBuckets.contained(n6.getId()));
+        assertEquals(2, kBuckets.lookup(n6.getId(), 20).size());
+
+        // ping expired -> replaced by cached node
+        kBuckets.pingExpired(n5.getId());
+        assertFalse(kBuckets.contained(n5.getId()));
+        assertTrue(kBuckets.contained(n6.getId()));
+        assertEquals(2, kBuckets.size());
+        assertEquals(n6, kBuckets.lookup(n6.getId(), 1).get(0));
+    }
+
     @Test
     public void t() {
         int cacheSize = 3;
@@ -0,0 +1,66 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.kademlia.KademliaId;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test KademliaId (compared against the former BigInteger arithmetic)
+ */
+public class KademliaIdTest {
+    private static final Random RANDOM = new Random(42);
+
+    private static BigInteger randomBig() {
+        // vary the bit length to cover ids with leading zero words
+        return new BigInteger(1 + RANDOM.nextInt(KademliaId.BITS), RANDOM);
+    }
+
+    @Test
+    public void conversionTest() {
+        for (int i = 0; i < 1000; i++) {
+            BigInteger big = randomBig();
+            KademliaId id = KademliaId.fromBigInteger(big);
+            assertEquals(big, id.toBigInteger());
+            assertEquals(big.toString(16), id.toString());
+            assertEquals(id, KademliaId.fromBytes(id.toBytes()));
+
+            ByteBuffer buffer = ByteBuffer.allocate(KademliaId.BYTES + 3);
+            buffer.position(3);
+            id.writeTo(buffer);
+            assertEquals(id, KademliaId.read(buffer, 3));
+            assertEquals(id.hashCode(), KademliaId.read(buffer, 3).hashCode());
+        }
+        assertEquals("0", KademliaId.ZERO.toString());
+    }
+
+    @Test
+    public void distanceTest() {
+        for (int i = 0; i < 1000; i++) {
+            BigInteger ref = randomBig(), a = randomBig(), b = randomBig();
+            KademliaId refId = KademliaId.fromBigInteger(ref);
+            KademliaId aId = KademliaId.fromBigInteger(a);
+            KademliaId bId = KademliaId.fromBigInteger(b);
+
+            int expected = Integer.signum(a.xor(ref).compareTo(b.xor(ref)));
+            assertEquals(expected, Integer.signum(refId.compareDistance(aId, bId)));
+            assertEquals(a.xor(ref).bitLength() - 1, refId.bucketIndex(aId));
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(aId.compareTo(bId)));
+        }
+        KademliaId id = KademliaId.fromBigInteger(randomBig());
+        assertEquals(-1, id.bucketIndex(id));
+        assertEquals(0, id.compareDistance(id, id));
+    }
+
+    @Test
+    public void randomInBucketTest() {
+        KademliaId own = KademliaId.random(RANDOM);
+        for (int bit = 0; bit < KademliaId.BITS; bit++) {
+            assertEquals(bit, own.bucketIndex(own.randomInBucket(bit, RANDOM)));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.datagrams.helpers.MessageConstants;
+import huberlin.p2projekt21.datagrams.messages.Batch;
+import huberlin.p2projekt21.datagrams.messages.EntryKey;
+import huberlin.p2projekt21.datagrams.messages.GenericMessage;
+import huberlin.p2projekt21.datagrams.messages.NodeID;
+import huberlin.p2projekt21.kademlia.KademliaId;
+import huberlin.p2projekt21.kademlia.MessageCoalescer;
+import huberlin.p2projekt21.kademlia.RandomId;
+import huberlin.p2projekt21.kademlia.TimerWheel;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test MessageCoalescer and the Batch payload
+ */
+public class MessageCoalescerTest {
+    private static final InetAddress HOST = InetAddress.getLoopbackAddress();
+    private static final KademliaId OWN_ID = KademliaId.fromBigInteger(BigInteger.TEN);
+
+    private static GenericMessage message(byte type, int port, int key) throws Exception {
+        GenericMessage msg = new GenericMessage(null, -1, HOST, port);
+        msg.setTypeHeader(type);
+        msg.setSenderNodeID(OWN_ID);
+        msg.setRandomID();
+        if (type == MessageConstants.TYPE_STORE_ENTRYKEY) {
+            EntryKey payload = new EntryKey(BigInteger.valueOf(key));
+            payload.setEntryValue(new byte[]{(byte) key, 1, 2, 3});
+            msg.setPayload(payload);
+        } else {
+            msg.setPayload(new NodeID(KademliaId.fromBigInteger(BigInteger.valueOf(key))));
+        }
+        return msg;
+    }
+
+    /**
+     * Serialize the message and deserialize it as if received
+     */
+    private static GenericMessage received(GenericMessage msg) throws Exception {
+        DatagramPacket packet = msg.toDatagram();
+        GenericMessage res = new GenericMessage();
+        res.fromDatagramPacket(new DatagramPacket(packet.getData(), packet.getLength(), HOST, 1000));
+        return res;
+    }
+
+    @Test
+    public void coalesceTest() throws Exception {
+        TimerWheel timer = new TimerWheel();
+        timer.start();
+        BlockingQueue<GenericMessage> sent = new LinkedBlockingQueue<>();
+        MessageCoalescer coalescer = new MessageCoalescer(timer, sent::add, sent::add);
+        try {
+            List<GenericMessage> stores = new ArrayList<>();
+            for (int i = 0; i < 10; i++) stores.add(message(MessageConstants.TYPE_STORE_ENTRYKEY, 2000, i));
+            for (GenericMessage store : stores) coalescer.send(store);
+            // other peer and other type are not mixed into the batch
+            coalescer.send(message(MessageConstants.TYPE_STORE_ENTRYKEY, 3000, 42));
+            coalescer.send(message(MessageConstants.TYPE_FINDNODE, 2000, 43));
+
+            // first message to an idle peer and non batchable messages are sent immediately
+            assertSame(stores.get(0), sent.poll());
+            assertEquals(3000, sent.poll().getReceiverPort());
+            assertEquals(MessageConstants.TYPE_FINDNODE, sent.poll().getType());
+
+            GenericMessage batch = sent.poll(1, TimeUnit.SECONDS);
+            assertNotNull(batch);
+            assertEquals(MessageConstants.TYPE_BATCH, batch.getType());
+            assertTrue(batch.getLength() <= MessageCoalescer.MAX_BATCH_SIZE);
+            assertEquals(1, coalescer.getBatches());
+            assertEquals(9, coalescer.getCoalesced());
+
+            // entries are received as separate messages with their own randomID
+            GenericMessage in = received(batch);
+            Batch payload = (Batch) in.getPayload();
+            assertEquals(MessageConstants.TYPE_STORE_ENTRYKEY, payload.getInnerType());
+            assertEquals(9, payload.getEntries().size());
+            for (int i = 0; i < 9; i++) {
+                GenericMessage msg = MessageCoalescer.unpack(in, payload.getEntries().get(i));
+                GenericMessage expected = stores.get(i + 1);
+                assertEquals(MessageConstants.TYPE_STORE_ENTRYKEY, msg.getType());
+                assertEquals(expected.getRequestID(), msg.getRequestID());
+                assertEquals(OWN_ID, msg.getSenderID());
+                assertEquals(1000, msg.getSenderPort());
+                assertArrayEquals(((EntryKey) expected.getPayload()).getEntryValue(),
+                        ((EntryKey) msg.getPayload()).getEntryValue());
+            }
+            assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void batchSizeTest() throws Exception {
+        BlockingQueue<GenericMessage> sent = new LinkedBlockingQueue<>();
+        // timer not started -> windows only end when full
+        MessageCoalescer coalescer = new MessageCoalescer(new TimerWheel(), sent::add, sent::add);
+        int count = 100;
+        for (int i = 0; i < count; i++) coalescer.send(message(MessageConstants.TYPE_FINDVALUE, 2000, i));
+        assertEquals(MessageConstants.TYPE_FINDVALUE, sent.poll().getType());
+        int entries = 1;
+        GenericMessage batch;
+        while ((batch = sent.poll()) != null) {
+            assertEquals(MessageConstants.TYPE_BATCH, batch.getType());
+            assertTrue(batch.getLength() <= MessageCoalescer.MAX_BATCH_SIZE);
+            Batch payload = (Batch) received(batch).getPayload();
+            assertEquals(MessageConstants.TYPE_FINDVALUE, payload.getInnerType());
+            entries += payload.getEntries().size();
+        }
+        // several keys per datagram
+        assertTrue(coalescer.getBatches() < count / 10);
+        assertTrue(coalescer.getBatches() > 0);
+        assertEquals(entries - 1, coalescer.getCoalesced());
+    }
+
+    @Test
+    public void timerThreadTest() throws Exception {
+        TimerWheel timer = new TimerWheel();
+        timer.start();
+        BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+        MessageCoalescer coalescer = new MessageCoalescer(timer, msg -> sent.add("blocking"), msg -> sent.add("timer"));
+        try {
+            GenericMessage msg = message(MessageConstants.TYPE_FINDNODE, 2000, 1);
+            coalescer.send(msg);
+            assertEquals("blocking", sent.poll());
+            // sends from timer tasks (lookup steps, STORE retries) never block
+            timer.schedule(() -> coalescer.send(msg), 0);
+            assertEquals("timer", sent.poll(1, TimeUnit.SECONDS));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void emptyEntryTest() throws Exception {
+        Batch batch = new Batch(MessageConstants.TYPE_STORE_STATUS);
+        batch.addEntry(RandomId.ZERO, null);
+        GenericMessage msg = new GenericMessage(null, -1, HOST, 2000);
+        msg.setTypeHeader(MessageConstants.TYPE_BATCH);
+        msg.setPayload(batch);
+        Batch res = (Batch) received(msg).getPayload();
+        assertEquals(1, res.getEntries().size());
+        assertNull(res.getEntries().get(0).getPayload());
+    }
+
+    @Test
+    public void nestedBatchTest() {
+        // batch of batches (and other non batchable types) is rejected while decoding
+        for (byte type : new byte[]{MessageConstants.TYPE_BATCH, MessageConstants.TYPE_PING}) {
+            try {
+                Batch.fromBytestream(new byte[]{type, 0, 0});
+                fail();
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+    }
+}
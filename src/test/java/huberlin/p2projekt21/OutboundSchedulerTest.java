@@ -0,0 +1,96 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.networking.OutboundScheduler;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test OutboundScheduler
+ */
+public class OutboundSchedulerTest {
+    private static final InetSocketAddress PEER_A = new InetSocketAddress(InetAddress.getLoopbackAddress(), 2000);
+    private static final InetSocketAddress PEER_B = new InetSocketAddress(InetAddress.getLoopbackAddress(), 3000);
+    private static final InetSocketAddress PEER_C = new InetSocketAddress(InetAddress.getLoopbackAddress(), 4000);
+
+    private static DatagramPacket datagram(int value, InetSocketAddress address) {
+        return new DatagramPacket(new byte[]{(byte) value}, 1, address);
+    }
+
+    @Test
+    public void roundRobinTest() throws Exception {
+        List<Integer> sent = new ArrayList<>();
+        List<SocketAddress> receivers = new ArrayList<>();
+        // socket accepts 4 datagrams, then is full
+        int[] space = {4};
+        OutboundScheduler scheduler = new OutboundScheduler((buffer, address) -> {
+            if (space[0] == 0) return 0;
+            space[0]--;
+            sent.add((int) buffer.get(buffer.position()));
+            receivers.add(address);
+            return buffer.remaining();
+        });
+        for (int i = 0; i < 3; i++) assertTrue(scheduler.enqueue(datagram(i, PEER_A), System.nanoTime()));
+        assertTrue(scheduler.enqueue(datagram(10, PEER_B), System.nanoTime()));
+        assertTrue(scheduler.enqueue(datagram(20, PEER_C), System.nanoTime()));
+        assertEquals(5, scheduler.getDepth());
+
+        // burst to A does not delay B and C
+        assertFalse(scheduler.flush());
+        assertEquals(List.of(0, 10, 20, 1), sent);
+        assertEquals(List.of(PEER_A, PEER_B, PEER_C, PEER_A), receivers);
+        assertEquals(1, scheduler.getDepth());
+
+        // writable again -> continues with the datagram not accepted before
+        space[0] = 10;
+        assertTrue(scheduler.flush());
+        assertEquals(List.of(0, 10, 20, 1, 2), sent);
+        assertTrue(scheduler.isEmpty());
+        assertEquals(5, scheduler.getSent());
+        assertEquals(5, scheduler.getMaxDepth());
+        assertTrue(scheduler.getMaxLatency() >= scheduler.getAverageLatency());
+    }
+
+    @Test
+    public void sendFailureTest() throws Exception {
+        List<SocketAddress> receivers = new ArrayList<>();
+        OutboundScheduler scheduler = new OutboundScheduler((buffer, address) -> {
+            if (address.equals(PEER_A)) throw new IOException("unreachable");
+            receivers.add(address);
+            return buffer.remaining();
+        });
+        scheduler.enqueue(datagram(0, PEER_A), 0);
+        scheduler.enqueue(datagram(1, PEER_A), 0);
+        scheduler.enqueue(datagram(2, PEER_B), 0);
+        // failing datagrams are dropped, other destinations keep flowing
+        assertTrue(scheduler.flush());
+        assertEquals(List.of(PEER_B), receivers);
+        assertTrue(scheduler.isEmpty());
+        assertEquals(0, scheduler.getDepth());
+        assertEquals(2, scheduler.getDropped());
+        assertEquals(1, scheduler.getSent());
+    }
+
+    @Test
+    public void dropTest() throws Exception {
+        OutboundScheduler scheduler = new OutboundScheduler((buffer, address) -> 0);
+        for (int i = 0; i < OutboundScheduler.MAX_PER_DESTINATION; i++) {
+            assertTrue(scheduler.enqueue(datagram(i, PEER_A), 0));
+        }
+        // queue of A full, other destinations are not affected
+        assertFalse(scheduler.enqueue(datagram(0, PEER_A), 0));
+        assertTrue(scheduler.enqueue(datagram(0, PEER_B), 0));
+        assertEquals(1, scheduler.getDropped());
+        assertFalse(scheduler.flush());
+        assertEquals(OutboundScheduler.MAX_PER_DESTINATION + 1, scheduler.getDepth());
+        assertEquals(0, scheduler.getSent());
+    }
+}
@@ -0,0 +1,75 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.kademlia.PageCache;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test PageCache (budget, frequency-aware admission, invalidation, counters)
+ */
+public class PageCacheTest {
+    private static final int PAGE = 1000;
+
+    private static ByteBuffer page(int value) {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE);
+        buffer.put(0, (byte) value);
+        return buffer;
+    }
+
+    private static BigInteger key(int i) {
+        return BigInteger.valueOf(i);
+    }
+
+    @Test
+    public void hitMissTest() {
+        PageCache cache = new PageCache(10 * PAGE);
+        assertNull(cache.get(key(1)));
+        assertTrue(cache.put(key(1), 5, page(1), null));
+        PageCache.Entry entry = cache.get(key(1));
+        assertNotNull(entry);
+        assertEquals(5, entry.getTimeStamp());
+        assertEquals(1, entry.getSerialized().get(0));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(PAGE, cache.getUsed());
+
+        // only newer versions invalidate
+        cache.invalidate(key(1), 5);
+        assertNotNull(cache.get(key(1)));
+        cache.invalidate(key(1), 6);
+        assertNull(cache.get(key(1)));
+        assertEquals(0, cache.getUsed());
+    }
+
+    @Test
+    public void admissionTest() {
+        PageCache cache = new PageCache(4 * PAGE);
+        // popular pages
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 5; j++) cache.get(key(i));
+            assertTrue(cache.put(key(i), 0, page(i), null));
+        }
+        // a scan of one-time requests does not replace them
+        for (int i = 100; i < 200; i++) {
+            cache.get(key(i));
+            assertFalse(cache.put(key(i), 0, page(i), null));
+        }
+        for (int i = 0; i < 4; i++) assertNotNull(cache.get(key(i)));
+        assertEquals(0, cache.getEvictions());
+        assertEquals(100, cache.getRejections());
+
+        // a page requested more often than the least recently used one replaces it
+        for (int j = 0; j < 10; j++) cache.get(key(50));
+        assertTrue(cache.put(key(50), 0, page(50), null));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(4, cache.size());
+        assertEquals(4 * PAGE, cache.getUsed());
+        assertNotNull(cache.get(key(50)));
+        // budget exceeded by a single page
+        assertFalse(cache.put(key(60), 0, ByteBuffer.allocate(5 * PAGE), null));
+    }
+}
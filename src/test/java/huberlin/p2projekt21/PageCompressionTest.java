@@ -0,0 +1,91 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.crypto.Crypto;
+import huberlin.p2projekt21.crypto.SignatureScheme;
+import huberlin.p2projekt21.kademlia.Data;
+import huberlin.p2projekt21.kademlia.PageCompression;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test PageCompression and compressed pages in Data records
+ */
+public class PageCompressionTest {
+
+    private static byte[] html(int rows) {
+        StringBuilder builder = new StringBuilder("<html><body><table>");
+        for (int i = 0; i < rows; i++) builder.append("<tr><td>row ").append(i).append("</td></tr>");
+        return builder.append("</table></body></html>").toString().getBytes();
+    }
+
+    @Test
+    public void compressedRecordTest() throws Exception {
+        KeyPair pair = SignatureScheme.ED25519.generate(0);
+        byte[] content = html(200);
+        Data.Page page = new Data.Page(content, 42);
+        byte[] signature = Crypto.sign(page.toBytes(), pair.getPrivate());
+        Data data = new Data(content, signature, SignatureScheme.encode(pair.getPublic()), 42);
+
+        byte[] serialized = page.toSerialized();
+        assertTrue(serialized.length < content.length / 2);
+        assertTrue(ByteBuffer.wrap(serialized).getLong() < 0);    // flagged
+        byte[] bytes = data.toBytes();
+        assertEquals(42, Data.getTimeStamp(ByteBuffer.wrap(bytes)));
+
+        // decompressed on parse, the signature covers the uncompressed page
+        Data parsed = new Data(bytes);
+        assertEquals(42, parsed.getPage().getTimeStamp());
+        assertArrayEquals(content, parsed.getPage().getData());
+        assertTrue(Crypto.verify(parsed.getPage().toBytes(), parsed.getSignature(), parsed.getParsedPublicKey()));
+        // forwarded without compressing again
+        assertArrayEquals(bytes, parsed.toBytes());
+    }
+
+    @Test
+    public void uncompressedTest() {
+        // small or incompressible pages keep the original format
+        byte[] small = "<p>hi</p>".getBytes();
+        Data.Page page = new Data.Page(small, 7);
+        assertArrayEquals(page.toBytes(), page.toSerialized());
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        assertNull(PageCompression.compress(random));
+
+        // corrupt or oversized bodies are rejected
+        byte[] body = PageCompression.compress(html(50));
+        assertNotNull(body);
+        assertArrayEquals(html(50), PageCompression.decompress(body, 0, body.length));
+        byte[] truncated = Arrays.copyOf(body, body.length - 5);
+        try {
+            PageCompression.decompress(truncated, 0, truncated.length);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        ByteBuffer.wrap(body).putInt(body.length + 1000);
+        try {
+            PageCompression.decompress(body, 0, body.length);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        // claimed sizes beyond the deflate ratio or MAX_PAGE_SIZE are rejected before inflating
+        for (int size : new int[]{body.length * PageCompression.MAX_RATIO, PageCompression.MAX_PAGE_SIZE + 1}) {
+            ByteBuffer.wrap(body).putInt(size);
+            try {
+                PageCompression.decompress(body, 0, body.length);
+                fail();
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        // output grows beyond its initial size
+        byte[] large = html(5000);
+        byte[] compressed = PageCompression.compress(large);
+        assertTrue(compressed.length * 4 < large.length);
+        assertArrayEquals(large, PageCompression.decompress(compressed, 0, compressed.length));
+    }
+}
@@ -0,0 +1,76 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.kademlia.KademliaId;
+import huberlin.p2projekt21.kademlia.Replication;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test Replication (quorum and resend decisions without network)
+ */
+public class ReplicationTest {
+    private static List<KademliaId> ids(int count) {
+        List<KademliaId> list = new ArrayList<>();
+        for (int i = 1; i <= count; i++) list.add(KademliaId.fromBigInteger(BigInteger.valueOf(i)));
+        return list;
+    }
+
+    @Test
+    public void quorumTest() {
+        List<KademliaId> replicas = ids(5);
+        Replication replication = new Replication(replicas, 3, 2);
+        assertEquals(new HashSet<>(replicas), new HashSet<>(replication.start()));
+        assertNull(replication.result());
+
+        assertTrue(replication.onStatus(replicas.get(0), true));
+        assertTrue(replication.onStatus(replicas.get(1), false));
+        // duplicate reply is ignored
+        assertFalse(replication.onStatus(replicas.get(0), true));
+        assertTrue(replication.onStatus(replicas.get(2), true));
+        assertNull(replication.result());
+        assertTrue(replication.onStatus(replicas.get(3), true));
+        assertEquals(Boolean.TRUE, replication.result());
+        // remaining replica still outstanding
+        assertFalse(replication.isFinished());
+        assertTrue(replication.onStatus(replicas.get(4), true));
+        assertTrue(replication.isFinished());
+        assertEquals(4, replication.getAcknowledged());
+
+        // quorum bounded by the number of replicas, fails once it can no longer be reached
+        Replication small = new Replication(ids(2), 3, 0);
+        small.start();
+        assertTrue(small.onStatus(ids(2).get(0), false));
+        assertEquals(Boolean.FALSE, small.result());
+    }
+
+    @Test
+    public void resendTest() {
+        List<KademliaId> replicas = ids(3);
+        Replication replication = new Replication(replicas, 3, 1);
+        replication.start();
+        // acknowledged replicas are not resent to
+        replication.onStatus(replicas.get(0), true);
+        assertFalse(replication.onTimeout(replicas.get(0)));
+
+        // unanswered replica: resent retries times, then given up
+        assertTrue(replication.onTimeout(replicas.get(1)));
+        assertFalse(replication.onTimeout(replicas.get(1)));
+        assertEquals(1, replication.getFailed());
+        assertEquals(Boolean.FALSE, replication.result());
+
+        // no resend while a chunked STORE is still transferred
+        replication.transferStarted(replicas.get(2));
+        assertFalse(replication.onTimeout(replicas.get(2)));
+        assertEquals(1, replication.getFailed());
+        replication.transferEnded(replicas.get(2));
+        assertTrue(replication.onTimeout(replicas.get(2)));
+        assertTrue(replication.onStatus(replicas.get(2), true));
+        assertTrue(replication.isFinished());
+    }
+}
@@ -0,0 +1,94 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.kademlia.KademliaId;
+import huberlin.p2projekt21.kademlia.RandomId;
+import huberlin.p2projekt21.kademlia.RequestTracker;
+import huberlin.p2projekt21.kademlia.TimerWheel;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test RequestTracker
+ */
+public class RequestTrackerTest {
+    private static final KademliaId NODE = KademliaId.fromBigInteger(BigInteger.valueOf(42));
+    private static final KademliaId OTHER = KademliaId.fromBigInteger(BigInteger.valueOf(43));
+
+    @Test
+    public void matchTest() {
+        TimerWheel timer = new TimerWheel();
+        RequestTracker tracker = new RequestTracker(timer, 1000, request -> fail());
+        RequestTracker.Request request = tracker.register(NODE, 7);
+        assertEquals(1, tracker.size());
+
+        // unknown id and wrong sender are rejected, the request stays registered
+        assertNull(tracker.match(RandomId.random(new Random()), NODE));
+        assertNull(tracker.match(request.randomID, OTHER));
+        assertEquals(1, tracker.size());
+
+        RequestTracker.Request matched = tracker.match(RandomId.fromBytes(request.randomID.toBytes()), NODE);
+        assertSame(request, matched);
+        assertEquals(7, matched.lookupId);
+        assertEquals(0, tracker.size());
+        // a second reply is rejected
+        assertNull(tracker.match(request.randomID, NODE));
+    }
+
+    @Test
+    public void timeoutTest() throws InterruptedException {
+        TimerWheel timer = new TimerWheel();
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<RequestTracker.Request> expired = new AtomicReference<>();
+        RequestTracker tracker = new RequestTracker(timer, 50, request -> {
+            expired.set(request);
+            latch.countDown();
+        });
+        timer.start();
+        try {
+            RequestTracker.Request answered = tracker.register(OTHER, -1);
+            RequestTracker.Request unanswered = tracker.register(NODE, -1);
+            assertNotNull(tracker.match(answered.randomID, OTHER));
+            assertTrue(latch.await(2000, TimeUnit.MILLISECONDS));
+            assertSame(unanswered, expired.get());
+            assertEquals(0, tracker.size());
+            assertEquals(1, tracker.getExpired());
+            // late reply is rejected
+            assertNull(tracker.match(unanswered.randomID, NODE));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void reserveTest() throws InterruptedException {
+        TimerWheel timer = new TimerWheel();
+        CountDownLatch latch = new CountDownLatch(1);
+        RequestTracker tracker = new RequestTracker(timer, 50, request -> latch.countDown());
+        timer.start();
+        try {
+            // no timeout until started
+            RequestTracker.Request request = tracker.reserve(NODE, 3);
+            assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+            assertEquals(1, tracker.size());
+
+            tracker.start(request);
+            assertTrue(latch.await(2000, TimeUnit.MILLISECONDS));
+            assertEquals(0, tracker.size());
+
+            // a reserved request can be matched before it was started
+            RequestTracker.Request matched = tracker.reserve(NODE, 4);
+            assertSame(matched, tracker.match(matched.randomID, NODE));
+            tracker.start(matched);
+            assertEquals(0, tracker.size());
+        } finally {
+            timer.stop();
+        }
+    }
+}
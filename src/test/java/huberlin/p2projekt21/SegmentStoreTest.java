@@ -0,0 +1,184 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.storage.SegmentStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test SegmentStore (append, supersede, recovery, compaction, mapped reads)
+ */
+public class SegmentStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] hash(int i) {
+        byte[] hash = new byte[SegmentStore.KEY_HASH_LENGTH];
+        hash[0] = (byte) i;
+        hash[31] = (byte) (i >> 8);
+        return hash;
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] out = new byte[length];
+        Arrays.fill(out, (byte) value);
+        return out;
+    }
+
+    private static void put(SegmentStore store, int key, int version) throws IOException {
+        store.put(hash(key), bytes(100, version), bytes(16, version), bytes(8, key));
+    }
+
+    private static void assertVersion(SegmentStore store, int key, int version) throws IOException {
+        byte[][] stored = store.get(hash(key));
+        assertNotNull(stored);
+        assertArrayEquals(bytes(100, version), stored[0]);
+        assertArrayEquals(bytes(16, version), stored[1]);
+        assertArrayEquals(bytes(8, key), stored[2]);
+    }
+
+    @Test
+    public void putGetTest() throws IOException {
+        try (SegmentStore store = new SegmentStore(folder.getRoot().toPath())) {
+            assertNull(store.get(hash(1)));
+            put(store, 1, 1);
+            put(store, 2, 1);
+            put(store, 1, 2);
+            assertEquals(2, store.size());
+            assertVersion(store, 1, 2);
+            assertVersion(store, 2, 1);
+        }
+    }
+
+    @Test
+    public void recoveryTest() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        try (SegmentStore store = new SegmentStore(dir)) {
+            put(store, 1, 1);
+            put(store, 1, 2);
+            put(store, 2, 1);
+        }
+        // simulate a crash during a write: torn record at the end
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 10);
+        }
+        try (SegmentStore store = new SegmentStore(dir)) {
+            assertEquals(1, store.size());
+            assertVersion(store, 1, 2);
+            assertNull(store.get(hash(2)));
+            // appends continue after the truncated record
+            put(store, 2, 3);
+        }
+        try (SegmentStore store = new SegmentStore(dir)) {
+            assertVersion(store, 1, 2);
+            assertVersion(store, 2, 3);
+        }
+    }
+
+    @Test
+    public void compactionTest() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        int record = SegmentStore.HEADER_LENGTH + 100 + 16 + 8;
+        try (SegmentStore store = new SegmentStore(dir, 4 * record)) {
+            for (int key = 0; key < 4; key++) put(store, key, 1);     // fills first segment
+            put(store, 4, 1);                                          // starts second segment
+            assertEquals(2, store.getSegmentCount());
+            // superseding most records of the first segment compacts it
+            put(store, 0, 2);
+            put(store, 1, 2);
+            put(store, 2, 2);
+            assertVersion(store, 3, 1);
+            for (int key = 0; key < 3; key++) assertVersion(store, key, 2);
+            assertVersion(store, 4, 1);
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertFalse(files.anyMatch(path -> path.getFileName().toString().equals("segment-00000000.log")));
+        }
+        try (SegmentStore store = new SegmentStore(dir, 4 * record)) {
+            assertEquals(5, store.size());
+            assertVersion(store, 3, 1);
+            for (int key = 0; key < 3; key++) assertVersion(store, key, 2);
+        }
+    }
+
+    @Test
+    public void backgroundCompactionTest() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        int record = SegmentStore.HEADER_LENGTH + 100 + 16 + 8;
+        try (SegmentStore store = new SegmentStore(dir, 4 * record)) {
+            // reads stay correct while superseded segments are compacted in the background
+            for (int version = 1; version <= 50; version++) {
+                for (int key = 0; key < 5; key++) {
+                    put(store, key, version);
+                    assertVersion(store, key, version);
+                }
+            }
+        }
+        // close waited for the queued compactions: only few segments are left
+        try (SegmentStore store = new SegmentStore(dir, 4 * record)) {
+            assertEquals(5, store.size());
+            for (int key = 0; key < 5; key++) assertVersion(store, key, 50);
+            assertTrue(store.getSegmentCount() < 10);
+        }
+    }
+
+    @Test
+    public void bodyTest() throws IOException {
+        try (SegmentStore store = new SegmentStore(folder.getRoot().toPath())) {
+            assertNull(store.getBody(hash(1)));
+            put(store, 1, 1);
+            ByteBuffer body = store.getBody(hash(1));
+            assertTrue(body.isReadOnly());
+            // body equals the serialized Data: key, signature, data
+            byte[] expected = ByteBuffer.allocate(8 + 16 + 100)
+                    .put(bytes(8, 1)).put(bytes(16, 1)).put(bytes(100, 1)).array();
+            byte[] actual = new byte[body.remaining()];
+            body.duplicate().get(actual);
+            assertArrayEquals(expected, actual);
+
+            // newer records are read as well, older views stay valid
+            put(store, 1, 2);
+            put(store, 2, 1);
+            ByteBuffer newer = store.getBody(hash(1));
+            assertEquals(2, newer.get(newer.limit() - 1));
+            assertEquals(1, body.get(body.limit() - 1));
+            assertEquals(2, store.getBody(hash(2)).get(0));   // key of record 2
+        }
+    }
+
+    @Test
+    public void sealedBodyTest() throws IOException {
+        int record = SegmentStore.HEADER_LENGTH + 8 + 16 + 100;
+        try (SegmentStore store = new SegmentStore(folder.getRoot().toPath(), 2 * record)) {
+            put(store, 1, 1);
+            put(store, 2, 1);
+            // active segment -> positional read (not mapped while it grows)
+            assertFalse(store.getBody(hash(1)).isDirect());
+            put(store, 3, 1);
+            // segment sealed -> mapped, the active one is still read positionally
+            ByteBuffer sealed = store.getBody(hash(1));
+            assertTrue(sealed.isDirect());
+            assertTrue(sealed.isReadOnly());
+            assertEquals(1, sealed.get(sealed.limit() - 1));
+            assertEquals(2, store.getBody(hash(2)).get(0));
+            assertFalse(store.getBody(hash(3)).isDirect());
+            assertEquals(3, store.getBody(hash(3)).get(0));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.crypto.Crypto;
+import huberlin.p2projekt21.crypto.PublicKeyCache;
+import huberlin.p2projekt21.crypto.SignatureCache;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test SignatureCache and PublicKeyCache
+ */
+public class SignatureCacheTest {
+
+    @Test
+    public void verifyTest() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair pair = generator.generateKeyPair();
+        byte[] key = pair.getPublic().getEncoded();
+        byte[] data = "page".getBytes();
+        byte[] signature = Crypto.sign(data, pair.getPrivate());
+
+        SignatureCache cache = new SignatureCache(2);
+        assertTrue(cache.verify(data, signature, key));
+        assertEquals(0, cache.getHits());
+        assertTrue(cache.verify(data.clone(), signature.clone(), key.clone()));
+        assertEquals(1, cache.getHits());
+
+        // the cached signature does not validate other data, invalid triples are not cached
+        assertFalse(cache.verify("other".getBytes(), signature, key));
+        assertFalse(cache.verify("other".getBytes(), signature, key));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void publicKeyCacheTest() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair pair = generator.generateKeyPair();
+        byte[] key = pair.getPublic().getEncoded();
+
+        PublicKeyCache cache = new PublicKeyCache(1);
+        PublicKeyCache.KeyInfo info = cache.get(key);
+        assertEquals(pair.getPublic(), info.getPublicKey());
+        assertEquals(Helper.bigIntHashForKey(pair.getPublic()), info.getKeyHash());
+        // interned by content, the caller's array may change afterwards
+        assertSame(info, cache.get(key.clone()));
+        key[0] ^= 1;
+        assertSame(info, cache.get(pair.getPublic().getEncoded()));
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,69 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.crypto.Crypto;
+import huberlin.p2projekt21.crypto.SignatureCache;
+import huberlin.p2projekt21.crypto.SignatureScheme;
+import huberlin.p2projekt21.kademlia.Data;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test SignatureScheme and the versioned record format of Data
+ */
+public class SignatureSchemeTest {
+
+    private static Data sign(KeyPair pair, byte[] content, long timeStamp) throws Exception {
+        Data.Page page = new Data.Page(content, timeStamp);
+        byte[] signature = Crypto.sign(page.toBytes(), pair.getPrivate());
+        return new Data(content, signature, SignatureScheme.encode(pair.getPublic()), timeStamp);
+    }
+
+    @Test
+    public void ed25519RecordTest() throws Exception {
+        KeyPair pair = SignatureScheme.ED25519.generate(0);
+        byte[] key = SignatureScheme.encode(pair.getPublic());
+        assertEquals(SignatureScheme.ED25519.getKeyLength(), key.length);
+        assertEquals(SignatureScheme.ED25519, SignatureScheme.of(key));
+        assertEquals(pair.getPublic(), SignatureScheme.decode(key));
+
+        Data data = sign(pair, "page".getBytes(), 42);
+        assertEquals(SignatureScheme.ED25519.getSignatureLength(), data.getSignature().length);
+        byte[] bytes = data.toBytes();
+        assertEquals(46 + 64 + 8 + 4, bytes.length);
+        assertEquals(42, Data.getTimeStamp(ByteBuffer.wrap(bytes)));
+
+        Data parsed = new Data(bytes);
+        assertArrayEquals("page".getBytes(), parsed.getPage().getData());
+        assertEquals(Helper.bigIntHashForKey(pair.getPublic()), parsed.getKeyHash());
+        SignatureCache cache = new SignatureCache(4);
+        assertTrue(cache.verify(parsed.getPage().toBytes(), parsed.getSignature(), parsed.getPublicKey()));
+        assertFalse(cache.verify(new Data.Page("other".getBytes(), 42).toBytes(), parsed.getSignature(),
+                parsed.getPublicKey()));
+    }
+
+    @Test
+    public void rsaRecordTest() throws Exception {
+        // RSA records keep the original (unversioned) format
+        KeyPair pair = SignatureScheme.RSA.generate(2048);
+        byte[] key = SignatureScheme.encode(pair.getPublic());
+        assertArrayEquals(pair.getPublic().getEncoded(), key);
+        assertEquals(Data.RSA_KEY_LENGTH_BYTES, key.length);
+
+        byte[] bytes = sign(pair, "page".getBytes(), 7).toBytes();
+        assertEquals(Data.RSA_KEY_LENGTH_BYTES + Data.SIGNATURE_LENGTH_BYTES + 8 + 4, bytes.length);
+        assertEquals(7, Data.getTimeStamp(ByteBuffer.wrap(bytes)));
+        Data parsed = new Data(bytes);
+        assertTrue(Crypto.verify(parsed.getPage().toBytes(), parsed.getSignature(), parsed.getParsedPublicKey()));
+
+        // unknown versioned scheme
+        try {
+            SignatureScheme.of(new byte[]{SignatureScheme.VERSION_TAG, 99});
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+}
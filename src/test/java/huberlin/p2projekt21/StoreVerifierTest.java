@@ -0,0 +1,171 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.kademlia.Data;
+import huberlin.p2projekt21.kademlia.StoreVerifier;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test StoreVerifier (per key order, merging of identical pending stores)
+ */
+public class StoreVerifierTest {
+    private static final BigInteger KEY = BigInteger.ONE;
+    private static final BigInteger OTHER = BigInteger.TWO;
+
+    private static Data data(long timeStamp) {
+        return new Data(new byte[0], new byte[Data.SIGNATURE_LENGTH_BYTES], new byte[Data.RSA_KEY_LENGTH_BYTES], timeStamp);
+    }
+
+    @Test
+    public void mergeTest() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        List<Long> committed = new CopyOnWriteArrayList<>();
+        StoreVerifier verifier = new StoreVerifier(data -> {
+            long timeStamp = data.getPage().getTimeStamp();
+            if (timeStamp == 1) {
+                blocked.countDown();
+                assertTrue(release.await(2000, TimeUnit.MILLISECONDS));
+            }
+            committed.add(timeStamp);
+            done.countDown();
+        }, 2);
+        try {
+            verifier.submit(KEY, data(1));
+            assertTrue(blocked.await(2000, TimeUnit.MILLISECONDS));
+            // first store of KEY is running -> later ones wait, identical ones are merged, newest is committed first
+            verifier.submit(KEY, data(3));
+            verifier.submit(KEY, data(2));
+            verifier.submit(KEY, data(3));
+            // other keys are not blocked
+            verifier.submit(OTHER, data(10));
+            for (int i = 0; i < 100 && !committed.contains(10L); i++) Thread.sleep(10);
+            assertEquals(List.of(10L), committed);
+
+            release.countDown();
+            assertTrue(done.await(2000, TimeUnit.MILLISECONDS));
+            assertEquals(List.of(10L, 1L, 3L, 2L), committed);
+            assertEquals(5, verifier.getSubmitted());
+            assertEquals(1, verifier.getMerged());
+            // counted after the store method returned
+            for (int i = 0; i < 100 && verifier.getCommitted() < 4; i++) Thread.sleep(10);
+            assertEquals(4, verifier.getCommitted());
+        } finally {
+            verifier.stop();
+        }
+    }
+
+    @Test
+    public void callbackTest() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        StoreVerifier verifier = new StoreVerifier(data -> {
+            long timeStamp = data.getPage().getTimeStamp();
+            if (timeStamp == 1) assertTrue(release.await(2000, TimeUnit.MILLISECONDS));
+            if (timeStamp == 5) throw new SecurityException("invalid signature");
+        }, 2);
+        List<String> results = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(4);
+        try {
+            verifier.submit(KEY, data(1), stored -> { results.add("1:" + stored); done.countDown(); });
+            // every store reports the result of its own version
+            verifier.submit(KEY, data(2), stored -> { results.add("2:" + stored); done.countDown(); });
+            verifier.submit(KEY, data(3), stored -> { results.add("3:" + stored); done.countDown(); });
+            release.countDown();
+            verifier.submit(OTHER, data(5), stored -> { results.add("5:" + stored); done.countDown(); });
+            assertTrue(done.await(2000, TimeUnit.MILLISECONDS));
+            assertTrue(results.containsAll(List.of("1:true", "2:true", "3:true", "5:false")));
+        } finally {
+            verifier.stop();
+        }
+    }
+
+    @Test
+    public void forgedNewerTest() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> committed = new CopyOnWriteArrayList<>();
+        StoreVerifier verifier = new StoreVerifier(data -> {
+            long timeStamp = data.getPage().getTimeStamp();
+            if (timeStamp == 1) {
+                blocked.countDown();
+                assertTrue(release.await(2000, TimeUnit.MILLISECONDS));
+            }
+            // forged: newest time stamp, invalid signature
+            if (timeStamp == 100) throw new SecurityException("invalid signature");
+            committed.add(timeStamp);
+        }, 2);
+        List<String> results = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(4);
+        try {
+            verifier.submit(KEY, data(1), stored -> { results.add("1:" + stored); done.countDown(); });
+            assertTrue(blocked.await(2000, TimeUnit.MILLISECONDS));
+            verifier.submit(KEY, data(2), stored -> { results.add("2:" + stored); done.countDown(); });
+            verifier.submit(KEY, data(2), stored -> { results.add("2:" + stored); done.countDown(); });
+            verifier.submit(KEY, data(100), stored -> { results.add("100:" + stored); done.countDown(); });
+            release.countDown();
+            assertTrue(done.await(2000, TimeUnit.MILLISECONDS));
+            // the forged store does not hide the valid one, only its own sender is rejected
+            assertEquals(List.of(1L, 2L), committed);
+            assertTrue(results.containsAll(List.of("1:true", "2:true", "100:false")));
+            assertEquals(2, results.stream().filter("2:true"::equals).count());
+        } finally {
+            verifier.stop();
+        }
+    }
+
+    @Test
+    public void rejectTest() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        StoreVerifier verifier = new StoreVerifier(data -> {
+            if (data.getPage().getTimeStamp() == 1) assertTrue(release.await(2000, TimeUnit.MILLISECONDS));
+        }, 2, 1);
+        List<String> results = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+        try {
+            verifier.submit(KEY, data(1), stored -> { results.add("1:" + stored); done.countDown(); });
+            // cap reached -> other keys are rejected immediately, the pending key still accepts newer versions
+            verifier.submit(OTHER, data(2), stored -> results.add("2:" + stored));
+            assertEquals(List.of("2:false"), results);
+            assertEquals(1, verifier.getRejected());
+            verifier.submit(KEY, data(3), stored -> { results.add("3:" + stored); done.countDown(); });
+            release.countDown();
+            assertTrue(done.await(2000, TimeUnit.MILLISECONDS));
+            assertTrue(results.containsAll(List.of("1:true", "3:true")));
+
+            // key no longer pending -> accepted again
+            CountDownLatch other = new CountDownLatch(1);
+            for (int i = 0; i < 100 && other.getCount() > 0; i++) {
+                verifier.submit(OTHER, data(4), stored -> { if (stored) other.countDown(); });
+                if (!other.await(10, TimeUnit.MILLISECONDS)) Thread.sleep(10);
+            }
+            assertEquals(0, other.getCount());
+        } finally {
+            verifier.stop();
+        }
+    }
+
+    @Test
+    public void failingCallbackTest() throws InterruptedException {
+        StoreVerifier verifier = new StoreVerifier(data -> { }, 2, 1);
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            verifier.submit(KEY, data(1), stored -> { throw new IllegalStateException("callback failed"); });
+            // the failing callback did not leave KEY pending (the cap of 1 would reject OTHER forever)
+            for (int i = 0; i < 100 && done.getCount() > 0; i++) {
+                verifier.submit(OTHER, data(2), stored -> { if (stored) done.countDown(); });
+                if (!done.await(10, TimeUnit.MILLISECONDS)) Thread.sleep(10);
+            }
+            assertEquals(0, done.getCount());
+        } finally {
+            verifier.stop();
+        }
+    }
+}
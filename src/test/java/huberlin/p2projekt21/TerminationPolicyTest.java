@@ -0,0 +1,29 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.kademlia.Data;
+import huberlin.p2projekt21.kademlia.TerminationPolicy;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test TerminationPolicy
+ */
+public class TerminationPolicyTest {
+    private static final Data VALUE = new Data(new byte[]{1}, new byte[Data.SIGNATURE_LENGTH_BYTES],
+            new byte[Data.RSA_KEY_LENGTH_BYTES], 1);
+
+    @Test
+    public void policyTest() {
+        assertEquals(TerminationPolicy.UNLIMITED, TerminationPolicy.closestAnswered().remaining(VALUE, 100, 200));
+
+        TerminationPolicy first = TerminationPolicy.firstValue();
+        assertEquals(TerminationPolicy.UNLIMITED, first.remaining(null, -1, 200));
+        assertEquals(0, first.remaining(VALUE, 100, 100));
+
+        TerminationPolicy grace = TerminationPolicy.newestWithin(50);
+        assertEquals(TerminationPolicy.UNLIMITED, grace.remaining(null, -1, 200));
+        assertEquals(30, grace.remaining(VALUE, 100, 120));
+        assertEquals(0, grace.remaining(VALUE, 100, 200));
+    }
+}
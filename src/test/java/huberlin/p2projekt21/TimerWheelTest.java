@@ -0,0 +1,72 @@
+package huberlin.p2projekt21;
+
+import huberlin.p2projekt21.kademlia.TimerWheel;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test TimerWheel
+ */
+public class TimerWheelTest {
+
+    @Test
+    public void scheduleTest() throws InterruptedException {
+        TimerWheel timer = new TimerWheel();
+        timer.start();
+        try {
+            // longer than one round of the wheel
+            long delay = TimerWheel.TICK * TimerWheel.WHEEL_SIZE + 30;
+            CountDownLatch latch = new CountDownLatch(2);
+            long start = System.currentTimeMillis();
+            long[] fired = new long[1];
+            timer.schedule(latch::countDown, 0);
+            timer.schedule(() -> {
+                fired[0] = System.currentTimeMillis();
+                latch.countDown();
+            }, delay);
+            assertTrue(latch.await(delay + 2000, TimeUnit.MILLISECONDS));
+            assertTrue(fired[0] - start >= delay);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void cancelTest() throws InterruptedException {
+        TimerWheel timer = new TimerWheel();
+        timer.start();
+        try {
+            AtomicBoolean cancelledRun = new AtomicBoolean(false);
+            CountDownLatch latch = new CountDownLatch(1);
+            timer.schedule(() -> cancelledRun.set(true), 20).cancel();
+            timer.schedule(latch::countDown, 50);
+            assertTrue(latch.await(2000, TimeUnit.MILLISECONDS));
+            assertFalse(cancelledRun.get());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void failingTaskTest() throws InterruptedException {
+        TimerWheel timer = new TimerWheel();
+        timer.start();
+        try {
+            // a task throwing an Error does not stop the timer thread
+            CountDownLatch latch = new CountDownLatch(2);
+            timer.schedule(() -> {
+                latch.countDown();
+                throw new AssertionError("task failed");
+            }, 20);
+            timer.schedule(latch::countDown, 50);
+            assertTrue(latch.await(2000, TimeUnit.MILLISECONDS));
+        } finally {
+            timer.stop();
+        }
+    }
+}